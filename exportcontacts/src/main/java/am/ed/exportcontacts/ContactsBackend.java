@@ -33,7 +33,10 @@ public class ContactsBackend implements Backend
 {
 	Activity _activity = null;
 	Exporter _exporter = null;
-	Cursor _cur = null;
+	CursorReader _cur = null;
+	CursorReader.Column _id_column = null;
+	CursorReader.Column _name_column = null;
+	CursorReader.Column _notes_column = null;
 
 	public ContactsBackend( Activity activity, Exporter exporter )
 	{
@@ -93,17 +96,21 @@ public class ContactsBackend implements Backend
 		if( _cur == null )
 		{
 			// get all contacts
-			_cur = _activity.getContentResolver().query(
+			Cursor cur = _activity.getContentResolver().query(
 				Contacts.People.CONTENT_URI,
 				new String[] {
 					Contacts.People._ID,
 					Contacts.People.NAME,
 					Contacts.People.NOTES,
 				}, null, null, null );
+			if( cur == null ) return false;
+			_cur = new CursorReader( cur );
+			_id_column = _cur.getColumn( Contacts.People._ID );
+			_name_column = _cur.getColumn( Contacts.People.NAME );
+			_notes_column = _cur.getColumn( Contacts.People.NOTES );
 		}
 
 		// if there are no more contacts, abort
-		if( _cur == null ) return false;
 		if( !_cur.moveToNext() ) {
 			_cur.close();
 			_cur = null;
@@ -111,38 +118,38 @@ public class ContactsBackend implements Backend
 		}
 
 		// get this contact's id
-		Long id = _cur.getLong( _cur.getColumnIndex( Contacts.People._ID ) );
+		Long id = _id_column.getLong();
 
 		// set name
-		contact.setName(
-			_cur.getString( _cur.getColumnIndex( Contacts.People.NAME ) ) );
+		contact.setName( _name_column.getString() );
 
 		// add notes
-		String note = _cur.getString(
-			_cur.getColumnIndex( Contacts.People.NOTES ) );
+		String note = _notes_column.getString();
 		if( note != null && note.length() > 0 )
 			contact.addNote( note );
 
 		// add the organisations
-		Cursor cur = _activity.getContentResolver().query(
-			Contacts.Organizations.CONTENT_URI,
-			new String[] {
-				Contacts.Organizations.COMPANY,
-				Contacts.Organizations.TITLE,
-			}, Contacts.Organizations.PERSON_ID + " = ?",
-			new String[] { id.toString() },
-			Contacts.Organizations.ISPRIMARY + " DESC, " +
-				Contacts.Organizations.PERSON_ID + " ASC" );
+		CursorReader cur = new CursorReader(
+			_activity.getContentResolver().query(
+				Contacts.Organizations.CONTENT_URI,
+				new String[] {
+					Contacts.Organizations.COMPANY,
+					Contacts.Organizations.TITLE,
+				}, Contacts.Organizations.PERSON_ID + " = ?",
+				new String[] { id.toString() },
+				Contacts.Organizations.ISPRIMARY + " DESC, " +
+					Contacts.Organizations.PERSON_ID + " ASC" ) );
+		CursorReader.Column company_column =
+			cur.getColumn( Contacts.Organizations.COMPANY );
+		CursorReader.Column title_column =
+			cur.getColumn( Contacts.Organizations.TITLE );
 		while( cur.moveToNext() )
 			contact.addOrganisation( contact.new OrganisationDetail(
-				cur.getString( cur.getColumnIndex(
-					Contacts.Organizations.COMPANY ) ),
-				cur.getString( cur.getColumnIndex(
-					Contacts.Organizations.TITLE ) ) ) );
+				company_column.getString(), title_column.getString() ) );
 		cur.close();
 
 		// add the phone numbers
-		cur = _activity.getContentResolver().query(
+		cur = new CursorReader( _activity.getContentResolver().query(
 			Contacts.Phones.CONTENT_URI,
 			new String[] {
 				Contacts.Phones.NUMBER,
@@ -150,17 +157,18 @@ public class ContactsBackend implements Backend
 			}, Contacts.Phones.PERSON_ID + " = ?",
 			new String[] { id.toString() },
 			Contacts.Phones.ISPRIMARY + " DESC," +
-				Contacts.Phones.PERSON_ID + " ASC" );
+				Contacts.Phones.PERSON_ID + " ASC" ) );
+		CursorReader.Column data_column =
+			cur.getColumn( Contacts.Phones.NUMBER );
+		CursorReader.Column type_column = cur.getColumn( Contacts.Phones.TYPE );
 		while( cur.moveToNext() )
 			contact.addNumber( contact.new NumberDetail(
 				convertBackendTypeToType( Contacts.Phones.class,
-					cur.getInt( cur.getColumnIndex( Contacts.Phones.TYPE ) ) ),
-				cur.getString( cur.getColumnIndex(
-					Contacts.Phones.NUMBER ) ) ) );
+					type_column.getInt() ), data_column.getString() ) );
 		cur.close();
 
 		// add the email and postal addresses
-		cur = _activity.getContentResolver().query(
+		cur = new CursorReader( _activity.getContentResolver().query(
 			Contacts.ContactMethods.CONTENT_URI,
 			new String[] {
 				Contacts.ContactMethods.KIND,
@@ -175,24 +183,21 @@ public class ContactsBackend implements Backend
 				"" + Contacts.KIND_POSTAL,
 			},
 			Contacts.ContactMethods.ISPRIMARY + " DESC," +
-				Contacts.ContactMethods.PERSON_ID + " ASC" );
+				Contacts.ContactMethods.PERSON_ID + " ASC" ) );
+		CursorReader.Column kind_column =
+			cur.getColumn( Contacts.ContactMethods.KIND );
+		type_column = cur.getColumn( Contacts.ContactMethods.TYPE );
+		data_column = cur.getColumn( Contacts.ContactMethods.DATA );
 		while( cur.moveToNext() ) {
-			int kind = cur.getInt( cur.getColumnIndex(
-				Contacts.ContactMethods.KIND ) );
+			int kind = kind_column.getInt();
 			if( kind == Contacts.KIND_EMAIL )
 				contact.addEmail( contact.new EmailDetail(
 					convertBackendTypeToType( Contacts.ContactMethods.class,
-						cur.getInt( cur.getColumnIndex(
-							Contacts.ContactMethods.TYPE ) ) ),
-					cur.getString( cur.getColumnIndex(
-						Contacts.ContactMethods.DATA ) ) ) );
+						type_column.getInt() ), data_column.getString() ) );
 			else
 				contact.addAddress( contact.new AddressDetail(
 					convertBackendTypeToType( Contacts.ContactMethods.class,
-						cur.getInt( cur.getColumnIndex(
-							Contacts.ContactMethods.TYPE ) ) ),
-					cur.getString( cur.getColumnIndex(
-						Contacts.ContactMethods.DATA ) ) ) );
+						type_column.getInt() ), data_column.getString() ) );
 		}
 		cur.close();
 
@@ -35,7 +35,9 @@ public class ContactsContractBackend implements Backend
 {
 	Activity _activity = null;
 	Exporter _exporter = null;
-	Cursor _cur = null;
+	CursorReader _cur = null;
+	CursorReader.Column _id_column = null;
+	CursorReader.Column _name_column = null;
 
 	public ContactsContractBackend( Activity activity,
 		Exporter exporter )
@@ -109,16 +111,20 @@ public class ContactsContractBackend implements Backend
 		if( _cur == null )
 		{
 			// get all aggregate contacts
-			_cur = _activity.getContentResolver().query(
+			Cursor cur = _activity.getContentResolver().query(
 				ContactsContract.Contacts.CONTENT_URI,
 				new String[] {
 					ContactsContract.Contacts._ID,
 					ContactsContract.Contacts.DISPLAY_NAME,
 				}, null, null, null );
+			if( cur == null ) return false;
+			_cur = new CursorReader( cur );
+			_id_column = _cur.getColumn( ContactsContract.Contacts._ID );
+			_name_column =
+				_cur.getColumn( ContactsContract.Contacts.DISPLAY_NAME );
 		}
 
 		// if there are no more aggregate contacts, abort
-		if( _cur == null ) return false;
 		if( !_cur.moveToNext() ) {
 			_cur.close();
 			_cur = null;
@@ -126,12 +132,10 @@ public class ContactsContractBackend implements Backend
 		}
 
 		// get this aggregate contact's id
-		Long id = _cur.getLong( _cur.getColumnIndex(
-			ContactsContract.Contacts._ID ) );
+		Long id = _id_column.getLong();
 
 		// create contact
-		contact.setName( _cur.getString( _cur.getColumnIndex(
-			ContactsContract.Contacts.DISPLAY_NAME ) ) );
+		contact.setName( _name_column.getString() );
 
 		// get all contact data pertaining to the aggregate contact
 		Cursor cur = _activity.getContentResolver().query(
@@ -159,61 +163,67 @@ public class ContactsContractBackend implements Backend
 			ContactsContract.Data.IS_SUPER_PRIMARY + " DESC, " +
 				ContactsContract.Data.RAW_CONTACT_ID + ", " +
 				ContactsContract.Data.IS_PRIMARY + " DESC" );
-		while( cur.moveToNext() )
+		CursorReader reader = new CursorReader( cur );
+
+		// the details of every kind are in the generic data columns (e.g.,
+		// Phone.NUMBER, Email.DATA and Organization.COMPANY are all DATA1)
+		CursorReader.Column mimetype_column =
+			reader.getColumn( ContactsContract.Data.MIMETYPE );
+		CursorReader.Column data1_column =
+			reader.getColumn( ContactsContract.Data.DATA1 );
+		CursorReader.Column data2_column =
+			reader.getColumn( ContactsContract.Data.DATA2 );
+		CursorReader.Column data4_column =
+			reader.getColumn( ContactsContract.Data.DATA4 );
+		while( reader.moveToNext() )
 		{
-			String type = cur.getString( cur.getColumnIndex(
-				ContactsContract.Data.MIMETYPE ) );
+			String type = mimetype_column.getString();
 
 			// add phone numbers
 			if( type.equals( CommonDataKinds.Phone.CONTENT_ITEM_TYPE ) )
 				contact.addNumber( contact.new NumberDetail(
 					convertBackendTypeToType( CommonDataKinds.Phone.class,
-						cur.getInt( cur.getColumnIndex(
-							CommonDataKinds.Phone.TYPE ) ) ),
-					cur.getString( cur.getColumnIndex(
-						CommonDataKinds.Phone.NUMBER ) ) ) );
+						data2_column.getInt() ),
+					data1_column.getString() ) );
 
 			// add email addresses
 			else if( type.equals( CommonDataKinds.Email.CONTENT_ITEM_TYPE ) )
 				contact.addEmail( contact.new EmailDetail(
 					convertBackendTypeToType( CommonDataKinds.Email.class,
-						cur.getInt( cur.getColumnIndex(
-							CommonDataKinds.Email.TYPE ) ) ),
-					cur.getString( cur.getColumnIndex(
-						CommonDataKinds.Email.DATA ) ) ) );
+						data2_column.getInt() ),
+					data1_column.getString() ) );
 
 			// add postal addresses
-			else if( type.equals( CommonDataKinds.StructuredPostal.CONTENT_ITEM_TYPE ) )
+			else if( type.equals(
+				CommonDataKinds.StructuredPostal.CONTENT_ITEM_TYPE ) )
+			{
 				contact.addAddress( contact.new AddressDetail(
-					convertBackendTypeToType( CommonDataKinds.StructuredPostal.class,
-						cur.getInt( cur.getColumnIndex(
-							CommonDataKinds.StructuredPostal.TYPE ) ) ),
-					cur.getString( cur.getColumnIndex(
-						CommonDataKinds.StructuredPostal.FORMATTED_ADDRESS ) ) ) );
+					convertBackendTypeToType(
+						CommonDataKinds.StructuredPostal.class,
+						data2_column.getInt() ),
+					data1_column.getString() ) );
+			}
 
 			// add organisations/titles
-			else if( type.equals( CommonDataKinds.Organization.CONTENT_ITEM_TYPE ) )
+			else if( type.equals(
+				CommonDataKinds.Organization.CONTENT_ITEM_TYPE ) )
+			{
 				contact.addOrganisation( contact.new OrganisationDetail(
-					cur.getString( cur.getColumnIndex(
-						CommonDataKinds.Organization.COMPANY ) ),
-					cur.getString( cur.getColumnIndex(
-						CommonDataKinds.Organization.TITLE ) ) ) );
+					data1_column.getString(), data4_column.getString() ) );
+			}
 
 			// add notes
 			else if( type.equals( CommonDataKinds.Note.CONTENT_ITEM_TYPE ) )
-				contact.addNote( cur.getString( cur.getColumnIndex(
-					CommonDataKinds.Note.NOTE ) ) );
+				contact.addNote( data1_column.getString() );
 
 			// add birthday
 			else if( type.equals( CommonDataKinds.Event.CONTENT_ITEM_TYPE ) ) {
-				int event = cur.getInt( cur.getColumnIndex(
-					CommonDataKinds.Event.TYPE ) );
+				int event = data2_column.getInt();
 				if( event == CommonDataKinds.Event.TYPE_BIRTHDAY )
-					contact.setBirthday( cur.getString( cur.getColumnIndex(
-						CommonDataKinds.Event.START_DATE ) ) );
+					contact.setBirthday( data1_column.getString() );
 			}
 		}
-		cur.close();
+		reader.close();
 
 		return true;
 	}
@@ -46,29 +46,38 @@ public class Doit extends WizardActivity
 	public final static int MESSAGE_ERROR = 2;
 	public final static int MESSAGE_CONTINUEORABORT = 3;
 	public final static int MESSAGE_SETPROGRESSMESSAGE = 4;
-	public final static int MESSAGE_SETMAXPROGRESS = 5;
-	public final static int MESSAGE_SETTMPPROGRESS = 6;
-	public final static int MESSAGE_SETPROGRESS = 7;
-	public final static int MESSAGE_CONTACTWRITTEN = 8;
-	public final static int MESSAGE_CONTACTSKIPPED = 9;
+
+	public final static int COUNT_WRITES = 0;
+	public final static int COUNT_SKIPS = 1;
+	private final static int NUM_COUNTS = 2;
+
+	// how often (in milliseconds) progress and statistics are displayed
+	private final static int PROGRESS_POLL_INTERVAL = 100;
 
 	public final static int NEXT_BEGIN = 0;
 	public final static int NEXT_CLOSE = 1;
 
-	private boolean _started_progress;
-	private int _max_progress;
-	private int _tmp_progress;
-	private int _progress;
+	private int _shown_max_progress;
+	private int _shown_tmp_progress;
+	private int _shown_progress;
 	protected String _dialog_message;
 	private int _next_action;
 	private int _current_dialog_id;
 
-	private int _count_writes;
-	private int _count_skips;
+	private int[] _shown_counts;
 
 	protected Exporter _exporter = null;
 
 	public Handler _handler;
+	public ProgressCounters _progress_counters;
+
+	private Runnable _progress_poller = new Runnable() {
+		public void run() {
+			updateProgress();
+			updateStats();
+			_handler.postDelayed( this, PROGRESS_POLL_INTERVAL );
+		}
+	};
 
 	public class DoitHandler extends Handler
 	{
@@ -77,6 +86,7 @@ public class Doit extends WizardActivity
 			switch( msg.what )
 			{
 			case MESSAGE_ALLDONE:
+				stopProgressPolling();
 				( (TextView)findViewById( R.id.doit_alldone ) ).
 					setVisibility( View.VISIBLE );
 				( (Button)findViewById( R.id.back ) ).setEnabled( false );
@@ -99,33 +109,6 @@ public class Doit extends WizardActivity
 				( (TextView)findViewById( R.id.doit_percentage ) ).
 					setText( (String)msg.obj );
 				break;
-			case MESSAGE_SETMAXPROGRESS:
-				if( _max_progress > 0 ) {
-					if( _tmp_progress == _max_progress - 1 )
-						_tmp_progress = (Integer)msg.obj;
-					if( _progress == _max_progress - 1 )
-						_progress = (Integer)msg.obj;
-				}
-				_max_progress = (Integer)msg.obj;
-				updateProgress();
-				break;
-			case MESSAGE_SETTMPPROGRESS:
-				_tmp_progress = (Integer)msg.obj;
-				updateProgress();
-				break;
-			case MESSAGE_SETPROGRESS:
-				_started_progress = true;
-				_progress = (Integer)msg.obj;
-				updateProgress();
-				break;
-			case MESSAGE_CONTACTWRITTEN:
-				_count_writes++;
-				updateStats();
-				break;
-			case MESSAGE_CONTACTSKIPPED:
-				_count_skips++;
-				updateStats();
-				break;
 			default:
 				super.handleMessage( msg );
 			}
@@ -149,14 +132,15 @@ public class Doit extends WizardActivity
 			}
 		} );
 
-		_started_progress = false;
-		_max_progress = 0;
-		_tmp_progress = 0;
-		_progress = 0;
+		_shown_max_progress = -1;
+		_shown_tmp_progress = -1;
+		_shown_progress = -1;
 		_handler = new DoitHandler();
 
-		_count_writes = 0;
-		_count_skips = 0;
+		_progress_counters = new ProgressCounters( NUM_COUNTS );
+		_shown_counts = new int[ NUM_COUNTS ];
+		for( int a = 0; a < NUM_COUNTS; a++ )
+			_shown_counts[ a ] = -1;
 
 		updateNext( NEXT_BEGIN );
 
@@ -330,34 +314,71 @@ public class Doit extends WizardActivity
 
 		// start the service's thread
 		_exporter.start();
+
+		// and start displaying its progress
+		_handler.postDelayed( _progress_poller, PROGRESS_POLL_INTERVAL );
+	}
+
+	/**
+	 * Stop periodically displaying progress and statistics, and display them
+	 * one last time.
+	 */
+	private void stopProgressPolling()
+	{
+		if( _handler != null )
+			_handler.removeCallbacks( _progress_poller );
+		updateProgress();
+		updateStats();
 	}
 
 	private void updateProgress()
 	{
+		int max_progress = _progress_counters.getMaxProgress();
+		int tmp_progress = _progress_counters.getTmpProgress();
+		int progress = _progress_counters.getProgress();
+
+		// only update the views if something has changed
+		if( max_progress == _shown_max_progress &&
+			tmp_progress == _shown_tmp_progress &&
+			progress == _shown_progress )
+		{
+			return;
+		}
+		_shown_max_progress = max_progress;
+		_shown_tmp_progress = tmp_progress;
+		_shown_progress = progress;
+
 		ProgressBar bar = (ProgressBar)findViewById( R.id.doit_progress );
 		TextView out_of = (TextView)findViewById( R.id.doit_outof );
 
-		if( _max_progress > 0 )
+		if( max_progress > 0 )
 		{
-			bar.setMax( _max_progress );
-			bar.setSecondaryProgress( _tmp_progress );
+			bar.setMax( max_progress );
+			bar.setSecondaryProgress( tmp_progress );
 
-			if( _started_progress )
+			if( progress != -1 )
 			{
 				( (TextView)findViewById( R.id.doit_percentage ) ).setText(
-					(int)Math.round( 100 * _progress / _max_progress ) + "%" );
-				out_of.setText( _progress + "/" + _max_progress );
-				bar.setProgress( _progress );
+					(int)Math.round( 100 * progress / max_progress ) + "%" );
+				out_of.setText( progress + "/" + max_progress );
+				bar.setProgress( progress );
 			}
 		}
 	}
 
 	private void updateStats()
 	{
-		( (TextView)findViewById( R.id.doit_writes ) ).setText(
-			"" + _count_writes );
-		( (TextView)findViewById( R.id.doit_skips ) ).setText(
-			"" + _count_skips );
+		updateStat( R.id.doit_writes, COUNT_WRITES );
+		updateStat( R.id.doit_skips, COUNT_SKIPS );
+	}
+
+	private void updateStat( int id, int counter )
+	{
+		int count = _progress_counters.getCount( counter );
+		if( count != _shown_counts[ counter ] ) {
+			_shown_counts[ counter ] = count;
+			( (TextView)findViewById( id ) ).setText( "" + count );
+		}
 	}
 
 	private void abortExport( boolean show_toaster_popup )
@@ -384,6 +405,7 @@ public class Doit extends WizardActivity
 		}
 
 		// destroy some stuff
+		stopProgressPolling();
 		_exporter = null;
 		_handler = null;
 	}
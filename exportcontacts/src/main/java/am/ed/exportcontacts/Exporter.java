@@ -325,9 +325,9 @@ public class Exporter extends Thread
 			// export this one
 			checkAbort();
 			if( exportContact( contact ) )
-				_doit._handler.sendEmptyMessage( Doit.MESSAGE_CONTACTWRITTEN );
+				_doit._progress_counters.increment( Doit.COUNT_WRITES );
 			else
-				_doit._handler.sendEmptyMessage( Doit.MESSAGE_CONTACTSKIPPED );
+				_doit._progress_counters.increment( Doit.COUNT_SKIPS );
 			setProgress( count++ );
 		}
 		setProgress( num_contacts );
@@ -417,26 +417,20 @@ public class Exporter extends Thread
 			throws AbortExportException
 	{
 		checkAbort();
-		_doit._handler.sendMessage( Message.obtain(
-			_doit._handler, Doit.MESSAGE_SETMAXPROGRESS,
-			Integer.valueOf( max_progress ) ) );
+		_doit._progress_counters.setMaxProgress( max_progress );
 	}
 
 	protected void setTmpProgress( int tmp_progress )
 		throws AbortExportException
 	{
 		checkAbort();
-		_doit._handler.sendMessage( Message.obtain(
-			_doit._handler, Doit.MESSAGE_SETTMPPROGRESS,
-			Integer.valueOf( tmp_progress ) ) );
+		_doit._progress_counters.setTmpProgress( tmp_progress );
 	}
 
 	protected void setProgress( int progress ) throws AbortExportException
 	{
 		checkAbort();
-		_doit._handler.sendMessage( Message.obtain(
-			_doit._handler, Doit.MESSAGE_SETPROGRESS,
-			Integer.valueOf( progress ) ) );
+		_doit._progress_counters.setProgress( progress );
 	}
 
 	protected void finish( int action ) throws AbortExportException
@@ -463,7 +457,7 @@ public class Exporter extends Thread
 	protected void skipContact() throws AbortExportException
 	{
 		checkAbort();
-		_doit._handler.sendEmptyMessage( Doit.MESSAGE_CONTACTSKIPPED );
+		_doit._progress_counters.increment( Doit.COUNT_SKIPS );
 	}
 
 	synchronized protected void checkAbort() throws AbortExportException
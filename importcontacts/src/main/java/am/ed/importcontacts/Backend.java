@@ -23,7 +23,7 @@
 
 package am.ed.importcontacts;
 
-import am.ed.importcontacts.Importer.ContactData;
+import java.util.ArrayList;
 
 public interface Backend
 {
@@ -35,85 +35,75 @@ public interface Backend
 	public void populateCache( ContactsCache cache );
 
 	/**
-	 * Delete a contact from the device.
+	 * Get a marker that identifies the current state of the contacts on the
+	 * device.  It changes whenever contacts are added, changed or deleted,
+	 * and is used to check whether a saved snapshot of the contacts cache is
+	 * still valid.
 	 *
-	 * @param id of the contact to delete
+	 * @return the marker, or null if the backend can not tell when contacts
+	 *         have changed
 	 */
-	public void deleteContact( Long id );
-
-	@SuppressWarnings("serial")
-	public class ContactCreationException extends Exception { };
+	public String getCacheMarker();
 
 	/**
-	 * Add a contact to the device.
+	 * Bring a cache up to date with the changes that have been made to
+	 * contacts on the device since it was populated, by reading only the
+	 * contacts that have changed.
 	 *
-	 * @param name name of the new contact, or null if there isn't one
-	 * @return the new contact's id
-	 * @throws ContactCreationException
+	 * @param cache the cache
+	 * @param marker the marker that was obtained when the cache was populated
+	 * @return true if the cache was refreshed, or false if it couldn't be (in
+	 *         which case it may be partly refreshed, and needs populating
+	 *         from scratch)
 	 */
-	public Long addContact( String name ) throws ContactCreationException;
+	public boolean refreshCache( ContactsCache cache, String marker );
 
 	/**
-	 * Add a phone number to an existing contact on the device.
+	 * Add some contacts' details, of the kinds that the cache loads lazily
+	 * (see ContactsCache.isLoadedLazily()), to the cache.
 	 *
-	 * @param id the existing contact's id
-	 * @param number the phone number
-	 * @param data data about the number
-	 * @throws ContactCreationException
+	 * @param cache the cache
+	 * @param ids the contacts' ids
 	 */
-	public void addContactPhone( Long id, String number,
-		ContactData.PreferredDetail data ) throws ContactCreationException;
+	public void loadAssociatedData( ContactsCache cache, long[] ids );
 
 	/**
-	 * Add an email address to an existing contact on the device.
+	 * Read the details of one kind that an existing contact on the device
+	 * has.
 	 *
 	 * @param id the existing contact's id
-	 * @param email the email address
-	 * @param data data about the email address
-	 * @throws ContactCreationException
+	 * @param kind the kind of detail (a MergePolicy.KIND_* value)
+	 * @return the details (which are not normalised)
 	 */
-	public void addContactEmail( Long id, String email,
-		ContactData.PreferredDetail data ) throws ContactCreationException;
+	public ArrayList< String > readContactDetails( Long id, int kind );
 
 	/**
-	 * Add an address to an existing contact on the device.
+	 * Does an existing contact on the device have a photo?
 	 *
 	 * @param id the existing contact's id
-	 * @param address the address
-	 * @param data data about the address
-	 * @throws ContactCreationException
+	 * @return true if it does
 	 */
-	public void addContactAddresses( Long id, String address,
-		ContactData.TypeDetail data ) throws ContactCreationException;
+	public boolean hasContactPhoto( Long id );
 
-	/**
-	 * Add a title and organisation to an existing contact on the device.
-	 *
-	 * @param id the existing contact's id
-	 * @param organisation the organisation
-	 * @param data data about the organisation
-	 * @throws ContactCreationException
-	 */
-	public void addContactOrganisation( Long id, String organisation,
-		ContactData.ExtraDetail data ) throws ContactCreationException;
+	@SuppressWarnings("serial")
+	public class ContactCreationException extends Exception { };
 
 	/**
-	 * Add a note to an existing contact on the device.
+	 * Commit a batch of changes to contacts on the device, in as few
+	 * transactions as possible (if transactions are supported at all, each
+	 * entry's changes are in the same one).  For each entry, any contact to
+	 * be deleted is deleted, a new contact is created if necessary (and the
+	 * entry's new id is set), any of the existing contact's details that are
+	 * being replaced (and which the entry doesn't have) are removed, and then
+	 * the entry's details that don't already exist are added.
 	 *
-	 * @param id the existing contact's id
-	 * @param note the note
-	 * @throws ContactCreationException
-	 */
-	public void addContactNote( Long id, String note )
-		throws ContactCreationException;
-
-	/**
-	 * Add a birthday to an existing contact on the device.
+	 * Each entry that is written is marked as committed, so that if the batch
+	 * fails part way through, the entries that were written can still be
+	 * accounted for.
 	 *
-	 * @param id the existing contact's id
-	 * @param birthday the birthday
+	 * @param batch the batch
 	 * @throws ContactCreationException
 	 */
-	public void addContactBirthday( Long id, String birthday )
+	public void commitBatch( ContactBatch batch )
 		throws ContactCreationException;
 }
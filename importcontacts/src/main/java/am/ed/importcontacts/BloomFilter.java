@@ -0,0 +1,153 @@
+/*
+ * BloomFilter.java
+ *
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This file is part of the Import Contacts program (hereafter referred
+ * to as "this program").  For more information, see
+ * http://ed.am/dev/android/import-contacts
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package am.ed.importcontacts;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A Bloom filter of 64-bit hashes, which can say that a hash has definitely
+ * not been added, without holding the hashes themselves.  Around 1% of hashes
+ * that haven't been added will appear to have been.
+ *
+ * The number of hashes that will be added doesn't need to be known: once the
+ * filter is full, further hashes are added to a new filter (of twice the size)
+ * and all of the filters are checked.  Hashes can be added by one thread at a
+ * time, but checked by any number of threads.
+ *
+ * The filter also counts how it is used, so that it can be seen whether it is
+ * worth having.
+ */
+public class BloomFilter
+{
+	// bits per hash and number of bits set per hash, for a ~1% false
+	// positive rate
+	private final static int BITS_PER_HASH = 10;
+	private final static int NUM_BITS_SET = 7;
+
+	private String _name;
+	private volatile int[][] _filters;
+	private int _capacity;
+	private int _count = 0;
+
+	private AtomicInteger _checks = new AtomicInteger();
+	private AtomicInteger _negatives = new AtomicInteger();
+	private AtomicInteger _false_positives = new AtomicInteger();
+
+	/**
+	 * Create a filter.
+	 *
+	 * @param name a name for the filter (for its report)
+	 * @param capacity the number of hashes expected
+	 */
+	public BloomFilter( String name, int capacity )
+	{
+		_name = name;
+		_capacity = Math.max( capacity, 1024 );
+		_filters = new int[][] {
+			new int[ ( _capacity * BITS_PER_HASH + 31 ) / 32 ] };
+	}
+
+	public synchronized void add( long hash )
+	{
+		if( _count == _capacity ) {
+			_capacity *= 2;
+			_count = 0;
+			int[][] filters = new int[ _filters.length + 1 ][];
+			System.arraycopy( _filters, 0, filters, 0, _filters.length );
+			filters[ _filters.length ] =
+				new int[ ( _capacity * BITS_PER_HASH + 31 ) / 32 ];
+			_filters = filters;
+		}
+
+		int[] bits = _filters[ _filters.length - 1 ];
+		int num_bits = bits.length * 32;
+		int hash1 = (int)hash;
+		int hash2 = (int)( hash >>> 32 );
+		for( int a = 0; a < NUM_BITS_SET; a++ ) {
+			int bit = ( ( hash1 + a * hash2 ) & 0x7fffffff ) % num_bits;
+			bits[ bit >>> 5 ] |= 1 << ( bit & 31 );
+		}
+		_count++;
+	}
+
+	/**
+	 * Check whether a hash might have been added.
+	 *
+	 * @param hash the hash
+	 * @return false if it definitely hasn't been
+	 */
+	public boolean mightContain( long hash )
+	{
+		_checks.incrementAndGet();
+
+		int[][] filters = _filters;
+		int hash1 = (int)hash;
+		int hash2 = (int)( hash >>> 32 );
+		for( int a = 0; a < filters.length; a++ ) {
+			int[] bits = filters[ a ];
+			int num_bits = bits.length * 32;
+			int b = 0;
+			while( b < NUM_BITS_SET ) {
+				int bit = ( ( hash1 + b * hash2 ) & 0x7fffffff ) % num_bits;
+				if( ( bits[ bit >>> 5 ] & ( 1 << ( bit & 31 ) ) ) == 0 ) break;
+				b++;
+			}
+			if( b == NUM_BITS_SET ) return true;
+		}
+
+		_negatives.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Record that a hash that might have been added (according to the
+	 * filter) turned out not to have been.
+	 */
+	public void recordFalsePositive()
+	{
+		_false_positives.incrementAndGet();
+	}
+
+	/**
+	 * Estimate the heap space used by the filter.
+	 *
+	 * @return number of bytes
+	 */
+	public long estimateSize()
+	{
+		int[][] filters = _filters;
+		long size = 16 + 4 * filters.length;
+		for( int a = 0; a < filters.length; a++ )
+			size += 16 + 4 * filters[ a ].length;
+		return size;
+	}
+
+	public String getReport()
+	{
+		int checks = _checks.get();
+		return _name + ": " + checks + " checks, " + _negatives.get() +
+			" definitely absent, " + _false_positives.get() +
+			" false positives";
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * CacheSnapshot.java
+ *
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This file is part of the Import Contacts program (hereafter referred
+ * to as "this program").  For more information, see
+ * http://ed.am/dev/android/import-contacts
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package am.ed.importcontacts;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A snapshot of the contacts cache, saved to a file at the end of an import
+ * so that the next import can load the cache from it, rather than querying
+ * every contact on the device again.
+ *
+ * A snapshot is only valid while the contacts on the device are the same as
+ * when it was saved.  So it is saved with a marker, obtained from the backend,
+ * that changes whenever the contacts do (see Backend.getCacheMarker()).  When
+ * it is loaded, if the backend's current marker is different, the cache needs
+ * refreshing (see Backend.refreshCache()).
+ *
+ * The file is a flat sequence of length-prefixed records, which is loaded
+ * through a read-only memory mapping of the whole file.
+ */
+public class CacheSnapshot
+{
+	private final static int MAGIC = 0x49434353;
+	private final static int VERSION = 2;
+
+	private File _file;
+
+	public CacheSnapshot( File file )
+	{
+		_file = file;
+	}
+
+	/**
+	 * Load the snapshot in to a cache, if it exists and is intact.  The cache
+	 * should be empty (but configured, e.g., for fingerprinting, as it was
+	 * when the snapshot was saved).  If null is returned, the cache may have
+	 * been partially loaded, and it should be cleared.
+	 *
+	 * @param cache the cache
+	 * @return the marker that the snapshot was saved with, or null if it
+	 *         couldn't be loaded
+	 */
+	public String load( ContactsCache cache )
+	{
+		if( !_file.exists() ) return null;
+
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile( _file, "r" );
+			ByteBuffer in = raf.getChannel().map(
+				FileChannel.MapMode.READ_ONLY, 0, raf.length() );
+
+			if( in.getInt() != MAGIC || in.getInt() != VERSION )
+				return null;
+			String marker = readString( in );
+			if( ( in.get() != 0 ) != cache.hasFingerprints() ||
+				( in.get() != 0 ) != cache.isLazyLoading() )
+			{
+				return null;
+			}
+
+			cache.readSnapshot( in );
+
+			// check that the snapshot wasn't truncated
+			return in.getInt() == MAGIC? marker : null;
+		}
+		catch( IOException e ) {
+			return null;
+		}
+		catch( BufferUnderflowException e ) {
+			return null;
+		}
+		finally {
+			try {
+				if( raf != null ) raf.close();
+			}
+			catch( IOException e ) {
+				// ignore errors
+			}
+		}
+	}
+
+	/**
+	 * Save a cache as the snapshot, replacing any existing snapshot.
+	 *
+	 * @param cache the cache
+	 * @param marker the backend's current marker
+	 * @throws IOException
+	 */
+	public void save( ContactsCache cache, String marker ) throws IOException
+	{
+		// write to a temporary file first, so that an existing snapshot is
+		// only replaced by a complete one
+		File temp_file = new File( _file.getPath() + ".tmp" );
+		DataOutputStream out = new DataOutputStream( new BufferedOutputStream(
+			new FileOutputStream( temp_file ) ) );
+		try {
+			out.writeInt( MAGIC );
+			out.writeInt( VERSION );
+			writeString( out, marker );
+			out.writeByte( cache.hasFingerprints()? 1 : 0 );
+			out.writeByte( cache.isLazyLoading()? 1 : 0 );
+			cache.writeSnapshot( out );
+			out.writeInt( MAGIC );
+		}
+		finally {
+			out.close();
+		}
+
+		if( !temp_file.renameTo( _file ) ) {
+			temp_file.delete();
+			throw new IOException( "unable to replace cache snapshot" );
+		}
+	}
+
+	/**
+	 * Delete the snapshot (if there is one).
+	 */
+	public void delete()
+	{
+		_file.delete();
+	}
+
+	static void writeString( DataOutputStream out, String string )
+		throws IOException
+	{
+		byte[] bytes = string.getBytes( "UTF-8" );
+		out.writeInt( bytes.length );
+		out.write( bytes );
+	}
+
+	static String readString( ByteBuffer in )
+		throws UnsupportedEncodingException
+	{
+		int length = in.getInt();
+		if( length < 0 || length > in.remaining() )
+			throw new BufferUnderflowException();
+
+		byte[] bytes = new byte[ length ];
+		in.get( bytes );
+		return new String( bytes, "UTF-8" );
+	}
+}
@@ -0,0 +1,476 @@
+/*
+ * ContactBatch.java
+ *
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This file is part of the Import Contacts program (hereafter referred
+ * to as "this program").  For more information, see
+ * http://ed.am/dev/android/import-contacts
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package am.ed.importcontacts;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * A batch of changes to contacts on the device, which are committed together
+ * (in a single transaction, where the backend supports it).  Each entry in the
+ * batch is the result of importing one contact: it may delete an existing
+ * contact (when overwriting), create a new contact or add to (or replace some
+ * of the details of) an existing one, and it holds the details that are to be
+ * added.
+ *
+ * Entries are reused once the batch has been cleared.
+ */
+public class ContactBatch
+{
+	public class Entry
+	{
+		private ContactsCache.CacheIdentifier _cache_identifier;
+		private Long _delete_id;
+		private Long _id;
+		private Long _new_id;
+		private String _name;
+		private ContactDetails[] _details =
+			new ContactDetails[ MergePolicy.NUM_KINDS ];
+		private int _replaced_kinds;
+		private byte[] _photo;
+		private boolean _committed;
+
+		private Entry()
+		{
+			for( int a = 0; a < MergePolicy.NUM_KINDS; a++ )
+				_details[ a ] = new ContactDetails();
+		}
+
+		private void reset( ContactsCache.CacheIdentifier cache_identifier )
+		{
+			_cache_identifier = cache_identifier;
+			_delete_id = null;
+			_id = null;
+			_new_id = null;
+			_name = null;
+			for( int a = 0; a < MergePolicy.NUM_KINDS; a++ )
+				_details[ a ].clear();
+			_replaced_kinds = 0;
+			_photo = null;
+			_committed = false;
+		}
+
+		public ContactsCache.CacheIdentifier getCacheIdentifier()
+		{
+			return _cache_identifier;
+		}
+
+		/**
+		 * Specify an existing contact that is to be deleted (before this
+		 * entry's new contact is created).
+		 *
+		 * @param id the existing contact's id
+		 */
+		public void setDeleteId( Long id )
+		{
+			_delete_id = id;
+		}
+
+		public Long getDeleteId()
+		{
+			return _delete_id;
+		}
+
+		/**
+		 * Specify the existing contact that this entry's details are to be
+		 * added to.  If there isn't one, a new contact is created.
+		 *
+		 * @param id the existing contact's id
+		 */
+		public void setId( Long id )
+		{
+			_id = id;
+		}
+
+		public Long getId()
+		{
+			return _id;
+		}
+
+		public boolean isNewContact()
+		{
+			return _id == null;
+		}
+
+		/**
+		 * Set the id of the contact that was created when the batch was
+		 * committed.  This is called by the backend.
+		 *
+		 * @param id the new contact's id, or null if it could not be found
+		 */
+		public void setNewId( Long id )
+		{
+			_new_id = id;
+		}
+
+		/**
+		 * Get the id of the contact that this entry's details were added to,
+		 * once the batch has been committed.
+		 *
+		 * @return the id, or null
+		 */
+		public Long getContactId()
+		{
+			return _id != null? _id : _new_id;
+		}
+
+		public void setName( String name )
+		{
+			_name = name;
+		}
+
+		public String getName()
+		{
+			return _name;
+		}
+
+		/**
+		 * Add a detail that is to be added to the contact.  Details that are
+		 * the same once normalised (e.g., phone numbers that only differ by
+		 * formatting) are only added once.
+		 *
+		 * @param kind the kind of detail (a MergePolicy.KIND_* value)
+		 * @param value the detail
+		 * @param type the detail's type
+		 * @param is_preferred whether the detail is preferred
+		 * @param extra the detail's extra value (e.g., a title), or null
+		 */
+		public void addDetail( int kind, String value, int type,
+			boolean is_preferred, String extra )
+		{
+			if( findDetail( kind, value ) != -1 ) return;
+			_details[ kind ].add( value, type,
+				is_preferred? ContactDetails.FLAG_PREFERRED : 0, extra );
+			addMatchableDetail( kind, value );
+		}
+
+		/**
+		 * Add a detail that the existing contact already has, and which is to
+		 * be kept when the contact's details of this kind are replaced.
+		 *
+		 * @param kind the kind of detail (a MergePolicy.KIND_* value)
+		 * @param value the detail
+		 */
+		public void retainDetail( int kind, String value )
+		{
+			if( findDetail( kind, value ) != -1 ) return;
+			_details[ kind ].add( value, 0, ContactDetails.FLAG_EXISTING,
+				null );
+			addMatchableDetail( kind, value );
+		}
+
+		/**
+		 * Check whether this entry has a detail (either to be added or to be
+		 * retained).
+		 *
+		 * @param kind the kind of detail (a MergePolicy.KIND_* value)
+		 * @param value the detail
+		 * @return true if it does
+		 */
+		public boolean hasDetail( int kind, String value )
+		{
+			return findDetail( kind, value ) != -1;
+		}
+
+		/**
+		 * Count the details that are to be retained.
+		 *
+		 * @param kind the kind of detail (a MergePolicy.KIND_* value)
+		 * @return the number of details
+		 */
+		public int countRetainedDetails( int kind )
+		{
+			ContactDetails details = _details[ kind ];
+			int count = 0;
+			for( int a = 0; a < details.size(); a++ )
+				if( details.isExisting( a ) )
+					count++;
+			return count;
+		}
+
+		/**
+		 * Get the details of one kind.  Those that are to be retained, rather
+		 * than added, are flagged as existing.
+		 *
+		 * @param kind the kind of detail (a MergePolicy.KIND_* value)
+		 * @return the details
+		 */
+		public ContactDetails getDetails( int kind )
+		{
+			return _details[ kind ];
+		}
+
+		/**
+		 * Specify that the existing contact's details of one kind are to be
+		 * replaced by this entry's.  The contact's details that this entry
+		 * doesn't have (either to add or to retain) are removed.
+		 *
+		 * @param kind the kind of detail (a MergePolicy.KIND_* value)
+		 */
+		public void setReplaced( int kind )
+		{
+			_replaced_kinds |= 1 << kind;
+		}
+
+		public boolean isReplaced( int kind )
+		{
+			return ( _replaced_kinds & ( 1 << kind ) ) != 0;
+		}
+
+		public boolean hasReplacedDetails()
+		{
+			return _replaced_kinds != 0;
+		}
+
+		public ContactDetails getNumbers()
+		{
+			return _details[ MergePolicy.KIND_NUMBERS ];
+		}
+
+		public ContactDetails getEmails()
+		{
+			return _details[ MergePolicy.KIND_EMAILS ];
+		}
+
+		public ContactDetails getAddresses()
+		{
+			return _details[ MergePolicy.KIND_ADDRESSES ];
+		}
+
+		public ContactDetails getOrganisations()
+		{
+			return _details[ MergePolicy.KIND_ORGANISATIONS ];
+		}
+
+		public ContactDetails getNotes()
+		{
+			return _details[ MergePolicy.KIND_NOTES ];
+		}
+
+		/**
+		 * Get the birthday that is to be added to the contact.
+		 *
+		 * @return the birthday, or null
+		 */
+		public String getBirthday()
+		{
+			ContactDetails birthdays = _details[ MergePolicy.KIND_BIRTHDAY ];
+			for( int a = 0; a < birthdays.size(); a++ )
+				if( !birthdays.isExisting( a ) )
+					return birthdays.getValue( a );
+			return null;
+		}
+
+		/**
+		 * Record that the entry's changes have been written to the device.
+		 * This is called by the backend.
+		 */
+		public void setCommitted()
+		{
+			_committed = true;
+		}
+
+		public boolean isCommitted()
+		{
+			return _committed;
+		}
+
+		private void setPhoto( byte[] photo )
+		{
+			_photo = photo;
+		}
+
+		public byte[] getPhoto()
+		{
+			return _photo;
+		}
+
+		private int findDetail( int kind, String value )
+		{
+			String normalised = Normaliser.normaliseDetail( kind, value );
+			if( normalised == null ) return -1;
+
+			ContactDetails details = _details[ kind ];
+			for( int a = 0; a < details.size(); a++ )
+				if( normalised.equals( Normaliser.normaliseDetail(
+					kind, details.getValue( a ) ) ) )
+				{
+					return a;
+				}
+			return -1;
+		}
+	}
+
+	private ArrayList< Entry > _entries = new ArrayList< Entry >();
+	private int _size = 0;
+	private int _photo_bytes = 0;
+
+	// the (normalised) phone numbers and email addresses of the entries,
+	// which contacts can be matched by
+	private HashSet< String > _numbers = new HashSet< String >();
+	private HashSet< String > _emails = new HashSet< String >();
+
+	/**
+	 * Add a new entry to the batch.
+	 *
+	 * @param cache_identifier the cache identifier of the imported contact
+	 * @return the entry
+	 */
+	public Entry add( ContactsCache.CacheIdentifier cache_identifier )
+	{
+		if( _size == _entries.size() )
+			_entries.add( new Entry() );
+		Entry entry = _entries.get( _size++ );
+		entry.reset( cache_identifier );
+		return entry;
+	}
+
+	public int size()
+	{
+		return _size;
+	}
+
+	public Entry get( int index )
+	{
+		return _entries.get( index );
+	}
+
+	/**
+	 * Check whether the batch already has an entry for a contact with the
+	 * specified cache identifier.
+	 *
+	 * @param cache_identifier the cache identifier
+	 * @return true if it does
+	 */
+	public boolean contains( ContactsCache.CacheIdentifier cache_identifier )
+	{
+		for( int a = 0; a < _size; a++ ) {
+			ContactsCache.CacheIdentifier identifier =
+				_entries.get( a )._cache_identifier;
+			if( identifier.getType() == cache_identifier.getType() &&
+				identifier.getDetail().equals( cache_identifier.getDetail() ) )
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Check whether the batch already has an entry that adds to, or deletes,
+	 * the specified existing contact.
+	 *
+	 * @param id the existing contact's id
+	 * @return true if it does
+	 */
+	public boolean containsContact( Long id )
+	{
+		for( int a = 0; a < _size; a++ ) {
+			Entry entry = _entries.get( a );
+			if( id.equals( entry._id ) || id.equals( entry._delete_id ) )
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Check whether any of the batch's entries has any of some details that
+	 * contacts can be matched by (i.e., phone numbers and email addresses).
+	 * Such a contact could match an entry, but it won't be matched until the
+	 * batch has been committed.
+	 *
+	 * @param kind the kind of details (a MergePolicy.KIND_* value)
+	 * @param datas the details
+	 * @return true if it does
+	 */
+	public boolean containsAnyDetail( int kind, ContactDetails datas )
+	{
+		HashSet< String > values = getMatchableDetails( kind );
+		if( values == null || values.isEmpty() ) return false;
+
+		for( int a = 0; a < datas.size(); a++ ) {
+			String normalised =
+				Normaliser.normaliseDetail( kind, datas.getValue( a ) );
+			if( normalised != null && values.contains( normalised ) )
+				return true;
+		}
+		return false;
+	}
+
+	private HashSet< String > getMatchableDetails( int kind )
+	{
+		switch( kind )
+		{
+		case MergePolicy.KIND_NUMBERS:	return _numbers;
+		case MergePolicy.KIND_EMAILS:	return _emails;
+		default:						return null;
+		}
+	}
+
+	private void addMatchableDetail( int kind, String value )
+	{
+		HashSet< String > values = getMatchableDetails( kind );
+		String normalised = Normaliser.normaliseDetail( kind, value );
+		if( values != null && normalised != null )
+			values.add( normalised );
+	}
+
+	/**
+	 * Set an entry's photo (keeping track of the size of the batch's photos).
+	 *
+	 * @param entry the entry
+	 * @param photo the photo data
+	 */
+	public void setPhoto( Entry entry, byte[] photo )
+	{
+		if( entry._photo != null )
+			_photo_bytes -= entry._photo.length;
+		entry.setPhoto( photo );
+		if( photo != null )
+			_photo_bytes += photo.length;
+	}
+
+	/**
+	 * The total size of the photos in the batch.
+	 *
+	 * @return number of bytes
+	 */
+	public int getPhotoBytes()
+	{
+		return _photo_bytes;
+	}
+
+	/**
+	 * Remove all entries (keeping them for reuse).
+	 */
+	public void clear()
+	{
+		for( int a = 0; a < _size; a++ )
+			_entries.get( a ).reset( null );
+		_size = 0;
+		_photo_bytes = 0;
+		_numbers.clear();
+		_emails.clear();
+	}
+}
@@ -0,0 +1,291 @@
+/*
+ * ContactCollator.java
+ *
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This file is part of the Import Contacts program (hereafter referred
+ * to as "this program").  For more information, see
+ * http://ed.am/dev/android/import-contacts
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package am.ed.importcontacts;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+import am.ed.importcontacts.Importer.ContactData;
+
+/**
+ * Collates contacts so that those that share a cache identifier (i.e., those
+ * that would be matched to the same contact on the device) can be merged in to
+ * a single contact before they are imported.
+ *
+ * Contacts are added to a staging store, and their cache identifier keys are
+ * sorted using an external merge sort (sorted runs of keys are written to disk
+ * and then merged), so the number of contacts is not limited by memory.
+ */
+public class ContactCollator
+{
+	// number of keys sorted in memory before being written out as a run
+	private final static int RUN_SIZE = 20000;
+
+	private ContactStagingStore _store;
+	private File _run_dir;
+
+	private ArrayList< Entry > _entries = new ArrayList< Entry >();
+	private ArrayList< File > _run_files = new ArrayList< File >();
+	private PriorityQueue< Run > _runs = null;
+
+	private static class Entry
+	{
+		String _key;
+		long _offset;
+
+		public Entry( String key, long offset )
+		{
+			_key = key;
+			_offset = offset;
+		}
+	}
+
+	private static int compareEntries( String key1, long offset1, String key2,
+		long offset2 )
+	{
+		int ret = key1.compareTo( key2 );
+		if( ret != 0 ) return ret;
+
+		// with equal keys, keep the order in which contacts were added
+		return offset1 < offset2? -1 : offset1 == offset2? 0 : 1;
+	}
+
+	/**
+	 * A sorted sequence of keys (and the offsets of their contacts in the
+	 * staging store).
+	 */
+	private static abstract class Run
+	{
+		protected String _key;
+		protected long _offset;
+
+		/**
+		 * Move to the next key.
+		 *
+		 * @return false if there are no more keys
+		 * @throws IOException
+		 */
+		public abstract boolean advance() throws IOException;
+
+		public void close()
+		{
+		}
+	}
+
+	private static class MemoryRun extends Run
+	{
+		private ArrayList< Entry > _entries;
+		private int _pos = 0;
+
+		public MemoryRun( ArrayList< Entry > entries )
+		{
+			_entries = entries;
+		}
+
+		@Override
+		public boolean advance()
+		{
+			if( _pos >= _entries.size() ) return false;
+			Entry entry = _entries.get( _pos++ );
+			_key = entry._key;
+			_offset = entry._offset;
+			return true;
+		}
+	}
+
+	private static class FileRun extends Run
+	{
+		private DataInputStream _in;
+
+		public FileRun( File file ) throws IOException
+		{
+			_in = new DataInputStream( new BufferedInputStream(
+				new FileInputStream( file ) ) );
+		}
+
+		@Override
+		public boolean advance() throws IOException
+		{
+			try {
+				_key = _in.readUTF();
+				_offset = _in.readLong();
+				return true;
+			}
+			catch( EOFException e ) {
+				return false;
+			}
+		}
+
+		@Override
+		public void close()
+		{
+			try {
+				_in.close();
+			}
+			catch( IOException e ) {
+				// ignore errors
+			}
+		}
+	}
+
+	/**
+	 * Create a collator.
+	 *
+	 * @param store the (empty) staging store in which to hold contacts
+	 * @param run_dir directory in which to write temporary files
+	 */
+	public ContactCollator( ContactStagingStore store, File run_dir )
+	{
+		_store = store;
+		_run_dir = run_dir;
+	}
+
+	/**
+	 * Add a (finalised) contact.
+	 *
+	 * @param contact the contact
+	 * @throws IOException
+	 */
+	public void add( ContactData contact ) throws IOException
+	{
+		long offset = _store.append( contact );
+		_entries.add( new Entry(
+			contact.getCacheIdentifier().getKey(), offset ) );
+		if( _entries.size() >= RUN_SIZE )
+			writeRun();
+	}
+
+	/**
+	 * Finish adding contacts and prepare to read merged contacts.
+	 *
+	 * @throws IOException
+	 */
+	public void finishAdding() throws IOException
+	{
+		_runs = new PriorityQueue< Run >( 11, new Comparator< Run >() {
+			public int compare( Run run1, Run run2 ) {
+				return compareEntries( run1._key, run1._offset,
+					run2._key, run2._offset );
+			}
+		} );
+
+		// any keys that haven't been written to disk can be merged from
+		// memory
+		sortEntries();
+		addRun( new MemoryRun( _entries ) );
+		_entries = new ArrayList< Entry >();
+
+		for( int a = 0; a < _run_files.size(); a++ )
+			addRun( new FileRun( _run_files.get( a ) ) );
+	}
+
+	/**
+	 * Read the next group of contacts that share the same cache identifier,
+	 * merged in to one contact.  The contact will need to be finalised.
+	 *
+	 * @param contact an empty (new or reset) contact data to populate
+	 * @return the number of contacts merged, or 0 if there are no more
+	 * @throws IOException
+	 */
+	public int readNext( ContactData contact ) throws IOException
+	{
+		if( _runs.isEmpty() ) return 0;
+
+		String key = _runs.peek()._key;
+		int count = 0;
+		while( !_runs.isEmpty() && _runs.peek()._key.equals( key ) )
+		{
+			Run run = _runs.poll();
+			_store.read( run._offset, contact );
+			count++;
+			addRun( run );
+		}
+
+		return count;
+	}
+
+	/**
+	 * Delete all temporary files (including the staging store).
+	 */
+	public void delete()
+	{
+		if( _runs != null )
+			while( !_runs.isEmpty() )
+				_runs.poll().close();
+		for( int a = 0; a < _run_files.size(); a++ )
+			_run_files.get( a ).delete();
+		_run_files.clear();
+		_store.delete();
+	}
+
+	private void addRun( Run run ) throws IOException
+	{
+		if( run.advance() )
+			_runs.add( run );
+		else
+			run.close();
+	}
+
+	private void sortEntries()
+	{
+		Collections.sort( _entries, new Comparator< Entry >() {
+			public int compare( Entry entry1, Entry entry2 ) {
+				return compareEntries( entry1._key, entry1._offset,
+					entry2._key, entry2._offset );
+			}
+		} );
+	}
+
+	private void writeRun() throws IOException
+	{
+		sortEntries();
+
+		File file = File.createTempFile( "run", ".dat", _run_dir );
+		_run_files.add( file );
+		DataOutputStream out = new DataOutputStream( new BufferedOutputStream(
+			new FileOutputStream( file ) ) );
+		try {
+			for( int a = 0; a < _entries.size(); a++ ) {
+				out.writeUTF( _entries.get( a )._key );
+				out.writeLong( _entries.get( a )._offset );
+			}
+		}
+		finally {
+			out.close();
+		}
+
+		_entries.clear();
+	}
+}
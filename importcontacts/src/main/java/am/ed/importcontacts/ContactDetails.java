@@ -0,0 +1,167 @@
+/*
+ * ContactDetails.java
+ *
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This file is part of the Import Contacts program (hereafter referred
+ * to as "this program").  For more information, see
+ * http://ed.am/dev/android/import-contacts
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package am.ed.importcontacts;
+
+/**
+ * A compact list of a contact's details of one kind (e.g., phone numbers).
+ * Each detail has a value, a type, some flags and an optional extra value
+ * (e.g., an organisation's title), held in parallel arrays.  Values are unique
+ * within the list.
+ *
+ * The list can be cleared and reused, and its arrays are kept, so once it has
+ * grown to fit a typical contact, adding details does not allocate.  Contacts
+ * only have a handful of each kind of detail, so values are found by a linear
+ * search.
+ */
+public class ContactDetails
+{
+	public final static int FLAG_PREFERRED = 1;
+	public final static int FLAG_EXISTING = 2;
+
+	private final static int INITIAL_CAPACITY = 4;
+
+	private String[] _values = new String[ INITIAL_CAPACITY ];
+	private int[] _types = new int[ INITIAL_CAPACITY ];
+	private int[] _flags = new int[ INITIAL_CAPACITY ];
+	private String[] _extras = new String[ INITIAL_CAPACITY ];
+	private int _size = 0;
+
+	/**
+	 * Remove all details (keeping the storage for reuse).
+	 */
+	public void clear()
+	{
+		// drop references, so that values can be collected
+		for( int a = 0; a < _size; a++ ) {
+			_values[ a ] = null;
+			_extras[ a ] = null;
+		}
+		_size = 0;
+	}
+
+	public int size()
+	{
+		return _size;
+	}
+
+	/**
+	 * Find a detail, by value.
+	 *
+	 * @param value the value
+	 * @return the detail's index, or -1 if it is not in the list
+	 */
+	public int indexOf( String value )
+	{
+		for( int a = 0; a < _size; a++ )
+			if( _values[ a ].equals( value ) )
+				return a;
+		return -1;
+	}
+
+	/**
+	 * Add a detail, unless one with the same value already exists.
+	 *
+	 * @param value the value
+	 * @param type the type
+	 * @param flags the flags
+	 * @param extra the extra value, or null
+	 * @return the index of the new (or existing) detail
+	 */
+	public int add( String value, int type, int flags, String extra )
+	{
+		int index = indexOf( value );
+		if( index != -1 ) return index;
+
+		if( _size == _values.length )
+			grow();
+		_values[ _size ] = value;
+		_types[ _size ] = type;
+		_flags[ _size ] = flags;
+		_extras[ _size ] = extra;
+		return _size++;
+	}
+
+	public String getValue( int index )
+	{
+		return _values[ index ];
+	}
+
+	public int getType( int index )
+	{
+		return _types[ index ];
+	}
+
+	public boolean isPreferred( int index )
+	{
+		return ( _flags[ index ] & FLAG_PREFERRED ) != 0;
+	}
+
+	public void setPreferred( int index )
+	{
+		_flags[ index ] |= FLAG_PREFERRED;
+	}
+
+	/**
+	 * Does the detail already exist (i.e., it is listed so that it is kept,
+	 * not so that it is added)?
+	 *
+	 * @param index the detail's index
+	 * @return true if it does
+	 */
+	public boolean isExisting( int index )
+	{
+		return ( _flags[ index ] & FLAG_EXISTING ) != 0;
+	}
+
+	public String getExtra( int index )
+	{
+		return _extras[ index ];
+	}
+
+	public void setExtra( int index, String extra )
+	{
+		_extras[ index ] = extra;
+	}
+
+	private void grow()
+	{
+		int capacity = _values.length * 2;
+
+		String[] values = new String[ capacity ];
+		System.arraycopy( _values, 0, values, 0, _size );
+		_values = values;
+
+		int[] types = new int[ capacity ];
+		System.arraycopy( _types, 0, types, 0, _size );
+		_types = types;
+
+		int[] flags = new int[ capacity ];
+		System.arraycopy( _flags, 0, flags, 0, _size );
+		_flags = flags;
+
+		String[] extras = new String[ capacity ];
+		System.arraycopy( _extras, 0, extras, 0, _size );
+		_extras = extras;
+	}
+}
@@ -0,0 +1,337 @@
+/*
+ * ContactStagingStore.java
+ *
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This file is part of the Import Contacts program (hereafter referred
+ * to as "this program").  For more information, see
+ * http://ed.am/dev/android/import-contacts
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package am.ed.importcontacts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import am.ed.importcontacts.Importer.ContactData;
+
+/**
+ * An on-disk store of contacts, used to hold a whole import's worth of
+ * contacts when they can not all be held in memory at once.  Contacts are
+ * appended as compact, length-prefixed records and are read back through a
+ * memory-mapped window on the file, so heap use does not depend on the
+ * number of contacts stored.
+ *
+ * When a contact is read in to contact data that already has data, the data
+ * is merged (as if it had all been imported for the same contact).
+ */
+public class ContactStagingStore
+{
+	// size of the memory-mapped window used to read records
+	private final static int MAP_WINDOW_SIZE = 4 * 1024 * 1024;
+
+	private final static int FLAG_PREFERRED = 1;
+
+	private File _file;
+	private RandomAccessFile _raf;
+	private FileChannel _channel;
+	private long _end = 0;
+	private int _count = 0;
+
+	// record writing
+	private ByteArrayOutputStream _record_bytes = new ByteArrayOutputStream();
+	private DataOutputStream _record = new DataOutputStream( _record_bytes );
+
+	// record reading
+	private MappedByteBuffer _map = null;
+	private long _map_start = 0;
+	private byte[] _string_bytes = new byte[ 256 ];
+
+	/**
+	 * Create a new, empty store in the specified file.  Any existing file is
+	 * truncated.
+	 *
+	 * @param file the file
+	 * @throws IOException
+	 */
+	public ContactStagingStore( File file ) throws IOException
+	{
+		_file = file;
+		_raf = new RandomAccessFile( file, "rw" );
+		_raf.setLength( 0 );
+		_channel = _raf.getChannel();
+	}
+
+	/**
+	 * Close and delete the store.
+	 */
+	public void delete()
+	{
+		_map = null;
+		try {
+			_raf.close();
+		}
+		catch( IOException e ) {
+			// ignore errors
+		}
+		_file.delete();
+	}
+
+	/**
+	 * The number of contacts in the store.
+	 *
+	 * @return number of contacts
+	 */
+	public int getCount()
+	{
+		return _count;
+	}
+
+	/**
+	 * The offset just past the last record in the store.  Records can be read
+	 * sequentially by starting at offset 0 and reading until this offset is
+	 * reached.
+	 *
+	 * @return offset
+	 */
+	public long getEndOffset()
+	{
+		return _end;
+	}
+
+	/**
+	 * Append a contact to the store.
+	 *
+	 * @param contact the contact
+	 * @return the offset of the contact's record, which can be used to read it
+	 * @throws IOException
+	 */
+	public long append( ContactData contact ) throws IOException
+	{
+		// serialise the contact
+		_record_bytes.reset();
+		writeString( contact.getName() );
+		writeString( contact.getBirthday() );
+
+		ContactDetails numbers = contact.getNumbers();
+		writeCount( numbers.size() );
+		for( int a = 0; a < numbers.size(); a++ ) {
+			writeString( numbers.getValue( a ) );
+			_record.writeByte( numbers.getType( a ) );
+			_record.writeByte( numbers.isPreferred( a )? FLAG_PREFERRED : 0 );
+		}
+
+		ContactDetails emails = contact.getEmails();
+		writeCount( emails.size() );
+		for( int a = 0; a < emails.size(); a++ ) {
+			writeString( emails.getValue( a ) );
+			_record.writeByte( emails.getType( a ) );
+			_record.writeByte( emails.isPreferred( a )? FLAG_PREFERRED : 0 );
+		}
+
+		ContactDetails addresses = contact.getAddresses();
+		writeCount( addresses.size() );
+		for( int a = 0; a < addresses.size(); a++ ) {
+			writeString( addresses.getValue( a ) );
+			_record.writeByte( addresses.getType( a ) );
+		}
+
+		ContactDetails organisations = contact.getOrganisations();
+		writeCount( organisations.size() );
+		for( int a = 0; a < organisations.size(); a++ ) {
+			writeString( organisations.getValue( a ) );
+			writeString( organisations.getExtra( a ) );
+			_record.writeByte(
+				organisations.isPreferred( a )? FLAG_PREFERRED : 0 );
+		}
+
+		ContactDetails notes = contact.getNotes();
+		writeCount( notes.size() );
+		for( int a = 0; a < notes.size(); a++ )
+			writeString( notes.getValue( a ) );
+
+		if( contact.hasPhoto() ) {
+			PhotoBuffer photo = contact.getPhoto();
+			_record.writeInt( photo.getLength() );
+			_record.write( photo.getData(), 0, photo.getLength() );
+		}
+		else
+			_record.writeInt( -1 );
+
+		// write the length-prefixed record to the end of the file
+		_record.flush();
+		long offset = _end;
+		ByteBuffer buffer = ByteBuffer.allocate( 4 + _record_bytes.size() );
+		buffer.putInt( _record_bytes.size() );
+		buffer.put( _record_bytes.toByteArray() );
+		buffer.flip();
+		while( buffer.hasRemaining() )
+			_channel.write( buffer, _end + buffer.position() );
+		_end += 4 + _record_bytes.size();
+		_count++;
+
+		return offset;
+	}
+
+	/**
+	 * Read a contact from the store.  If the contact data already has data,
+	 * the stored contact is merged in to it: the existing name, birthday and
+	 * photo are kept in preference to the stored ones and other details are
+	 * added.  The contact data will need to be finalised by the caller.
+	 *
+	 * @param offset the offset of the contact's record
+	 * @param contact the contact data to populate
+	 * @return the offset of the next record
+	 * @throws IOException
+	 */
+	public long read( long offset, ContactData contact ) throws IOException
+	{
+		ByteBuffer record = mapRecord( offset );
+		int length = record.getInt();
+
+		String name = readString( record );
+		if( !contact.hasName() ) contact.setName( name );
+		String birthday = readString( record );
+		if( !contact.hasBirthday() ) contact.setBirthday( birthday );
+
+		for( int a = readCount( record ); a > 0; a-- ) {
+			String number = readString( record );
+			int type = record.get();
+			int flags = record.get();
+			contact.addNumber( number, type,
+				( flags & FLAG_PREFERRED ) != 0 );
+		}
+
+		for( int a = readCount( record ); a > 0; a-- ) {
+			String email = readString( record );
+			int type = record.get();
+			int flags = record.get();
+			contact.addEmail( email, type,
+				( flags & FLAG_PREFERRED ) != 0 );
+		}
+
+		for( int a = readCount( record ); a > 0; a-- ) {
+			String address = readString( record );
+			int type = record.get();
+			contact.addAddress( address, type );
+		}
+
+		for( int a = readCount( record ); a > 0; a-- ) {
+			String organisation = readString( record );
+			String title = readString( record );
+			int flags = record.get();
+			contact.addOrganisation( organisation, title,
+				( flags & FLAG_PREFERRED ) != 0 );
+		}
+
+		for( int a = readCount( record ); a > 0; a-- )
+			contact.addNote( readString( record ) );
+
+		int photo_length = record.getInt();
+		if( photo_length >= 0 ) {
+			if( !contact.hasPhoto() ) {
+				contact.beginPhoto().load( record, photo_length );
+				contact.finishPhoto();
+			}
+			else
+				record.position( record.position() + photo_length );
+		}
+
+		return offset + 4 + length;
+	}
+
+	/**
+	 * Obtain a buffer, positioned at the start of a record (at its length),
+	 * in which the entire record is available.
+	 *
+	 * @param offset the offset of the record
+	 * @return a buffer
+	 * @throws IOException
+	 */
+	private ByteBuffer mapRecord( long offset ) throws IOException
+	{
+		if( offset < 0 || offset + 4 > _end )
+			throw new IOException( "bad staging store offset" );
+
+		// make sure the record's length is mapped, then make sure the whole
+		// record is mapped
+		ensureMapped( offset, 4 );
+		int length = _map.getInt( (int)( offset - _map_start ) );
+		ensureMapped( offset, 4 + length );
+
+		_map.position( (int)( offset - _map_start ) );
+		return _map;
+	}
+
+	private void ensureMapped( long offset, int length ) throws IOException
+	{
+		if( _map != null && offset >= _map_start &&
+			offset + length <= _map_start + _map.limit() )
+		{
+			return;
+		}
+
+		// map a new window, starting at the offset
+		long size = Math.min( Math.max( MAP_WINDOW_SIZE, length ),
+			_end - offset );
+		if( size < length )
+			throw new IOException( "truncated staging store record" );
+		_map = _channel.map( FileChannel.MapMode.READ_ONLY, offset, size );
+		_map_start = offset;
+	}
+
+	private void writeCount( int count ) throws IOException
+	{
+		_record.writeInt( count );
+	}
+
+	private int readCount( ByteBuffer record )
+	{
+		return record.getInt();
+	}
+
+	private void writeString( String string ) throws IOException
+	{
+		if( string == null ) {
+			_record.writeInt( -1 );
+			return;
+		}
+
+		byte[] bytes = string.getBytes( "UTF-8" );
+		_record.writeInt( bytes.length );
+		_record.write( bytes );
+	}
+
+	private String readString( ByteBuffer record )
+		throws UnsupportedEncodingException
+	{
+		int length = record.getInt();
+		if( length < 0 ) return null;
+
+		if( _string_bytes.length < length )
+			_string_bytes = new byte[ Math.max( length,
+				_string_bytes.length * 2 ) ];
+		record.get( _string_bytes, 0, length );
+		return new String( _string_bytes, 0, length, "UTF-8" );
+	}
+}
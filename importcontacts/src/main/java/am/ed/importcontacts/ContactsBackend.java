@@ -23,6 +23,7 @@
 
 package am.ed.importcontacts;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -34,6 +35,7 @@ import android.content.ContentUris;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.net.Uri;
+import android.provider.BaseColumns;
 import android.provider.Contacts;
 
 @SuppressWarnings( "deprecation" )
@@ -49,7 +51,7 @@ public class ContactsBackend implements Backend
 	@Override
 	public void populateCache( ContactsCache cache )
 	{
-		Cursor cur;
+		CursorReader cur;
 
 		// set of contact ids that we have not yet added
 		HashSet< Long > unadded_ids = new HashSet< Long >();
@@ -58,20 +60,22 @@ public class ContactsBackend implements Backend
 		HashMap< Long, String > notes = new HashMap< Long, String >();
 
 		// get all contacts
-		cur = _activity.getContentResolver().query(
+		cur = new CursorReader( _activity.getContentResolver().query(
 			Contacts.People.CONTENT_URI,
 			new String[] {
 				Contacts.People._ID,
 				Contacts.People.NAME,
 				Contacts.People.NOTES,
-			}, null, null, null );
+			}, null, null, null ) );
+		CursorReader.Column id_column = cur.getColumn( Contacts.People._ID );
+		CursorReader.Column name_column =
+			cur.getColumn( Contacts.People.NAME );
+		CursorReader.Column value_column =
+			cur.getColumn( Contacts.People.NOTES );
 		while( cur.moveToNext() ) {
-			Long id = cur.getLong(
-				cur.getColumnIndex( Contacts.People._ID ) );
-			String name = cur.getString(
-					cur.getColumnIndex( Contacts.People.NAME ) );
-			String note = cur.getString(
-					cur.getColumnIndex( Contacts.People.NOTES ) );
+			Long id = id_column.getLong();
+			String name = name_column.getString();
+			String note = value_column.getString();
 
 			// if we can, add a lookup for the contact id by name
 			CacheIdentifier cache_identifier = CacheIdentifier.factory(
@@ -100,17 +104,17 @@ public class ContactsBackend implements Backend
 		cur.close();
 
 		// get contact organisations, primary ones first
-		cur = _activity.getContentResolver().query(
+		cur = new CursorReader( _activity.getContentResolver().query(
 			Contacts.Organizations.CONTENT_URI,
 			new String[] {
 				Contacts.Phones.PERSON_ID,
 				Contacts.Organizations.COMPANY,
-			}, null, null, Contacts.Organizations.ISPRIMARY + " DESC" );
+			}, null, null, Contacts.Organizations.ISPRIMARY + " DESC" ) );
+		id_column = cur.getColumn( Contacts.Organizations.PERSON_ID );
+		value_column = cur.getColumn( Contacts.Organizations.COMPANY );
 		while( cur.moveToNext() ) {
-			Long id = cur.getLong( cur.getColumnIndex(
-				Contacts.Organizations.PERSON_ID ) );
-			String organisation = cur.getString(
-				cur.getColumnIndex( Contacts.Organizations.COMPANY ) );
+			Long id = id_column.getLong();
+			String organisation = value_column.getString();
 
 			// if this is an organisation name for a contact for whom we have
 			// not added a lookup, add a lookup for the contact id by
@@ -130,17 +134,17 @@ public class ContactsBackend implements Backend
 		cur.close();
 
 		// get all phone numbers, primary ones first
-		cur = _activity.getContentResolver().query(
+		cur = new CursorReader( _activity.getContentResolver().query(
 			Contacts.Phones.CONTENT_URI,
 			new String[] {
 				Contacts.Phones.PERSON_ID,
 				Contacts.Phones.NUMBER,
-			}, null, null, Contacts.Phones.ISPRIMARY + " DESC" );
+			}, null, null, Contacts.Phones.ISPRIMARY + " DESC" ) );
+		id_column = cur.getColumn( Contacts.Phones.PERSON_ID );
+		value_column = cur.getColumn( Contacts.Phones.NUMBER );
 		while( cur.moveToNext() ) {
-			Long id = cur.getLong(
-				cur.getColumnIndex( Contacts.Phones.PERSON_ID ) );
-			String number = cur.getString(
-				cur.getColumnIndex( Contacts.Phones.NUMBER ) );
+			Long id = id_column.getLong();
+			String number = value_column.getString();
 
 			// if this is a number for a contact for whom we have not
 			// added a lookup, add a lookup for the contact id by phone
@@ -160,7 +164,7 @@ public class ContactsBackend implements Backend
 		cur.close();
 
 		// now get all email addresses, primary ones first, and postal addresses
-		cur = _activity.getContentResolver().query(
+		cur = new CursorReader( _activity.getContentResolver().query(
 			Contacts.ContactMethods.CONTENT_URI,
 			new String[] {
 				Contacts.ContactMethods.PERSON_ID,
@@ -170,16 +174,17 @@ public class ContactsBackend implements Backend
 			new String[] {
 				"" + Contacts.KIND_EMAIL,
 				"" + Contacts.KIND_POSTAL,
-			}, Contacts.ContactMethods.ISPRIMARY + " DESC" );
+			}, Contacts.ContactMethods.ISPRIMARY + " DESC" ) );
+		id_column = cur.getColumn( Contacts.ContactMethods.PERSON_ID );
+		value_column = cur.getColumn( Contacts.ContactMethods.DATA );
+		CursorReader.Column kind_column =
+			cur.getColumn( Contacts.ContactMethods.KIND );
 		while( cur.moveToNext() ) {
-			Long id = cur.getLong(
-				cur.getColumnIndex( Contacts.ContactMethods.PERSON_ID ) );
-			int kind = cur.getInt(
-				cur.getColumnIndex( Contacts.ContactMethods.KIND ) );
+			Long id = id_column.getLong();
+			int kind = kind_column.getInt();
 			if( kind == Contacts.KIND_EMAIL )
 			{
-				String email = cur.getString(
-					cur.getColumnIndex( Contacts.ContactMethods.DATA ) );
+				String email = value_column.getString();
 
 				// if this is an email address for a contact for whom we have
 				// not added a lookup, add a lookup for the contact id by email
@@ -198,8 +203,7 @@ public class ContactsBackend implements Backend
 			}
 			else if( kind == Contacts.KIND_POSTAL )
 			{
-				String address = cur.getString(
-					cur.getColumnIndex( Contacts.ContactMethods.DATA ) );
+				String address = value_column.getString();
 
 				// add associated data
 				cache.addAssociatedAddress( id, address );
@@ -217,16 +221,14 @@ public class ContactsBackend implements Backend
 		}
 	}
 
-	@Override
-	public void deleteContact( Long id )
+	private void deleteContact( Long id )
 	{
 		Uri contact_uri =
 			ContentUris.withAppendedId( Contacts.People.CONTENT_URI, id );
 		_activity.getContentResolver().delete( contact_uri, null, null );
 	}
 
-	@Override
-	public Long addContact( String name ) throws ContactCreationException
+	private Long addContact( String name ) throws ContactCreationException
 	{
 		ContentValues values = new ContentValues();
 		if( name != null )
@@ -285,9 +287,8 @@ public class ContactsBackend implements Backend
 		throw new ContactCreationException();
 	}
 
-	@Override
-	public void addContactPhone( Long id, String number,
-		ContactData.PreferredDetail data ) throws ContactCreationException
+	private void addContactPhone( Long id, String number, int type,
+		boolean is_preferred ) throws ContactCreationException
 	{
 		Uri contact_phones_uri = Uri.withAppendedPath(
 			ContentUris.withAppendedId( Contacts.People.CONTENT_URI, id ),
@@ -296,17 +297,16 @@ public class ContactsBackend implements Backend
 		ContentValues values = new ContentValues();
 		values.put( Contacts.Phones.TYPE,
 			convertTypeToBackendType( Contacts.Phones.class,
-				data.getType() ) );
+				type ) );
 		values.put( Contacts.Phones.NUMBER, number );
-		if( data.isPreferred() )
+		if( is_preferred )
 			values.put( Contacts.Phones.ISPRIMARY, 1 );
 
 		_activity.getContentResolver().insert( contact_phones_uri, values );
 	}
 
-	@Override
-	public void addContactEmail( Long id, String email,
-		ContactData.PreferredDetail data ) throws ContactCreationException
+	private void addContactEmail( Long id, String email, int type,
+		boolean is_preferred ) throws ContactCreationException
 	{
 		Uri contact_contact_methods_uri = Uri.withAppendedPath(
 			ContentUris.withAppendedId( Contacts.People.CONTENT_URI, id ),
@@ -317,17 +317,16 @@ public class ContactsBackend implements Backend
 		values.put( Contacts.ContactMethods.DATA, email );
 		values.put( Contacts.ContactMethods.TYPE,
 			convertTypeToBackendType( Contacts.ContactMethods.class,
-				data.getType() ) );
-		if( data.isPreferred() )
+				type ) );
+		if( is_preferred )
 			values.put( Contacts.ContactMethods.ISPRIMARY, 1 );
 
 		_activity.getContentResolver().insert( contact_contact_methods_uri,
 			values );
 	}
 
-	@Override
-	public void addContactAddresses( Long id, String address,
-		ContactData.TypeDetail data ) throws ContactCreationException
+	private void addContactAddresses( Long id, String address, int type )
+		throws ContactCreationException
 	{
 		Uri contact_contact_methods_uri = Uri.withAppendedPath(
 			ContentUris.withAppendedId( Contacts.People.CONTENT_URI, id ),
@@ -338,30 +337,28 @@ public class ContactsBackend implements Backend
 		values.put( Contacts.ContactMethods.DATA, address );
 		values.put( Contacts.ContactMethods.TYPE,
 			convertTypeToBackendType( Contacts.ContactMethods.class,
-				data.getType() ) );
+				type ) );
 
 		_activity.getContentResolver().insert( contact_contact_methods_uri,
 			values );
 	}
 
-	@Override
-	public void addContactOrganisation( Long id, String organisation,
-		ContactData.ExtraDetail data ) throws ContactCreationException
+	private void addContactOrganisation( Long id, String organisation,
+		String title ) throws ContactCreationException
 	{
 		ContentValues values = new ContentValues();
 		values.put( Contacts.Organizations.PERSON_ID, id );
 		values.put( Contacts.Organizations.COMPANY, organisation );
 		values.put( Contacts.ContactMethods.TYPE,
 			Contacts.OrganizationColumns.TYPE_WORK );
-		if( data.getExtra() != null )
-			values.put( Contacts.Organizations.TITLE, data.getExtra() );
+		if( title != null )
+			values.put( Contacts.Organizations.TITLE, title );
 
 		_activity.getContentResolver().insert(
 			Contacts.Organizations.CONTENT_URI, values );
 	}
 
-	@Override
-	public void addContactNote( Long id, String note )
+	private void addContactNote( Long id, String note )
 		throws ContactCreationException
 	{
 		ContentValues values = new ContentValues();
@@ -371,10 +368,276 @@ public class ContactsBackend implements Backend
 			values, null, null );
 	}
 
-	@Override
-	public void addContactBirthday( Long id, String birthday )
+	private void addContactBirthday( Long id, String birthday )
 		throws ContactCreationException
 	{
 		// this contacts API doesn't support birthdays, so just ignore them
 	}
+
+	private void addContactPhoto( Long id, byte[] photo )
+		throws ContactCreationException
+	{
+		Contacts.People.setPhotoData( _activity.getContentResolver(),
+			ContentUris.withAppendedId( Contacts.People.CONTENT_URI, id ),
+			photo );
+	}
+
+	@Override
+	public String getCacheMarker()
+	{
+		// this contacts API doesn't record when contacts change
+		return null;
+	}
+
+	@Override
+	public boolean refreshCache( ContactsCache cache, String marker )
+	{
+		// this contacts API doesn't record when contacts change
+		return false;
+	}
+
+	@Override
+	public void loadAssociatedData( ContactsCache cache, long[] ids )
+	{
+		// this contacts API holds details of different kinds in different
+		// places, so just read each contact's details of each kind
+		for( int kind = 0; kind < MergePolicy.NUM_KINDS; kind++ ) {
+			if( !cache.isLoadedLazily( kind ) ) continue;
+			for( int a = 0; a < ids.length; a++ ) {
+				ArrayList< String > values =
+					readContactDetails( ids[ a ], kind );
+				for( int b = 0; b < values.size(); b++ )
+					cache.addAssociatedData( kind, ids[ a ], values.get( b ) );
+			}
+		}
+	}
+
+	@Override
+	public ArrayList< String > readContactDetails( Long id, int kind )
+	{
+		ArrayList< String > values = new ArrayList< String >();
+
+		// a contact's note is held with the contact
+		if( kind == MergePolicy.KIND_NOTES ) {
+			Cursor cur = _activity.getContentResolver().query(
+				ContentUris.withAppendedId( Contacts.People.CONTENT_URI, id ),
+				new String[] {
+					Contacts.People.NOTES,
+				}, null, null, null );
+			if( cur.moveToNext() ) {
+				String note = cur.getString(
+					cur.getColumnIndex( Contacts.People.NOTES ) );
+				if( note != null ) values.add( note );
+			}
+			cur.close();
+			return values;
+		}
+
+		Cursor cur = queryDetailRows( id, kind );
+		if( cur == null ) return values;
+		CursorReader reader = new CursorReader( cur );
+		CursorReader.Column value_column =
+			reader.getColumn( getDetailColumn( kind ) );
+		while( reader.moveToNext() )
+			values.add( value_column.getString() );
+		reader.close();
+
+		return values;
+	}
+
+	@Override
+	public boolean hasContactPhoto( Long id )
+	{
+		Cursor cur = _activity.getContentResolver().query(
+			Contacts.Photos.CONTENT_URI,
+			new String[] {
+				Contacts.Photos._ID,
+			},
+			Contacts.Photos.PERSON_ID + " = ? AND " +
+				Contacts.Photos.DATA + " IS NOT NULL",
+			new String[] { "" + id }, null );
+		if( cur == null ) return false;
+		boolean has_photo = cur.getCount() > 0;
+		cur.close();
+		return has_photo;
+	}
+
+	/**
+	 * Get the URI of the rows that hold one kind of detail.
+	 *
+	 * @param kind the kind of details (a MergePolicy.KIND_* value)
+	 * @return the URI, or null if the kind is not held in rows
+	 */
+	private static Uri getDetailUri( int kind )
+	{
+		switch( kind )
+		{
+		case MergePolicy.KIND_NUMBERS:
+			return Contacts.Phones.CONTENT_URI;
+		case MergePolicy.KIND_EMAILS:
+		case MergePolicy.KIND_ADDRESSES:
+			return Contacts.ContactMethods.CONTENT_URI;
+		case MergePolicy.KIND_ORGANISATIONS:
+			return Contacts.Organizations.CONTENT_URI;
+		}
+		return null;
+	}
+
+	/**
+	 * Get the column of the rows that hold one kind of detail.
+	 *
+	 * @param kind the kind of details (a MergePolicy.KIND_* value)
+	 * @return the column, or null if the kind is not held in rows
+	 */
+	private static String getDetailColumn( int kind )
+	{
+		switch( kind )
+		{
+		case MergePolicy.KIND_NUMBERS:
+			return Contacts.Phones.NUMBER;
+		case MergePolicy.KIND_EMAILS:
+		case MergePolicy.KIND_ADDRESSES:
+			return Contacts.ContactMethods.DATA;
+		case MergePolicy.KIND_ORGANISATIONS:
+			return Contacts.Organizations.COMPANY;
+		}
+		return null;
+	}
+
+	/**
+	 * Query the rows of an existing contact's details of one kind.
+	 *
+	 * @param id the existing contact's id
+	 * @param kind the kind of details (a MergePolicy.KIND_* value)
+	 * @return a cursor, with the rows' ids and details, or null if the kind
+	 *         is not held in rows
+	 */
+	private Cursor queryDetailRows( Long id, int kind )
+	{
+		String selection;
+		String[] selection_args;
+		switch( kind )
+		{
+		case MergePolicy.KIND_NUMBERS:
+			selection = Contacts.Phones.PERSON_ID + " = ?";
+			selection_args = new String[] { "" + id };
+			break;
+		case MergePolicy.KIND_EMAILS:
+		case MergePolicy.KIND_ADDRESSES:
+			selection = Contacts.ContactMethods.PERSON_ID + " = ? AND " +
+				Contacts.ContactMethods.KIND + " = ?";
+			selection_args = new String[] { "" + id,
+				"" + ( kind == MergePolicy.KIND_EMAILS?
+					Contacts.KIND_EMAIL : Contacts.KIND_POSTAL ) };
+			break;
+		case MergePolicy.KIND_ORGANISATIONS:
+			selection = Contacts.Organizations.PERSON_ID + " = ?";
+			selection_args = new String[] { "" + id };
+			break;
+		default:
+			// this contacts API doesn't hold anything else in rows
+			return null;
+		}
+
+		return _activity.getContentResolver().query( getDetailUri( kind ),
+			new String[] {
+				BaseColumns._ID,
+				getDetailColumn( kind ),
+			}, selection, selection_args, null );
+	}
+
+	/**
+	 * Remove an existing contact's details of one kind, other than those that
+	 * a batch entry has (to add or to retain).
+	 *
+	 * @param entry the batch entry
+	 * @param id the existing contact's id
+	 * @param kind the kind of details (a MergePolicy.KIND_* value)
+	 */
+	private void removeReplacedDetails( ContactBatch.Entry entry, Long id,
+		int kind )
+	{
+		if( kind == MergePolicy.KIND_NOTES ) {
+			// a contact only has one note, so if there is no new note to
+			// replace it with, keep a retained one or clear it
+			ContactDetails notes = entry.getNotes();
+			for( int a = 0; a < notes.size(); a++ )
+				if( !notes.isExisting( a ) ) return;
+			ContentValues values = new ContentValues();
+			values.put( Contacts.People.NOTES,
+				notes.size() > 0? notes.getValue( 0 ) : null );
+			_activity.getContentResolver().update(
+				ContentUris.withAppendedId( Contacts.People.CONTENT_URI, id ),
+				values, null, null );
+			return;
+		}
+
+		Cursor cur = queryDetailRows( id, kind );
+		if( cur == null ) return;
+		CursorReader reader = new CursorReader( cur );
+		CursorReader.Column id_column = reader.getColumn( BaseColumns._ID );
+		CursorReader.Column value_column =
+			reader.getColumn( getDetailColumn( kind ) );
+		while( reader.moveToNext() ) {
+			if( !entry.hasDetail( kind, value_column.getString() ) )
+				_activity.getContentResolver().delete(
+					ContentUris.withAppendedId( getDetailUri( kind ),
+						id_column.getLong() ), null, null );
+		}
+		reader.close();
+	}
+
+	@Override
+	public void commitBatch( ContactBatch batch )
+		throws ContactCreationException
+	{
+		// the old contacts API has no transactions, so just make the changes
+		for( int a = 0; a < batch.size(); a++ )
+		{
+			ContactBatch.Entry entry = batch.get( a );
+
+			if( entry.getDeleteId() != null )
+				deleteContact( entry.getDeleteId() );
+			if( entry.isNewContact() )
+				entry.setNewId( addContact( entry.getName() ) );
+			Long id = entry.getContactId();
+
+			// remove any details that are being replaced
+			if( entry.hasReplacedDetails() )
+				for( int kind = 0; kind < MergePolicy.NUM_KINDS; kind++ )
+					if( entry.isReplaced( kind ) )
+						removeReplacedDetails( entry, id, kind );
+
+			// add the new details (skipping those that already exist)
+			ContactDetails datas = entry.getNumbers();
+			for( int b = 0; b < datas.size(); b++ )
+				if( !datas.isExisting( b ) )
+					addContactPhone( id, datas.getValue( b ),
+						datas.getType( b ), datas.isPreferred( b ) );
+			datas = entry.getEmails();
+			for( int b = 0; b < datas.size(); b++ )
+				if( !datas.isExisting( b ) )
+					addContactEmail( id, datas.getValue( b ),
+						datas.getType( b ), datas.isPreferred( b ) );
+			datas = entry.getAddresses();
+			for( int b = 0; b < datas.size(); b++ )
+				if( !datas.isExisting( b ) )
+					addContactAddresses( id, datas.getValue( b ),
+						datas.getType( b ) );
+			datas = entry.getOrganisations();
+			for( int b = 0; b < datas.size(); b++ )
+				if( !datas.isExisting( b ) )
+					addContactOrganisation( id, datas.getValue( b ),
+						datas.getExtra( b ) );
+			datas = entry.getNotes();
+			for( int b = 0; b < datas.size(); b++ )
+				if( !datas.isExisting( b ) )
+					addContactNote( id, datas.getValue( b ) );
+			if( entry.getBirthday() != null )
+				addContactBirthday( id, entry.getBirthday() );
+			if( entry.getPhoto() != null )
+				addContactPhoto( id, entry.getPhoto() );
+			entry.setCommitted();
+		}
+	}
 }
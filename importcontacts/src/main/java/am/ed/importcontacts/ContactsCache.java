@@ -23,10 +23,28 @@
 
 package am.ed.importcontacts;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
+/**
+ * A cache of the contacts on the device, used to look up (or match) imported
+ * contacts, and to check which of their details the contacts already have.
+ *
+ * The cache is thread-safe.  Lookups by cache identifier don't lock, and
+ * changes to them lock only one of several stripes (chosen by the identifier),
+ * which also allows an identifier to be atomically looked up or reserved, so
+ * that parallel workers don't both create a contact for it.  Everything else
+ * (associated data, matching, etc.) is guarded by the cache's own lock.
+ */
 public class ContactsCache
 {
 	/**
@@ -54,10 +72,14 @@ public class ContactsCache
 		{
 			switch( type )
 			{
-			case NAME: detail = normaliseName( detail ); break;
-			case ORGANISATION: detail = normaliseOrganisation( detail ); break;
-			case PRIMARY_NUMBER: detail = normalisePhoneNumber( detail ); break;
-			case PRIMARY_EMAIL: detail = normaliseEmailAddress( detail ); break;
+			case NAME:
+				detail = Normaliser.normaliseName( detail ); break;
+			case ORGANISATION:
+				detail = Normaliser.normaliseOrganisation( detail ); break;
+			case PRIMARY_NUMBER:
+				detail = Normaliser.normalisePhoneNumber( detail ); break;
+			case PRIMARY_EMAIL:
+				detail = Normaliser.normaliseEmailAddress( detail ); break;
 			default: return null;
 			}
 			if( detail == null ) return null;
@@ -114,31 +136,119 @@ public class ContactsCache
 		{
 			return _detail;
 		}
+
+		/**
+		 * Get a string which uniquely represents this identifier (i.e., both
+		 * its type and its detail), which can be used as a key.
+		 *
+		 * @return the key
+		 */
+		public String getKey()
+		{
+			return _type.ordinal() + ":" + _detail;
+		}
 	}
 
 	// mappings of contact names, organisations and primary numbers to ids
-	private HashMap< String, Long > _contactsByName
-		= new HashMap< String, Long >();
-	private HashMap< String, Long > _contactsByOrg
-		= new HashMap< String, Long >();
-	private HashMap< String, Long > _contactsByNumber
+	private ConcurrentHashMap< String, Long > _contactsByName
+		= new ConcurrentHashMap< String, Long >();
+	private ConcurrentHashMap< String, Long > _contactsByOrg
+		= new ConcurrentHashMap< String, Long >();
+	private ConcurrentHashMap< String, Long > _contactsByNumber
+		= new ConcurrentHashMap< String, Long >();
+	private ConcurrentHashMap< String, Long > _contactsByEmail
+		= new ConcurrentHashMap< String, Long >();
+
+	// mapping of contact ids to sets of associated data (these are keyed by
+	// primitive longs, since there are entries for every contact)
+	private LongStringSetMap _contactNumbers = new LongStringSetMap();
+	private LongStringSetMap _contactEmails = new LongStringSetMap();
+	private LongStringSetMap _contactAddresses = new LongStringSetMap();
+	private LongStringSetMap _contactOrganisations = new LongStringSetMap();
+	private LongStringSetMap _contactNotes = new LongStringSetMap();
+	private LongHashMap< String > _contactBirthdays
+		= new LongHashMap< String >();
+
+	// When fingerprinting is enabled, addresses, organisations and notes
+	// (which can be long) are only held as fingerprints, indexed by kind.  If
+	// there is a verifier, it is used to check any details that match.  The
+	// details that are read from it are kept (by kind) for the rest of the
+	// import, so that each contact's details are only read once.
+	private LongFingerprintSetMap[] _contactFingerprints = null;
+	private Backend _fingerprintVerifier = null;
+	private LongStringSetMap[] _verifiedDetails = null;
+	private int _fingerprintCollisions = 0;
+
+	// When lazy loading is enabled, addresses, organisations, notes and
+	// birthdays are only loaded (from the loader) for the contacts that need
+	// them.  Contacts that have been matched are loaded together, in batches.
+	private final static int LAZY_KINDS = ( 1 << MergePolicy.KIND_ADDRESSES ) |
+		( 1 << MergePolicy.KIND_ORGANISATIONS ) |
+		( 1 << MergePolicy.KIND_NOTES ) | ( 1 << MergePolicy.KIND_BIRTHDAY );
+	private final static int MAX_LAZY_BATCH_SIZE = 500;
+	private Backend _lazyLoader = null;
+	private HashSet< Long > _lazyLoadedIds = new HashSet< Long >();
+	private ArrayList< Long > _lazyPendingIds = new ArrayList< Long >();
+
+	// Mappings of (normalised) phone numbers and email addresses to the ids of
+	// the contacts that have them, so that contacts can be matched by more
+	// than their cache identifier.  Where more than one contact has the same
+	// number or email address, it maps to AMBIGUOUS and isn't used.
+	private final static Long AMBIGUOUS = Long.valueOf( -1 );
+	private HashMap< String, Long > _numberOwners
 		= new HashMap< String, Long >();
-	private HashMap< String, Long > _contactsByEmail
+	private HashMap< String, Long > _emailOwners
 		= new HashMap< String, Long >();
 
-	// mapping of contact ids to sets of associated data
-	private HashMap< Long, HashSet< String > > _contactNumbers
-		= new HashMap< Long, HashSet< String > >();
-	private HashMap< Long, HashSet< String > > _contactEmails
-		= new HashMap< Long, HashSet< String > >();
-	private HashMap< Long, HashSet< String > > _contactAddresses
-		= new HashMap< Long, HashSet< String > >();
-	private HashMap< Long, HashSet< String > > _contactOrganisations
-		= new HashMap< Long, HashSet< String > >();
-	private HashMap< Long, HashSet< String > > _contactNotes
-		= new HashMap< Long, HashSet< String > >();
-	private HashMap< Long, String > _contactBirthdays
-		= new HashMap< Long, String >();
+	// Bloom filters, if enabled, of the lookups of each type (indexed by
+	// CacheIdentifier.Type ordinals) and of the associated data of each kind
+	// (indexed by MergePolicy.KIND_* values), which are checked first.
+	private volatile BloomFilter[] _lookupFilters = null;
+	private BloomFilter[] _dataFilters = null;
+
+	// Statistics: lookups by cache identifier that found (or didn't find) a
+	// contact, for each CacheIdentifier.Type, and the details that were found
+	// to already be associated with a contact, for each kind.
+	private AtomicIntegerArray _lookupHits =
+		new AtomicIntegerArray( CacheIdentifier.Type.values().length );
+	private AtomicIntegerArray _lookupMisses =
+		new AtomicIntegerArray( CacheIdentifier.Type.values().length );
+	private int[] _duplicateDetails = new int[ MergePolicy.NUM_KINDS ];
+
+	// an index for fuzzy matching, if enabled
+	private FuzzyIndex _fuzzyIndex = null;
+
+	// ids of contacts that have been removed
+	private ConcurrentHashMap< Long, Boolean > _removedIds
+		= new ConcurrentHashMap< Long, Boolean >();
+
+	// scores for each shared phone number or email address when matching
+	// contacts, and the score needed to match
+	private final static int SCORE_NUMBER = 2;
+	private final static int SCORE_EMAIL = 3;
+	private final static int MIN_MATCH_SCORE = 2;
+
+	// Locks for changes to lookups by cache identifier, chosen by the
+	// identifier's key, and the identifiers that have been reserved (by the
+	// threads that reserved them).
+	private final static int NUM_STRIPES = 16;
+	private static class Stripe
+	{
+		HashMap< String, Thread > _reservations =
+			new HashMap< String, Thread >();
+	}
+	private Stripe[] _stripes = new Stripe[ NUM_STRIPES ];
+
+	public ContactsCache()
+	{
+		for( int a = 0; a < NUM_STRIPES; a++ )
+			_stripes[ a ] = new Stripe();
+	}
+
+	private Stripe getStripe( String key )
+	{
+		return _stripes[ ( key.hashCode() & 0x7fffffff ) % NUM_STRIPES ];
+	}
 
 	public boolean canLookup( CacheIdentifier identifier )
 	{
@@ -154,20 +264,490 @@ public class ContactsCache
 	 */
 	public Long lookup( CacheIdentifier identifier )
 	{
-		switch( identifier.getType() )
+		BloomFilter[] filters = _lookupFilters;
+		BloomFilter filter = filters == null?
+			null : filters[ identifier.getType().ordinal() ];
+		if( filter != null && !filter.mightContain(
+			LongFingerprintSetMap.fingerprint( identifier.getDetail() ) ) )
+		{
+			_lookupMisses.incrementAndGet( identifier.getType().ordinal() );
+			return null;
+		}
+
+		Long id = getLookups( identifier.getType() ).get(
+			identifier.getDetail() );
+		if( id == null && filter != null )
+			filter.recordFalsePositive();
+		if( id == null || _removedIds.containsKey( id ) ) {
+			_lookupMisses.incrementAndGet( identifier.getType().ordinal() );
+			return null;
+		}
+		_lookupHits.incrementAndGet( identifier.getType().ordinal() );
+		return id;
+	}
+
+	/**
+	 * Find the contact id of an existing contact that matches some contact
+	 * data.  The contact data's cache identifier is tried first.  Failing
+	 * that, existing contacts that share its phone numbers and email
+	 * addresses are scored, and the best is matched, if its score is high
+	 * enough and no other contact scores as highly.  This means that, e.g., a
+	 * contact that has been renamed can still be matched by its number.
+	 *
+	 * @param contact the (finalised) contact data
+	 * @return a contact id, or null
+	 */
+	public synchronized Long match( Importer.ContactData contact )
+	{
+		Long id = findMatch( contact );
+
+		// the matched contact's data is likely to be needed soon
+		if( id != null && _lazyLoader != null &&
+			!_lazyLoadedIds.contains( id ) )
 		{
-		case NAME:
-			return _contactsByName.get( identifier.getDetail() );
-		case ORGANISATION:
-			return _contactsByOrg.get( identifier.getDetail() );
-		case PRIMARY_NUMBER:
-			return _contactsByNumber.get( identifier.getDetail() );
-		case PRIMARY_EMAIL:
-			return _contactsByEmail.get( identifier.getDetail() );
+			_lazyPendingIds.add( id );
 		}
+		return id;
+	}
+
+	private Long findMatch( Importer.ContactData contact )
+	{
+		Long id = lookup( contact.getCacheIdentifier() );
+		if( id != null ) return id;
+
+		ContactDetails numbers = contact.getNumbers();
+		ContactDetails emails = contact.getEmails();
+		int max_candidates = numbers.size() + emails.size();
+		if( max_candidates == 0 ) return null;
+
+		// score candidates
+		long[] candidates = new long[ max_candidates ];
+		int[] scores = new int[ max_candidates ];
+		int num_candidates = 0;
+		for( int a = 0; a < numbers.size(); a++ )
+			num_candidates = addScore( candidates, scores, num_candidates,
+				_numberOwners.get( Normaliser.normalisePhoneNumber(
+					numbers.getValue( a ) ) ), SCORE_NUMBER );
+		for( int a = 0; a < emails.size(); a++ )
+			num_candidates = addScore( candidates, scores, num_candidates,
+				_emailOwners.get( Normaliser.normaliseEmailAddress(
+					emails.getValue( a ) ) ), SCORE_EMAIL );
+
+		// find the best
+		int best = -1;
+		boolean is_tied = false;
+		for( int a = 0; a < num_candidates; a++ ) {
+			if( best == -1 || scores[ a ] > scores[ best ] ) {
+				best = a;
+				is_tied = false;
+			}
+			else if( scores[ a ] == scores[ best ] )
+				is_tied = true;
+		}
+		if( best != -1 && !is_tied && scores[ best ] >= MIN_MATCH_SCORE )
+			return candidates[ best ];
+
+		// finally, try fuzzy matching
+		if( _fuzzyIndex != null && contact.hasName() )
+			return _fuzzyIndex.match( contact.getName(), numbers );
 		return null;
 	}
 
+	/**
+	 * Check Bloom filters of the cache identifiers and associated data before
+	 * looking them up in the cache.  Most imported contacts are usually new,
+	 * so a filter can often say that a contact, or a detail, is definitely
+	 * not in the cache.  The filters are built from the cache's contents, so
+	 * this should be called once it has been populated (and before it is
+	 * used by more than one thread).
+	 */
+	public synchronized void enableBloomFilters()
+	{
+		if( _lookupFilters != null ) return;
+
+		CacheIdentifier.Type[] types = CacheIdentifier.Type.values();
+		BloomFilter[] lookup_filters = new BloomFilter[ types.length ];
+		for( int a = 0; a < types.length; a++ ) {
+			ConcurrentHashMap< String, Long > lookups =
+				getLookups( types[ a ] );
+			lookup_filters[ a ] = new BloomFilter(
+				types[ a ].name().toLowerCase( Locale.ENGLISH ) + " lookups",
+				lookups.size() * 2 );
+			Iterator< String > i = lookups.keySet().iterator();
+			while( i.hasNext() )
+				lookup_filters[ a ].add(
+					LongFingerprintSetMap.fingerprint( i.next() ) );
+		}
+
+		_dataFilters = new BloomFilter[ MergePolicy.NUM_KINDS ];
+		for( int kind = 0; kind < MergePolicy.NUM_KINDS; kind++ )
+		{
+			LongFingerprintSetMap fingerprints = getFingerprints( kind );
+			long[] ids = kind == MergePolicy.KIND_BIRTHDAY?
+				_contactBirthdays.keys() : fingerprints != null?
+					fingerprints.keys() : getAssociatedData( kind ).keys();
+			BloomFilter filter = new BloomFilter(
+				MergePolicy.getKindName( kind ) + " data", ids.length * 4 );
+			for( int a = 0; a < ids.length; a++ ) {
+				if( kind == MergePolicy.KIND_BIRTHDAY ) {
+					filter.add( getDataHash( ids[ a ], getBirthdayFingerprint(
+						_contactBirthdays.get( ids[ a ] ) ) ) );
+					continue;
+				}
+				if( fingerprints != null ) {
+					long[] values = fingerprints.get( ids[ a ] );
+					for( int b = 0; b < values.length; b++ )
+						filter.add( getDataHash( ids[ a ], values[ b ] ) );
+					continue;
+				}
+				String[] values = getAssociatedData( kind ).get( ids[ a ] );
+				for( int b = 0; b < values.length; b++ )
+					filter.add( getDataHash( ids[ a ],
+						LongFingerprintSetMap.fingerprint( values[ b ] ) ) );
+			}
+			_dataFilters[ kind ] = filter;
+		}
+
+		_lookupFilters = lookup_filters;
+	}
+
+	/**
+	 * Describe how the Bloom filters have been used.
+	 *
+	 * @return a report, or null if they are not enabled
+	 */
+	public synchronized String getBloomFilterReport()
+	{
+		BloomFilter[] filters = _lookupFilters;
+		if( filters == null ) return null;
+
+		StringBuilder report = new StringBuilder( "bloom filters:" );
+		for( int a = 0; a < filters.length; a++ )
+			report.append( "\n  " ).append( filters[ a ].getReport() );
+		for( int a = 0; a < _dataFilters.length; a++ )
+			report.append( "\n  " ).append( _dataFilters[ a ].getReport() );
+		return report.toString();
+	}
+
+	/**
+	 * Describe the cache: the number of entries in each of its maps (and an
+	 * estimate of the heap space they use), the hits and misses of lookups
+	 * by each type of cache identifier, and how many duplicate details of
+	 * each kind were caught.  Strings that are shared between maps are
+	 * counted in each, so the estimate is on the high side.
+	 *
+	 * @return the report
+	 */
+	public synchronized String getReport()
+	{
+		StringBuilder report = new StringBuilder( "contacts cache:" );
+		long total = 0;
+
+		CacheIdentifier.Type[] types = CacheIdentifier.Type.values();
+		for( int a = 0; a < types.length; a++ ) {
+			ConcurrentHashMap< String, Long > lookups =
+				getLookups( types[ a ] );
+			long size = estimateSize( lookups );
+			total += size;
+			report.append( "\n  " )
+				.append( types[ a ].name().toLowerCase( Locale.ENGLISH ) )
+				.append( " lookups: " ).append( lookups.size() )
+				.append( " entries, ~" ).append( size ).append( " bytes, " )
+				.append( _lookupHits.get( a ) ).append( " hits, " )
+				.append( _lookupMisses.get( a ) ).append( " misses" );
+		}
+
+		for( int kind = 0; kind < MergePolicy.NUM_KINDS; kind++ )
+		{
+			LongFingerprintSetMap fingerprints = getFingerprints( kind );
+			int entries;
+			long size;
+			if( kind == MergePolicy.KIND_BIRTHDAY ) {
+				entries = _contactBirthdays.size();
+				size = _contactBirthdays.estimateSize();
+				long[] ids = _contactBirthdays.keys();
+				for( int a = 0; a < ids.length; a++ )
+					size += StringPool.estimateSize(
+						_contactBirthdays.get( ids[ a ] ) );
+			}
+			else if( fingerprints != null ) {
+				entries = fingerprints.size();
+				size = fingerprints.estimateSize();
+			}
+			else {
+				entries = getAssociatedData( kind ).size();
+				size = getAssociatedData( kind ).estimateSize();
+			}
+			total += size;
+			report.append( "\n  " ).append( MergePolicy.getKindName( kind ) )
+				.append( ": " ).append( entries ).append( " contacts, ~" )
+				.append( size ).append( " bytes, " )
+				.append( _duplicateDetails[ kind ] )
+				.append( " duplicates caught" );
+			if( fingerprints != null )
+				report.append( " (fingerprints)" );
+			if( isLoadedLazily( kind ) )
+				report.append( " (loaded lazily)" );
+		}
+
+		long size = estimateSize( _numberOwners ) +
+			estimateSize( _emailOwners );
+		total += size;
+		report.append( "\n  owners: " )
+			.append( _numberOwners.size() + _emailOwners.size() )
+			.append( " entries, ~" ).append( size ).append( " bytes" );
+
+		BloomFilter[] filters = _lookupFilters;
+		if( filters != null ) {
+			size = 0;
+			for( int a = 0; a < filters.length; a++ )
+				size += filters[ a ].estimateSize();
+			for( int a = 0; a < _dataFilters.length; a++ )
+				size += _dataFilters[ a ].estimateSize();
+			total += size;
+			report.append( "\n  bloom filters: ~" ).append( size )
+				.append( " bytes" );
+		}
+
+		report.append( "\n  total: ~" ).append( total ).append( " bytes" );
+		return report.toString();
+	}
+
+	/**
+	 * Estimate the heap space used by a map of strings to contact ids.  Each
+	 * entry is a node (a header, the key's hash and three references), a
+	 * slot in the map's table (allowing for it not being full), a Long, and
+	 * the key.
+	 *
+	 * @param map the map
+	 * @return number of bytes
+	 */
+	private static long estimateSize( Map< String, Long > map )
+	{
+		long size = 64;
+		Iterator< String > i = map.keySet().iterator();
+		while( i.hasNext() )
+			size += 32 + 8 + 16 + StringPool.estimateSize( i.next() );
+		return size;
+	}
+
+	private static long getDataHash( long id, long fingerprint )
+	{
+		return fingerprint ^ ( id * 0x9e3779b97f4a7c15L );
+	}
+
+	private static long getBirthdayFingerprint( String birthday )
+	{
+		// birthdays are compared ignoring case
+		return LongFingerprintSetMap.fingerprint(
+			birthday.toLowerCase( Locale.ENGLISH ) );
+	}
+
+	/**
+	 * Check the Bloom filter, if enabled, for associated data.
+	 *
+	 * @param kind the kind of data (a MergePolicy.KIND_* value)
+	 * @param id the contact id
+	 * @param fingerprint the data's fingerprint
+	 * @return false if the contact definitely doesn't have the data
+	 */
+	private boolean mightHaveData( int kind, Long id, long fingerprint )
+	{
+		return _dataFilters == null ||
+			_dataFilters[ kind ].mightContain( getDataHash( id, fingerprint ) );
+	}
+
+	private void addDataToFilter( int kind, Long id, long fingerprint )
+	{
+		if( _dataFilters != null )
+			_dataFilters[ kind ].add( getDataHash( id, fingerprint ) );
+	}
+
+	/**
+	 * Note the result of looking up associated data that the Bloom filter
+	 * said the contact might have.
+	 *
+	 * @param kind the kind of data (a MergePolicy.KIND_* value)
+	 * @param found whether the data was found
+	 * @return found
+	 */
+	private boolean checkedData( int kind, boolean found )
+	{
+		if( !found && _dataFilters != null )
+			_dataFilters[ kind ].recordFalsePositive();
+		return found;
+	}
+
+	/**
+	 * Enable fuzzy matching of contacts (by match()), using the names and
+	 * phone numbers of the contacts in the cache (and those added later).
+	 */
+	public synchronized void enableFuzzyMatching()
+	{
+		if( _fuzzyIndex != null ) return;
+		_fuzzyIndex = new FuzzyIndex();
+
+		Iterator< String > i = _contactsByName.keySet().iterator();
+		while( i.hasNext() ) {
+			String name = i.next();
+			Long id = _contactsByName.get( name );
+			if( !_removedIds.containsKey( id ) )
+				_fuzzyIndex.addName( id, name );
+		}
+
+		long[] ids = _contactNumbers.keys();
+		for( int a = 0; a < ids.length; a++ ) {
+			String[] numbers = _contactNumbers.get( ids[ a ] );
+			for( int b = 0; b < numbers.length; b++ )
+				_fuzzyIndex.addNumber( ids[ a ], numbers[ b ] );
+		}
+	}
+
+	/**
+	 * Hold addresses, organisations and notes as 64-bit fingerprints, rather
+	 * than as strings, which uses much less memory.  Without a verifier, it
+	 * is possible (although very unlikely) that a detail is mistaken for
+	 * another that shares its fingerprint, so it isn't imported.  With a
+	 * verifier, the contact's details are read from it to check whenever a
+	 * fingerprint matches.  This must be called before the cache is
+	 * populated.
+	 *
+	 * @param verifier the backend from which to read details, or null
+	 */
+	public synchronized void enableFingerprints( Backend verifier )
+	{
+		_contactFingerprints =
+			new LongFingerprintSetMap[ MergePolicy.NUM_KINDS ];
+		_contactFingerprints[ MergePolicy.KIND_ADDRESSES ] =
+			new LongFingerprintSetMap();
+		_contactFingerprints[ MergePolicy.KIND_ORGANISATIONS ] =
+			new LongFingerprintSetMap();
+		_contactFingerprints[ MergePolicy.KIND_NOTES ] =
+			new LongFingerprintSetMap();
+		_fingerprintVerifier = verifier;
+		_verifiedDetails = null;
+		if( verifier != null ) {
+			_verifiedDetails = new LongStringSetMap[ MergePolicy.NUM_KINDS ];
+			for( int a = 0; a < _verifiedDetails.length; a++ )
+				_verifiedDetails[ a ] = new LongStringSetMap();
+		}
+	}
+
+	public synchronized boolean hasFingerprints()
+	{
+		return _contactFingerprints != null;
+	}
+
+	/**
+	 * Load addresses, organisations, notes and birthdays lazily.  Rather than
+	 * being added to the cache when it is populated (when they are ignored),
+	 * they are read from the loader when they are first needed for a contact.
+	 * This must be called before the cache is populated.
+	 *
+	 * @param loader the backend from which to load data
+	 */
+	public synchronized void enableLazyLoading( Backend loader )
+	{
+		_lazyLoader = loader;
+	}
+
+	public synchronized boolean isLazyLoading()
+	{
+		return _lazyLoader != null;
+	}
+
+	/**
+	 * Check whether a kind of data is loaded lazily (and so doesn't need to
+	 * be added when the cache is populated).
+	 *
+	 * @param kind the kind of data (a MergePolicy.KIND_* value)
+	 * @return true if it is
+	 */
+	public synchronized boolean isLoadedLazily( int kind )
+	{
+		return _lazyLoader != null && ( LAZY_KINDS & ( 1 << kind ) ) != 0;
+	}
+
+	/**
+	 * Make sure that a contact's lazily-loaded data has been loaded.  Any
+	 * other contacts that have been matched (and which have not been loaded)
+	 * are loaded at the same time.
+	 *
+	 * @param kind the kind of data that is needed
+	 * @param id the contact id
+	 */
+	private void ensureLoaded( int kind, Long id )
+	{
+		if( !isLoadedLazily( kind ) || _lazyLoadedIds.contains( id ) )
+			return;
+
+		_lazyPendingIds.add( id );
+		while( !_lazyPendingIds.isEmpty() )
+		{
+			// (ids are marked as loaded first, so that their data is added)
+			long[] ids = new long[ Math.min( _lazyPendingIds.size(),
+				MAX_LAZY_BATCH_SIZE ) ];
+			int count = 0;
+			while( count < ids.length && !_lazyPendingIds.isEmpty() ) {
+				Long pending_id = _lazyPendingIds.remove(
+					_lazyPendingIds.size() - 1 );
+				if( _lazyLoadedIds.add( pending_id ) )
+					ids[ count++ ] = pending_id;
+			}
+			if( count == 0 ) continue;
+			if( count < ids.length ) {
+				long[] loaded_ids = new long[ count ];
+				System.arraycopy( ids, 0, loaded_ids, 0, count );
+				ids = loaded_ids;
+			}
+			_lazyLoader.loadAssociatedData( this, ids );
+		}
+	}
+
+	/**
+	 * Check whether data that is being added to the cache should be ignored,
+	 * because it is loaded lazily and hasn't been loaded for the contact yet
+	 * (so it will be loaded from the backend when it is needed).
+	 *
+	 * @param kind the kind of data (a MergePolicy.KIND_* value)
+	 * @param id the contact id
+	 * @return true if it should
+	 */
+	private boolean isNotLoaded( int kind, Long id )
+	{
+		return isLoadedLazily( kind ) && !_lazyLoadedIds.contains( id );
+	}
+
+	/**
+	 * Get the number of fingerprints that matched but, when verified, turned
+	 * out to be for different details.
+	 *
+	 * @return the number of collisions
+	 */
+	public synchronized int getFingerprintCollisions()
+	{
+		return _fingerprintCollisions;
+	}
+
+	private int addScore( long[] candidates, int[] scores,
+		int num_candidates, Long id, int score )
+	{
+		if( id == null || id.equals( AMBIGUOUS ) ||
+			_removedIds.containsKey( id ) )
+		{
+			return num_candidates;
+		}
+
+		for( int a = 0; a < num_candidates; a++ )
+			if( candidates[ a ] == id ) {
+				scores[ a ] += score;
+				return num_candidates;
+			}
+		candidates[ num_candidates ] = id;
+		scores[ num_candidates ] = score;
+		return num_candidates + 1;
+	}
+
 	/**
 	 * Remove any cache entry that is identified by the cache identifier.
 	 *
@@ -176,42 +756,158 @@ public class ContactsCache
 	 */
 	public Long removeLookup( CacheIdentifier identifier )
 	{
-		switch( identifier.getType() )
-		{
-		case NAME:
-			return _contactsByName.remove( identifier.getDetail() );
-		case ORGANISATION:
-			return _contactsByOrg.remove( identifier.getDetail() );
-		case PRIMARY_NUMBER:
-			return _contactsByNumber.remove( identifier.getDetail() );
-		case PRIMARY_EMAIL:
-			return _contactsByEmail.remove( identifier.getDetail() );
+		synchronized( getStripe( identifier.getKey() ) ) {
+			return getLookups( identifier.getType() ).remove(
+				identifier.getDetail() );
 		}
-		return null;
 	}
 
 	/**
 	 * Add a lookup from a contact identifier to a contact id to the cache.
+	 * This completes any reservation of the identifier.
 	 *
 	 * @param identifier the cache identifier
 	 * @param id teh contact id
 	 */
 	public void addLookup( CacheIdentifier identifier, Long id )
 	{
-		switch( identifier.getType() )
+		String key = identifier.getKey();
+		Stripe stripe = getStripe( key );
+		synchronized( stripe ) {
+			getLookups( identifier.getType() ).put(
+				identifier.getDetail(), id );
+			BloomFilter[] filters = _lookupFilters;
+			if( filters != null )
+				filters[ identifier.getType().ordinal() ].add(
+					LongFingerprintSetMap.fingerprint(
+						identifier.getDetail() ) );
+			if( stripe._reservations.remove( key ) != null )
+				stripe.notifyAll();
+		}
+
+		if( identifier.getType() == CacheIdentifier.Type.NAME )
+			synchronized( this ) {
+				if( _fuzzyIndex != null )
+					_fuzzyIndex.addName( id, identifier.getDetail() );
+			}
+	}
+
+	/**
+	 * Look up the contact id of a contact identified by a cache identifier or,
+	 * if there isn't one, reserve the identifier for the calling thread, so
+	 * that it can create the contact.  Once it has, it should add a lookup
+	 * for it (with addLookup()), or else cancel the reservation.  Meanwhile,
+	 * other threads that look up or reserve the identifier will wait.
+	 *
+	 * @param identifier the cache identifier
+	 * @return a contact id, or null if the identifier has been reserved
+	 * @throws InterruptedException
+	 */
+	public Long lookupOrReserve( CacheIdentifier identifier )
+		throws InterruptedException
+	{
+		String key = identifier.getKey();
+		Stripe stripe = getStripe( key );
+		synchronized( stripe ) {
+			while( true ) {
+				Long id = lookup( identifier );
+				if( id != null ) return id;
+
+				Thread owner = stripe._reservations.get( key );
+				if( owner == null || owner == Thread.currentThread() ) {
+					stripe._reservations.put( key, Thread.currentThread() );
+					return null;
+				}
+				stripe.wait();
+			}
+		}
+	}
+
+	/**
+	 * Cancel the calling thread's reservation of a cache identifier (e.g.,
+	 * because it didn't create a contact after all).
+	 *
+	 * @param identifier the cache identifier
+	 */
+	public void cancelReservation( CacheIdentifier identifier )
+	{
+		String key = identifier.getKey();
+		Stripe stripe = getStripe( key );
+		synchronized( stripe ) {
+			if( stripe._reservations.get( key ) == Thread.currentThread() ) {
+				stripe._reservations.remove( key );
+				stripe.notifyAll();
+			}
+		}
+	}
+
+	private ConcurrentHashMap< String, Long > getLookups(
+		CacheIdentifier.Type type )
+	{
+		switch( type )
 		{
-		case NAME:
-			_contactsByName.put( identifier.getDetail(), id );
-			break;
-		case ORGANISATION:
-			_contactsByOrg.put( identifier.getDetail(), id );
-			break;
-		case PRIMARY_NUMBER:
-			_contactsByNumber.put( identifier.getDetail(), id );
-			break;
-		case PRIMARY_EMAIL:
-			_contactsByEmail.put( identifier.getDetail(), id );
-			break;
+		case NAME:				return _contactsByName;
+		case ORGANISATION:		return _contactsByOrg;
+		case PRIMARY_NUMBER:	return _contactsByNumber;
+		default:				return _contactsByEmail;
+		}
+	}
+
+	/**
+	 * Remove a contact that has been deleted, so that it can't be looked up
+	 * (or matched) any more, and remove its associated data.
+	 *
+	 * @param id the contact id
+	 */
+	public synchronized void removeContact( Long id )
+	{
+		_removedIds.put( id, Boolean.TRUE );
+		removeAssociatedData( id );
+		if( _fuzzyIndex != null )
+			_fuzzyIndex.removeContact( id );
+	}
+
+	/**
+	 * Forget everything about some contacts (e.g., because they have changed),
+	 * so that they can be added to the cache again.  Unlike removeContact(),
+	 * the contacts can still be looked up once they have been added again.
+	 *
+	 * @param ids the contacts' ids
+	 */
+	public synchronized void forgetContacts( HashSet< Long > ids )
+	{
+		forgetLookups( CacheIdentifier.Type.NAME, ids );
+		forgetLookups( CacheIdentifier.Type.ORGANISATION, ids );
+		forgetLookups( CacheIdentifier.Type.PRIMARY_NUMBER, ids );
+		forgetLookups( CacheIdentifier.Type.PRIMARY_EMAIL, ids );
+
+		Iterator< Long > i = ids.iterator();
+		while( i.hasNext() ) {
+			Long id = i.next();
+			removeAssociatedData( id );
+			_contactBirthdays.remove( id );
+			_lazyLoadedIds.remove( id );
+			if( _fuzzyIndex != null )
+				_fuzzyIndex.removeContact( id );
+		}
+	}
+
+	private void forgetLookups( CacheIdentifier.Type type,
+		HashSet< Long > ids )
+	{
+		ConcurrentHashMap< String, Long > lookups = getLookups( type );
+		Iterator< Map.Entry< String, Long > > i =
+			lookups.entrySet().iterator();
+		while( i.hasNext() ) {
+			Map.Entry< String, Long > entry = i.next();
+			if( !ids.contains( entry.getValue() ) ) continue;
+
+			// only remove the lookup if it hasn't changed in the meantime
+			String detail = entry.getKey();
+			CacheIdentifier identifier = new CacheIdentifier( type, detail );
+			synchronized( getStripe( identifier.getKey() ) ) {
+				lookups.remove( detail, entry.getValue() );
+			}
 		}
 	}
 
@@ -220,188 +916,510 @@ public class ContactsCache
 	 *
 	 * @param id
 	 */
-	public void removeAssociatedData( Long id )
+	public synchronized void removeAssociatedData( Long id )
 	{
-		_contactNumbers.remove( id );
-		_contactEmails.remove( id );
+		removeOwner( _numberOwners, _contactNumbers.remove( id ), id );
+		removeOwner( _emailOwners, _contactEmails.remove( id ), id );
 		_contactAddresses.remove( id );
 		_contactOrganisations.remove( id );
 		_contactNotes.remove( id );
+		if( _contactFingerprints != null )
+			for( int a = 0; a < _contactFingerprints.length; a++ )
+				if( _contactFingerprints[ a ] != null )
+					_contactFingerprints[ a ].remove( id );
+		if( _verifiedDetails != null )
+			for( int a = 0; a < _verifiedDetails.length; a++ )
+				_verifiedDetails[ a ].remove( id );
 	}
 
-	public boolean hasAssociatedNumber( Long id, String number )
+	/**
+	 * Count the data of one kind that is associated with a contact id.
+	 *
+	 * @param kind the kind of data (a MergePolicy.KIND_* value)
+	 * @param id the contact id
+	 * @return the number of distinct (normalised) details
+	 */
+	public synchronized int countAssociatedData( int kind, Long id )
+	{
+		ensureLoaded( kind, id );
+		if( kind == MergePolicy.KIND_BIRTHDAY )
+			return _contactBirthdays.containsKey( id )? 1 : 0;
+
+		LongFingerprintSetMap fingerprints = getFingerprints( kind );
+		if( fingerprints != null )
+			return fingerprints.count( id );
+		return getAssociatedData( kind ).count( id );
+	}
+
+	/**
+	 * Remove the data of one kind that is associated with a contact id.
+	 *
+	 * @param kind the kind of data (a MergePolicy.KIND_* value)
+	 * @param id the contact id
+	 */
+	public synchronized void removeAssociatedData( int kind, Long id )
 	{
-		number = normalisePhoneNumber( number );
+		ensureLoaded( kind, id );
+		if( kind == MergePolicy.KIND_BIRTHDAY )
+			_contactBirthdays.remove( id );
+		else if( kind == MergePolicy.KIND_NUMBERS )
+			removeOwner( _numberOwners, _contactNumbers.remove( id ), id );
+		else if( kind == MergePolicy.KIND_EMAILS )
+			removeOwner( _emailOwners, _contactEmails.remove( id ), id );
+		else if( getFingerprints( kind ) != null ) {
+			getFingerprints( kind ).remove( id );
+			if( _verifiedDetails != null )
+				_verifiedDetails[ kind ].remove( id );
+		}
+		else
+			getAssociatedData( kind ).remove( id );
+	}
+
+	private static void addOwner( HashMap< String, Long > owners,
+		String detail, Long id )
+	{
+		Long owner = owners.get( detail );
+		if( owner == null )
+			owners.put( detail, id );
+		else if( !owner.equals( id ) )
+			owners.put( detail, AMBIGUOUS );
+	}
+
+	private static void removeOwner( HashMap< String, Long > owners,
+		String[] details, Long id )
+	{
+		if( details == null ) return;
+
+		// (ambiguous details stay ambiguous, since we don't know who else
+		// has them)
+		for( int a = 0; a < details.length; a++ )
+			if( id.equals( owners.get( details[ a ] ) ) )
+				owners.remove( details[ a ] );
+	}
+
+	/**
+	 * Check whether a contact id has some data associated with it.
+	 *
+	 * @param kind the kind of data (a MergePolicy.KIND_* value)
+	 * @param id the contact id
+	 * @param value the data
+	 * @return true if it does
+	 */
+	public synchronized boolean hasAssociatedData( int kind, Long id,
+		String value )
+	{
+		boolean found = false;
+		switch( kind )
+		{
+		case MergePolicy.KIND_NUMBERS:
+			found = hasAssociatedNumber( id, value ); break;
+		case MergePolicy.KIND_EMAILS:
+			found = hasAssociatedEmail( id, value ); break;
+		case MergePolicy.KIND_ADDRESSES:
+			found = hasAssociatedAddress( id, value ); break;
+		case MergePolicy.KIND_ORGANISATIONS:
+			found = hasAssociatedOrganisation( id, value ); break;
+		case MergePolicy.KIND_NOTES:
+			found = hasAssociatedNote( id, value ); break;
+		case MergePolicy.KIND_BIRTHDAY:
+			found = hasAssociatedBirthday( id, value ); break;
+		}
+		if( found ) _duplicateDetails[ kind ]++;
+		return found;
+	}
+
+	/**
+	 * Associate some data with a contact id.
+	 *
+	 * @param kind the kind of data (a MergePolicy.KIND_* value)
+	 * @param id the contact id
+	 * @param value the data
+	 */
+	public synchronized void addAssociatedData( int kind, Long id,
+		String value )
+	{
+		switch( kind )
+		{
+		case MergePolicy.KIND_NUMBERS:
+			addAssociatedNumber( id, value ); break;
+		case MergePolicy.KIND_EMAILS:
+			addAssociatedEmail( id, value ); break;
+		case MergePolicy.KIND_ADDRESSES:
+			addAssociatedAddress( id, value ); break;
+		case MergePolicy.KIND_ORGANISATIONS:
+			addAssociatedOrganisation( id, value ); break;
+		case MergePolicy.KIND_NOTES:
+			addAssociatedNote( id, value ); break;
+		case MergePolicy.KIND_BIRTHDAY:
+			addAssociatedBirthday( id, value ); break;
+		}
+	}
+
+	private LongStringSetMap getAssociatedData( int kind )
+	{
+		switch( kind )
+		{
+		case MergePolicy.KIND_NUMBERS:			return _contactNumbers;
+		case MergePolicy.KIND_EMAILS:			return _contactEmails;
+		case MergePolicy.KIND_ADDRESSES:		return _contactAddresses;
+		case MergePolicy.KIND_ORGANISATIONS:	return _contactOrganisations;
+		default:								return _contactNotes;
+		}
+	}
+
+	private LongFingerprintSetMap getFingerprints( int kind )
+	{
+		return _contactFingerprints == null?
+			null : _contactFingerprints[ kind ];
+	}
+
+	/**
+	 * Check whether a contact id has a (normalised) detail associated with
+	 * it, either as a string or, if fingerprinting is enabled for the kind,
+	 * as a fingerprint (which is verified, if possible).
+	 *
+	 * @param kind the kind of data (a MergePolicy.KIND_* value)
+	 * @param id the contact id
+	 * @param value the normalised data
+	 * @return true if it does
+	 */
+	private boolean hasDetail( int kind, Long id, String value )
+	{
+		ensureLoaded( kind, id );
+		if( !mightHaveData( kind, id,
+			LongFingerprintSetMap.fingerprint( value ) ) )
+		{
+			return false;
+		}
+
+		LongFingerprintSetMap fingerprints = getFingerprints( kind );
+		if( fingerprints == null )
+			return checkedData( kind,
+				getAssociatedData( kind ).contains( id, value ) );
+		if( !fingerprints.mightContain( id, value ) )
+			return checkedData( kind, false );
+		if( _fingerprintVerifier == null )
+			return true;
+
+		// read the contact's details, unless we already have
+		LongStringSetMap verified = _verifiedDetails[ kind ];
+		if( verified.count( id ) == 0 ) {
+			ArrayList< String > values =
+				_fingerprintVerifier.readContactDetails( id, kind );
+			for( int a = 0; a < values.size(); a++ ) {
+				String normalised =
+					Normaliser.normaliseDetail( kind, values.get( a ) );
+				if( normalised != null )
+					verified.add( id, normalised );
+			}
+		}
+		if( verified.contains( id, value ) )
+			return true;
+		_fingerprintCollisions++;
+		return checkedData( kind, false );
+	}
+
+	private void addDetail( int kind, Long id, String value )
+	{
+		if( isNotLoaded( kind, id ) ) return;
+		addDataToFilter( kind, id, LongFingerprintSetMap.fingerprint( value ) );
+
+		LongFingerprintSetMap fingerprints = getFingerprints( kind );
+		if( fingerprints != null ) {
+			fingerprints.add( id, value );
+
+			// keep any details that we've already read up to date
+			if( _verifiedDetails != null &&
+				_verifiedDetails[ kind ].count( id ) > 0 )
+			{
+				_verifiedDetails[ kind ].add( id, value );
+			}
+		}
+		else
+			getAssociatedData( kind ).add( id, value );
+	}
+
+	public synchronized boolean hasAssociatedNumber( Long id, String number )
+	{
+		number = Normaliser.normalisePhoneNumber( number );
 		if( number == null ) return false;
 
-		HashSet< String > set = _contactNumbers.get( id );
-		return set != null && set.contains( number );
+		if( !mightHaveData( MergePolicy.KIND_NUMBERS, id,
+			LongFingerprintSetMap.fingerprint( number ) ) )
+		{
+			return false;
+		}
+		return checkedData( MergePolicy.KIND_NUMBERS,
+			_contactNumbers.contains( id, number ) );
 	}
 
-	public void addAssociatedNumber( Long id, String number )
+	public synchronized void addAssociatedNumber( Long id, String number )
 	{
-		number = normalisePhoneNumber( number );
+		number = Normaliser.normalisePhoneNumber( number );
 		if( number == null ) return;
 
-		HashSet< String > set = _contactNumbers.get( id );
-		if( set == null ) {
-			set = new HashSet< String >();
-			_contactNumbers.put( id, set );
-		}
-		set.add( number );
+		_contactNumbers.add( id, number );
+		addDataToFilter( MergePolicy.KIND_NUMBERS, id,
+			LongFingerprintSetMap.fingerprint( number ) );
+		addOwner( _numberOwners, number, id );
+		if( _fuzzyIndex != null )
+			_fuzzyIndex.addNumber( id, number );
 	}
 
-	public boolean hasAssociatedEmail( Long id, String email )
+	public synchronized boolean hasAssociatedEmail( Long id, String email )
 	{
-		email = normaliseEmailAddress( email );
+		email = Normaliser.normaliseEmailAddress( email );
 		if( email == null ) return false;
 
-		HashSet< String > set = _contactEmails.get( id );
-		return set != null && set.contains( email );
+		if( !mightHaveData( MergePolicy.KIND_EMAILS, id,
+			LongFingerprintSetMap.fingerprint( email ) ) )
+		{
+			return false;
+		}
+		return checkedData( MergePolicy.KIND_EMAILS,
+			_contactEmails.contains( id, email ) );
 	}
 
-	public void addAssociatedEmail( Long id, String email )
+	public synchronized void addAssociatedEmail( Long id, String email )
 	{
-		email = normaliseEmailAddress( email );
+		email = Normaliser.normaliseEmailAddress( email );
 		if( email == null ) return;
 
-		HashSet< String > set = _contactEmails.get( id );
-		if( set == null ) {
-			set = new HashSet< String >();
-			_contactEmails.put( id, set );
-		}
-		set.add( email );
+		_contactEmails.add( id, email );
+		addDataToFilter( MergePolicy.KIND_EMAILS, id,
+			LongFingerprintSetMap.fingerprint( email ) );
+		addOwner( _emailOwners, email, id );
 	}
 
-	public boolean hasAssociatedAddress( Long id, String address )
+	public synchronized boolean hasAssociatedAddress( Long id, String address )
 	{
-		address = normaliseAddress( address );
+		address = Normaliser.normaliseAddress( address );
 		if( address == null ) return false;
 
-		HashSet< String > set = _contactAddresses.get( id );
-		return set != null && set.contains( address );
+		return hasDetail( MergePolicy.KIND_ADDRESSES, id, address );
 	}
 
-	public void addAssociatedAddress( Long id, String address )
+	public synchronized void addAssociatedAddress( Long id, String address )
 	{
-		address = normaliseAddress( address );
+		address = Normaliser.normaliseAddress( address );
 		if( address == null ) return;
 
-		HashSet< String > set = _contactAddresses.get( id );
-		if( set == null ) {
-			set = new HashSet< String >();
-			_contactAddresses.put( id, set );
-		}
-		set.add( address );
+		addDetail( MergePolicy.KIND_ADDRESSES, id, address );
 	}
 
-	public boolean hasAssociatedOrganisation( Long id, String organisation )
+	public synchronized boolean hasAssociatedOrganisation( Long id,
+		String organisation )
 	{
-		organisation = normaliseOrganisation( organisation );
+		organisation = Normaliser.normaliseOrganisation( organisation );
 		if( organisation == null ) return false;
 
-		HashSet< String > set = _contactOrganisations.get( id );
-		return set != null && set.contains( organisation );
+		return hasDetail( MergePolicy.KIND_ORGANISATIONS, id, organisation );
 	}
 
-	public void addAssociatedOrganisation( Long id, String organisation )
+	public synchronized void addAssociatedOrganisation( Long id,
+		String organisation )
 	{
-		organisation = normaliseOrganisation( organisation );
+		organisation = Normaliser.normaliseOrganisation( organisation );
 		if( organisation == null ) return;
 
-		HashSet< String > set = _contactOrganisations.get( id );
-		if( set == null ) {
-			set = new HashSet< String >();
-			_contactOrganisations.put( id, set );
-		}
-		set.add( organisation );
+		addDetail( MergePolicy.KIND_ORGANISATIONS, id, organisation );
 	}
 
-	public boolean hasAssociatedNote( Long id, String note )
+	public synchronized boolean hasAssociatedNote( Long id, String note )
 	{
-		note = normaliseNote( note );
+		note = Normaliser.normaliseNote( note );
 		if( note == null ) return false;
 
-		HashSet< String > set = _contactNotes.get( id );
-		return set != null && set.contains( note );
+		return hasDetail( MergePolicy.KIND_NOTES, id, note );
 	}
 
-	public void addAssociatedNote( Long id, String note )
+	public synchronized void addAssociatedNote( Long id, String note )
 	{
-		note = normaliseNote( note );
+		note = Normaliser.normaliseNote( note );
 		if( note == null ) return;
 
-		HashSet< String > set = _contactNotes.get( id );
-		if( set == null ) {
-			set = new HashSet< String >();
-			_contactNotes.put( id, set );
-		}
-		set.add( note );
+		addDetail( MergePolicy.KIND_NOTES, id, note );
 	}
 
-	public boolean hasAssociatedBirthday( Long id, String birthday )
+	public synchronized boolean hasAssociatedBirthday( Long id,
+		String birthday )
 	{
-		birthday = normaliseBirthday( birthday );
+		birthday = Normaliser.normaliseBirthday( birthday );
 		if( birthday == null ) return false;
+		ensureLoaded( MergePolicy.KIND_BIRTHDAY, id );
+		if( !mightHaveData( MergePolicy.KIND_BIRTHDAY, id,
+			getBirthdayFingerprint( birthday ) ) )
+		{
+			return false;
+		}
 
 		String found = _contactBirthdays.get( id );
-		return found != null && found.equalsIgnoreCase( birthday );
+		return checkedData( MergePolicy.KIND_BIRTHDAY,
+			found != null && found.equalsIgnoreCase( birthday ) );
 	}
 
-	public void addAssociatedBirthday( Long id, String birthday )
+	public synchronized void addAssociatedBirthday( Long id, String birthday )
 	{
-		birthday = normaliseBirthday( birthday );
+		birthday = Normaliser.normaliseBirthday( birthday );
 		if( birthday == null ) return;
+		if( isNotLoaded( MergePolicy.KIND_BIRTHDAY, id ) ) return;
 
 		_contactBirthdays.put( id, birthday );
+		addDataToFilter( MergePolicy.KIND_BIRTHDAY, id,
+			getBirthdayFingerprint( birthday ) );
 	}
 
-	static public String normaliseName( String name )
+	/**
+	 * Remove everything from the cache (but keep it configured as it was,
+	 * except for fuzzy matching, which needs to be enabled again).
+	 */
+	public synchronized void clear()
 	{
-		if( name == null ) return null;
-		name = name.trim();
-		return name.length() > 0? name : null;
+		_contactsByName.clear();
+		_contactsByOrg.clear();
+		_contactsByNumber.clear();
+		_contactsByEmail.clear();
+		_contactNumbers = new LongStringSetMap();
+		_contactEmails = new LongStringSetMap();
+		_contactAddresses = new LongStringSetMap();
+		_contactOrganisations = new LongStringSetMap();
+		_contactNotes = new LongStringSetMap();
+		_contactBirthdays = new LongHashMap< String >();
+		if( _contactFingerprints != null )
+			enableFingerprints( _fingerprintVerifier );
+		_numberOwners.clear();
+		_emailOwners.clear();
+		_fuzzyIndex = null;
+		_lookupFilters = null;
+		_dataFilters = null;
+		_removedIds.clear();
+		_lazyLoadedIds.clear();
+		_lazyPendingIds.clear();
 	}
 
-	static public String normalisePhoneNumber( String number )
+	/**
+	 * Write the cache's contents to a snapshot (see CacheSnapshot).  Removed
+	 * contacts are left out, and the fuzzy matching index is not written
+	 * (since it can be rebuilt).  Nor is any data that is loaded lazily,
+	 * since it is only loaded for some contacts.
+	 *
+	 * @param out the stream to write to
+	 * @throws IOException
+	 */
+	public synchronized void writeSnapshot( DataOutputStream out )
+		throws IOException
 	{
-		if( number == null ) return null;
-		number = number.trim().replaceAll( "[-\\(\\) ]", "" );
-		return number.length() > 0? number : null;
-	}
+		writeLookups( out, _contactsByName );
+		writeLookups( out, _contactsByOrg );
+		writeLookups( out, _contactsByNumber );
+		writeLookups( out, _contactsByEmail );
 
-	static public String normaliseEmailAddress( String email )
-	{
-		if( email == null ) return null;
-		email = email.trim().toLowerCase( Locale.ENGLISH );
-		return email.length() > 0? email : null;
-	}
+		for( int kind = 0; kind < MergePolicy.NUM_KINDS; kind++ ) {
+			if( kind == MergePolicy.KIND_BIRTHDAY ) continue;
 
-	static public String normaliseOrganisation( String organisation )
-	{
-		if( organisation == null ) return null;
-		organisation = organisation.trim();
-		return organisation.length() > 0? organisation : null;
+			LongFingerprintSetMap fingerprints = getFingerprints( kind );
+			long[] ids = isLoadedLazily( kind )? new long[ 0 ] :
+				fingerprints != null?
+					fingerprints.keys() : getAssociatedData( kind ).keys();
+			out.writeInt( ids.length );
+			for( int a = 0; a < ids.length; a++ ) {
+				out.writeLong( ids[ a ] );
+				if( fingerprints != null ) {
+					long[] values = fingerprints.get( ids[ a ] );
+					out.writeInt( values.length );
+					for( int b = 0; b < values.length; b++ )
+						out.writeLong( values[ b ] );
+				}
+				else {
+					String[] values = getAssociatedData( kind ).get( ids[ a ] );
+					out.writeInt( values.length );
+					for( int b = 0; b < values.length; b++ )
+						CacheSnapshot.writeString( out, values[ b ] );
+				}
+			}
+		}
+
+		long[] ids = isLoadedLazily( MergePolicy.KIND_BIRTHDAY )?
+			new long[ 0 ] : _contactBirthdays.keys();
+		out.writeInt( ids.length );
+		for( int a = 0; a < ids.length; a++ ) {
+			out.writeLong( ids[ a ] );
+			CacheSnapshot.writeString( out, _contactBirthdays.get( ids[ a ] ) );
+		}
 	}
 
-	static public String normaliseAddress( String address )
+	/**
+	 * Read the cache's contents from a snapshot (see CacheSnapshot).  The
+	 * cache should be empty, and configured for fingerprinting as it was when
+	 * the snapshot was written.
+	 *
+	 * @param in the buffer to read from
+	 * @throws IOException
+	 */
+	public synchronized void readSnapshot( ByteBuffer in ) throws IOException
 	{
-		if( address == null ) return null;
-		address = address.trim();
-		return address.length() > 0? address : null;
+		readLookups( in, _contactsByName );
+		readLookups( in, _contactsByOrg );
+		readLookups( in, _contactsByNumber );
+		readLookups( in, _contactsByEmail );
+
+		for( int kind = 0; kind < MergePolicy.NUM_KINDS; kind++ ) {
+			if( kind == MergePolicy.KIND_BIRTHDAY ) continue;
+
+			LongFingerprintSetMap fingerprints = getFingerprints( kind );
+			for( int a = in.getInt(); a > 0; a-- ) {
+				long id = in.getLong();
+				int count = in.getInt();
+				if( fingerprints != null ) {
+					long[] values = new long[ count ];
+					for( int b = 0; b < count; b++ )
+						values[ b ] = in.getLong();
+					fingerprints.put( id, values );
+					continue;
+				}
+				for( int b = 0; b < count; b++ ) {
+					String value = CacheSnapshot.readString( in );
+					getAssociatedData( kind ).add( id, value );
+					if( kind == MergePolicy.KIND_NUMBERS )
+						addOwner( _numberOwners, value, id );
+					else if( kind == MergePolicy.KIND_EMAILS )
+						addOwner( _emailOwners, value, id );
+				}
+			}
+		}
+
+		for( int a = in.getInt(); a > 0; a-- ) {
+			long id = in.getLong();
+			_contactBirthdays.put( id, CacheSnapshot.readString( in ) );
+		}
 	}
 
-	static public String normaliseNote( String note )
+	private void writeLookups( DataOutputStream out,
+		ConcurrentHashMap< String, Long > lookups ) throws IOException
 	{
-		if( note == null ) return null;
-		note = note.trim();
-		return note.length() > 0? note : null;
+		int count = 0;
+		Iterator< Long > i = lookups.values().iterator();
+		while( i.hasNext() )
+			if( !_removedIds.containsKey( i.next() ) )
+				count++;
+		out.writeInt( count );
+
+		Iterator< String > j = lookups.keySet().iterator();
+		while( j.hasNext() ) {
+			String detail = j.next();
+			Long id = lookups.get( detail );
+			if( _removedIds.containsKey( id ) ) continue;
+			CacheSnapshot.writeString( out, detail );
+			out.writeLong( id );
+		}
 	}
 
-	static public String normaliseBirthday( String birthday )
+	private static void readLookups( ByteBuffer in,
+		ConcurrentHashMap< String, Long > lookups ) throws IOException
 	{
-		if( birthday == null ) return null;
-		birthday = birthday.trim();
-		return birthday.length() > 0? birthday : null;
+		for( int a = in.getInt(); a > 0; a-- ) {
+			String detail = CacheSnapshot.readString( in );
+			lookups.put( detail, in.getLong() );
+		}
 	}
 }
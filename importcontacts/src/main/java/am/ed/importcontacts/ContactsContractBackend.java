@@ -23,23 +23,58 @@
 
 package am.ed.importcontacts;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
 
 import am.ed.importcontacts.ContactsCache.CacheIdentifier;
 import am.ed.importcontacts.Importer.ContactData;
 import android.annotation.TargetApi;
 import android.app.Activity;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
-import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.RemoteException;
 import android.provider.ContactsContract;
 import android.provider.ContactsContract.CommonDataKinds;
 
 @TargetApi(5)
 public class ContactsContractBackend implements Backend
 {
+	// the mimetype of the data rows of each kind of detail (indexed by
+	// MergePolicy.KIND_* values), and the column that holds the detail
+	private final static String[] KIND_MIMETYPES = {
+		CommonDataKinds.Phone.CONTENT_ITEM_TYPE,
+		CommonDataKinds.Email.CONTENT_ITEM_TYPE,
+		CommonDataKinds.StructuredPostal.CONTENT_ITEM_TYPE,
+		CommonDataKinds.Organization.CONTENT_ITEM_TYPE,
+		CommonDataKinds.Note.CONTENT_ITEM_TYPE,
+		CommonDataKinds.Event.CONTENT_ITEM_TYPE,
+	};
+	private final static String[] KIND_VALUE_COLUMNS = {
+		CommonDataKinds.Phone.NUMBER,
+		CommonDataKinds.Email.DATA,
+		CommonDataKinds.StructuredPostal.FORMATTED_ADDRESS,
+		CommonDataKinds.Organization.COMPANY,
+		CommonDataKinds.Note.NOTE,
+		CommonDataKinds.Event.START_DATE,
+	};
+
+	// how long the provider remembers deleted contacts for (30 days)
+	private final static long DELETED_CONTACTS_KEPT = 30L * 24 * 60 * 60 * 1000;
+
+	// the most changed contacts that refreshCache() will refresh
+	private final static int MAX_REFRESHED_CONTACTS = 1000;
+
+	// the most operations that we apply in one transaction (the provider
+	// refuses more than 500 without yield points)
+	private final static int MAX_TRANSACTION_OPS = 400;
+
 	private Activity _activity = null;
 	private HashMap< Long, Long > _aggregate_to_raw_ids = null;
 
@@ -52,330 +87,254 @@ public class ContactsContractBackend implements Backend
 	@Override
 	public void populateCache( ContactsCache cache )
 	{
-		Cursor cur;
-
-		// build a set of aggregate contact ids that haven't been added to the
-		// cache yet
-		HashSet< Long > unadded_ids = new HashSet< Long >();
-		cur = _activity.getContentResolver().query(
-			ContactsContract.Contacts.CONTENT_URI,
-			new String[] {
-				ContactsContract.Contacts._ID,
-			}, null, null, null );
-		while( cur.moveToNext() ) {
-			Long id = cur.getLong(
-				cur.getColumnIndex( ContactsContract.Contacts._ID ) );
-			unadded_ids.add( id );
-		}
-		cur.close();
-
-		// build a mapping of the ids of raw contacts to the ids of their
-		// aggregate contacts
-		HashMap< Long, Long > raw_to_aggregate_ids =
-			new HashMap< Long, Long >();
-		cur = _activity.getContentResolver().query(
-			ContactsContract.RawContacts.CONTENT_URI,
-			new String[] {
-				ContactsContract.RawContacts._ID,
-				ContactsContract.RawContacts.CONTACT_ID,
-			}, ContactsContract.RawContacts.DELETED + " = 0", null, null );
-		while( cur.moveToNext() ) {
-			Long raw_id = cur.getLong(
-				cur.getColumnIndex( ContactsContract.RawContacts._ID ) );
-			Long id = cur.getLong(
-				cur.getColumnIndex( ContactsContract.RawContacts.CONTACT_ID ) );
-			raw_to_aggregate_ids.put( raw_id, id );
-		}
-		cur.close();
+		populateCache( cache, null );
+	}
 
-		// get structured names, primary ones first
-		cur = _activity.getContentResolver().query(
-			ContactsContract.Data.CONTENT_URI,
-			new String[] {
-				ContactsContract.Data.RAW_CONTACT_ID,
-				CommonDataKinds.StructuredName.DISPLAY_NAME,
-			},
-			ContactsContract.Data.MIMETYPE + " = '" +
-				CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE + "'",
-			null, ContactsContract.Data.IS_PRIMARY + " DESC" );
-		while( cur.moveToNext() ) {
-			Long raw_id = cur.getLong( cur.getColumnIndex(
-				ContactsContract.Data.RAW_CONTACT_ID ) );
-			Long id = raw_to_aggregate_ids.get( raw_id );
-			if( id != null )
+	/**
+	 * Populate the cache with all contacts, or some of them.
+	 *
+	 * @param cache the cache
+	 * @param ids a comma-separated list of the ids of the contacts to add,
+	 *        or null to add all contacts
+	 */
+	private void populateCache( ContactsCache cache, String ids )
+	{
+		// select the data rows of the names, organisations, phone numbers and
+		// email addresses of the contacts (which are used for lookups), and
+		// of the other kinds of data that aren't loaded lazily, in a single
+		// scan, primary ones first
+		StringBuilder mimetypes = new StringBuilder();
+		mimetypes.append( '\'' ).append(
+			CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE ).append( '\'' );
+		ArrayList< String > columns = new ArrayList< String >();
+		columns.add( ContactsContract.Data.CONTACT_ID );
+		columns.add( ContactsContract.Data.MIMETYPE );
+		columns.add( CommonDataKinds.Event.TYPE );
+		columns.add( CommonDataKinds.StructuredName.DISPLAY_NAME );
+		for( int kind = 0; kind < MergePolicy.NUM_KINDS; kind++ ) {
+			if( cache.isLoadedLazily( kind ) &&
+				kind != MergePolicy.KIND_ORGANISATIONS )
 			{
-				String name = cur.getString( cur.getColumnIndex(
-					CommonDataKinds.StructuredName.DISPLAY_NAME ) );
-
-				// if this is a name for a contact for whom we have not added a
-				// lookup, add a lookup for the contact id by name
-				if( unadded_ids.contains( id ) ) {
-					CacheIdentifier cache_identifier = CacheIdentifier.factory(
-						CacheIdentifier.Type.NAME, name );
-					if( cache_identifier != null ) {
-						cache.addLookup( cache_identifier, id );
-						unadded_ids.remove( id );
-					}
-				}
+				continue;
 			}
+			mimetypes.append( ",'" ).append( KIND_MIMETYPES[ kind ] )
+				.append( '\'' );
+			if( !columns.contains( KIND_VALUE_COLUMNS[ kind ] ) )
+				columns.add( KIND_VALUE_COLUMNS[ kind ] );
 		}
-		cur.close();
 
-		// get contact organisations, primary ones first
-		cur = _activity.getContentResolver().query(
-			ContactsContract.Data.CONTENT_URI,
-			new String[] {
-				ContactsContract.Data.RAW_CONTACT_ID,
-				CommonDataKinds.Organization.COMPANY,
-			},
-			ContactsContract.Data.MIMETYPE + " = '" +
-				CommonDataKinds.Organization.CONTENT_ITEM_TYPE + "'",
-			null, ContactsContract.Data.IS_PRIMARY + " DESC" );
+		CursorReader cur = new CursorReader(
+			_activity.getContentResolver().query(
+				ContactsContract.Data.CONTENT_URI,
+				columns.toArray( new String[ columns.size() ] ),
+				restrictToContacts( ContactsContract.Data.MIMETYPE + " IN (" +
+					mimetypes + ")", ContactsContract.Data.CONTACT_ID, ids ),
+				null, ContactsContract.Data.IS_PRIMARY + " DESC" ) );
+		CursorReader.Column id_column =
+			cur.getColumn( ContactsContract.Data.CONTACT_ID );
+		CursorReader.Column mimetype_column =
+			cur.getColumn( ContactsContract.Data.MIMETYPE );
+		CursorReader.Column event_type_column =
+			cur.getColumn( CommonDataKinds.Event.TYPE );
+		CursorReader.Column name_column =
+			cur.getColumn( CommonDataKinds.StructuredName.DISPLAY_NAME );
+		CursorReader.Column[] value_columns = getValueColumns( cur );
+
+		// Each contact is looked up by its name or, failing that, its
+		// organisation, phone number or email address, in that order of
+		// preference (and primary ones first).  Since the rows are in no
+		// particular order of kind, the best cache identifier found so far
+		// for each contact is kept until the scan is complete.
+		HashMap< Long, CacheIdentifier > lookups =
+			new HashMap< Long, CacheIdentifier >();
 		while( cur.moveToNext() ) {
-			Long raw_id = cur.getLong( cur.getColumnIndex(
-				ContactsContract.Data.RAW_CONTACT_ID ) );
-			Long id = raw_to_aggregate_ids.get( raw_id );
-			if( id != null )
+			Long id = id_column.getLong();
+			String mimetype = mimetype_column.getString();
+			if( CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE.equals(
+				mimetype ) )
 			{
-				String organisation = cur.getString( cur.getColumnIndex(
-					CommonDataKinds.Organization.COMPANY ) );
-
-				// if this is an organisation name for a contact for whom we
-				// have not added a lookup, add a lookup for the contact id
-				// by organisation
-				if( unadded_ids.contains( id ) ) {
-					CacheIdentifier cache_identifier = CacheIdentifier.factory(
-						CacheIdentifier.Type.ORGANISATION, organisation );
-					if( cache_identifier != null ) {
-						cache.addLookup( cache_identifier, id );
-						unadded_ids.remove( id );
-					}
-				}
-
-				// add associated data
-				cache.addAssociatedOrganisation( id, organisation );
+				addLookupCandidate( lookups, id, CacheIdentifier.factory(
+					CacheIdentifier.Type.NAME, name_column.getString() ) );
+				continue;
 			}
-		}
-		cur.close();
-
-		// get all phone numbers, primary ones first
-		cur = _activity.getContentResolver().query(
-			ContactsContract.Data.CONTENT_URI,
-			new String[] {
-				ContactsContract.Data.RAW_CONTACT_ID,
-				CommonDataKinds.Phone.NUMBER,
-			},
-			ContactsContract.Data.MIMETYPE + " = '" +
-				CommonDataKinds.Phone.CONTENT_ITEM_TYPE + "'",
-			null, ContactsContract.Data.IS_PRIMARY + " DESC" );
-		while( cur.moveToNext() ) {
-			Long raw_id = cur.getLong( cur.getColumnIndex(
-				ContactsContract.Data.RAW_CONTACT_ID ) );
-			Long id = raw_to_aggregate_ids.get( raw_id );
-			if( id != null )
-			{
-				String number = cur.getString( cur.getColumnIndex(
-					CommonDataKinds.Phone.NUMBER ) );
-
-				// if this is a number for a contact for whom we have not
-				// added a lookup, add a lookup for the contact id by phone
-				// number
-				if( unadded_ids.contains( id ) ) {
-					CacheIdentifier cache_identifier = CacheIdentifier.factory(
-						CacheIdentifier.Type.PRIMARY_NUMBER, number );
-					if( cache_identifier != null ) {
-						cache.addLookup( cache_identifier, id );
-						unadded_ids.remove( id );
-					}
-				}
 
-				// add associated data
-				cache.addAssociatedNumber( id, number );
-			}
-		}
-		cur.close();
+			for( int kind = 0; kind < MergePolicy.NUM_KINDS; kind++ ) {
+				if( !KIND_MIMETYPES[ kind ].equals( mimetype ) ) continue;
 
-		// get all email addresses, primary ones first
-		cur = _activity.getContentResolver().query(
-			ContactsContract.Data.CONTENT_URI,
-			new String[] {
-				ContactsContract.Data.RAW_CONTACT_ID,
-				CommonDataKinds.Email.DATA,
-			},
-			ContactsContract.Data.MIMETYPE + " = '" +
-				CommonDataKinds.Email.CONTENT_ITEM_TYPE + "'",
-			null, ContactsContract.Data.IS_PRIMARY + " DESC" );
-		while( cur.moveToNext() ) {
-			Long raw_id = cur.getLong( cur.getColumnIndex(
-				ContactsContract.Data.RAW_CONTACT_ID ) );
-			Long id = raw_to_aggregate_ids.get( raw_id );
-			if( id != null )
-			{
-				String email = cur.getString( cur.getColumnIndex(
-					CommonDataKinds.Email.DATA ) );
-
-				// if this is an email address for a contact for whom we have
-				// not added a lookup, add a lookup for the contact id by email
-				// address
-				if( unadded_ids.contains( id ) ) {
-					CacheIdentifier cache_identifier = CacheIdentifier.factory(
-						CacheIdentifier.Type.PRIMARY_EMAIL, email );
-					if( cache_identifier != null ) {
-						cache.addLookup( cache_identifier, id );
-						unadded_ids.remove( id );
-					}
+				// events other than birthdays are ignored
+				if( kind == MergePolicy.KIND_BIRTHDAY &&
+					event_type_column.getInt() !=
+						CommonDataKinds.Event.TYPE_BIRTHDAY )
+				{
+					break;
 				}
 
-				// add associated data
-				cache.addAssociatedEmail( id, email );
-			}
-		}
-		cur.close();
-
-		// get all postal addresses, primary ones first
-		cur = _activity.getContentResolver().query(
-			ContactsContract.Data.CONTENT_URI,
-			new String[] {
-				ContactsContract.Data.RAW_CONTACT_ID,
-				CommonDataKinds.StructuredPostal.FORMATTED_ADDRESS,
-			},
-			ContactsContract.Data.MIMETYPE + " = '" +
-				CommonDataKinds.StructuredPostal.CONTENT_ITEM_TYPE + "'",
-			null, ContactsContract.Data.IS_PRIMARY + " DESC" );
-		while( cur.moveToNext() ) {
-			Long raw_id = cur.getLong( cur.getColumnIndex(
-				ContactsContract.Data.RAW_CONTACT_ID ) );
-			Long id = raw_to_aggregate_ids.get( raw_id );
-			if( id != null )
-			{
-				String address = cur.getString( cur.getColumnIndex(
-					CommonDataKinds.StructuredPostal.FORMATTED_ADDRESS ) );
+				String value = value_columns[ kind ].getString();
+				if( kind == MergePolicy.KIND_ORGANISATIONS )
+					addLookupCandidate( lookups, id, CacheIdentifier.factory(
+						CacheIdentifier.Type.ORGANISATION, value ) );
+				else if( kind == MergePolicy.KIND_NUMBERS )
+					addLookupCandidate( lookups, id, CacheIdentifier.factory(
+						CacheIdentifier.Type.PRIMARY_NUMBER, value ) );
+				else if( kind == MergePolicy.KIND_EMAILS )
+					addLookupCandidate( lookups, id, CacheIdentifier.factory(
+						CacheIdentifier.Type.PRIMARY_EMAIL, value ) );
 
 				// add associated data
-				cache.addAssociatedAddress( id, address );
+				cache.addAssociatedData( kind, id, value );
+				break;
 			}
 		}
 		cur.close();
 
-		// get all notes
-		cur = _activity.getContentResolver().query(
-			ContactsContract.Data.CONTENT_URI,
-			new String[] {
-				ContactsContract.Data.RAW_CONTACT_ID,
-				CommonDataKinds.Note.NOTE,
-			},
-			ContactsContract.Data.MIMETYPE + " = '" +
-				CommonDataKinds.Note.CONTENT_ITEM_TYPE + "'",
-			null, null );
-		while( cur.moveToNext() ) {
-			Long raw_id = cur.getLong( cur.getColumnIndex(
-				ContactsContract.Data.RAW_CONTACT_ID ) );
-			Long id = raw_to_aggregate_ids.get( raw_id );
-			if( id != null )
-			{
-				String note = cur.getString( cur.getColumnIndex(
-					CommonDataKinds.Note.NOTE ) );
-
-				// add associated data
-				cache.addAssociatedNote( id, note );
-			}
+		// add a lookup for each contact
+		Iterator< Map.Entry< Long, CacheIdentifier > > i =
+			lookups.entrySet().iterator();
+		while( i.hasNext() ) {
+			Map.Entry< Long, CacheIdentifier > lookup = i.next();
+			cache.addLookup( lookup.getValue(), lookup.getKey() );
 		}
-		cur.close();
+	}
 
-		// get all birthdays
-		cur = _activity.getContentResolver().query(
-			ContactsContract.Data.CONTENT_URI,
-			new String[] {
-				ContactsContract.Data.RAW_CONTACT_ID,
-				CommonDataKinds.Event.START_DATE,
-			},
-			ContactsContract.Data.MIMETYPE + " = '" +
-				CommonDataKinds.Event.CONTENT_ITEM_TYPE + "' AND " +
-				CommonDataKinds.Event.TYPE + " = '" +
-				CommonDataKinds.Event.TYPE_BIRTHDAY + "'",
-			null, null );
-		while( cur.moveToNext() ) {
-			Long raw_id = cur.getLong( cur.getColumnIndex(
-				ContactsContract.Data.RAW_CONTACT_ID ) );
-			Long id = raw_to_aggregate_ids.get( raw_id );
-			if( id != null )
-			{
-				String birthday = cur.getString( cur.getColumnIndex(
-					CommonDataKinds.Event.START_DATE ) );
+	/**
+	 * Keep a cache identifier as the one by which a contact is to be looked
+	 * up, unless the contact already has one that is preferred.  The types of
+	 * cache identifier are declared in order of preference.
+	 *
+	 * @param lookups the cache identifiers kept for each contact
+	 * @param id the contact id
+	 * @param cache_identifier the cache identifier, or null
+	 */
+	private static void addLookupCandidate(
+		HashMap< Long, CacheIdentifier > lookups, Long id,
+		CacheIdentifier cache_identifier )
+	{
+		if( cache_identifier == null ) return;
 
-				// add associated data
-				cache.addAssociatedBirthday( id, birthday );
-			}
+		CacheIdentifier kept = lookups.get( id );
+		if( kept == null || cache_identifier.getType().ordinal() <
+			kept.getType().ordinal() )
+		{
+			lookups.put( id, cache_identifier );
 		}
-		cur.close();
 	}
 
-	@Override
-	public void deleteContact( Long id )
+	/**
+	 * Get the columns of a cursor that hold the value of each kind of detail
+	 * (for those that it has).
+	 *
+	 * @param cur the cursor
+	 * @return the columns, indexed by MergePolicy.KIND_* values
+	 */
+	private static CursorReader.Column[] getValueColumns( CursorReader cur )
+	{
+		CursorReader.Column[] columns =
+			new CursorReader.Column[ MergePolicy.NUM_KINDS ];
+		for( int kind = 0; kind < MergePolicy.NUM_KINDS; kind++ )
+			columns[ kind ] = cur.getColumn( KIND_VALUE_COLUMNS[ kind ] );
+		return columns;
+	}
+
+	/**
+	 * Add a restriction to a query's selection, so that only the rows of
+	 * some contacts are selected.
+	 *
+	 * @param selection the selection, or null
+	 * @param column the column that holds the contact id
+	 * @param ids a comma-separated list of contact ids, or null for all
+	 * @return the new selection
+	 */
+	private static String restrictToContacts( String selection,
+		String column, String ids )
 	{
-		Uri contact_uri = ContentUris.withAppendedId(
-			ContactsContract.Contacts.CONTENT_URI, id );
-		_activity.getContentResolver().delete( contact_uri, null, null );
+		if( ids == null ) return selection;
+
+		String restriction = column + " IN (" + ids + ")";
+		return selection == null? restriction :
+			"(" + selection + ") AND " + restriction;
 	}
 
 	@Override
-	public Long addContact( String name ) throws ContactCreationException
+	@TargetApi(18)
+	public boolean refreshCache( ContactsCache cache, String marker )
 	{
-		// create raw contact
-		ContentValues values = new ContentValues();
-		Uri contact_uri = _activity.getContentResolver().insert(
-			ContactsContract.RawContacts.CONTENT_URI, values);
-		Long raw_id = ContentUris.parseId( contact_uri );
-		if( raw_id == 0 ) throw new ContactCreationException();
-
-		// add name data for this raw contact
-		if( name != null ) {
-			values.put( ContactsContract.Data.RAW_CONTACT_ID, raw_id );
-			values.put( ContactsContract.Data.MIMETYPE,
-				CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE );
-			values.put( CommonDataKinds.StructuredName.DISPLAY_NAME, name );
-			_activity.getContentResolver().insert(
-				ContactsContract.Data.CONTENT_URI, values );
+		// deleted contacts are only available from API 18
+		if( android.os.Build.VERSION.SDK_INT < 18 )
+			return false;
+
+		// the cache was populated when the latest change to a contact was
+		// the marker's timestamp (see getCacheMarker())
+		long since;
+		try {
+			since = Long.parseLong( marker.split( ":" )[ 1 ] );
+		}
+		catch( RuntimeException e ) {
+			return false;
+		}
+
+		// the provider only remembers deleted contacts for a while
+		if( System.currentTimeMillis() - since > DELETED_CONTACTS_KEPT )
+			return false;
+
+		// find the contacts that have changed since then (if there are too
+		// many, it is quicker to populate the cache from scratch)
+		HashSet< Long > changed_ids = new HashSet< Long >();
+		StringBuilder ids = new StringBuilder();
+		CursorReader cur = new CursorReader(
+			_activity.getContentResolver().query(
+				ContactsContract.Contacts.CONTENT_URI,
+				new String[] {
+					ContactsContract.Contacts._ID,
+				},
+				ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP +
+					" > ?",
+				new String[] { "" + since }, null ) );
+		if( cur.getCount() > MAX_REFRESHED_CONTACTS ) {
+			cur.close();
+			return false;
 		}
+		CursorReader.Column id_column =
+			cur.getColumn( ContactsContract.Contacts._ID );
+		while( cur.moveToNext() ) {
+			Long id = id_column.getLong();
+			changed_ids.add( id );
+			if( ids.length() > 0 ) ids.append( ',' );
+			ids.append( id );
+		}
+		cur.close();
 
-		// find corresponding aggregate contact
-		contact_uri = Uri.withAppendedPath(
-			ContentUris.withAppendedId(
-				ContactsContract.RawContacts.CONTENT_URI, raw_id ),
-			ContactsContract.RawContacts.Entity.CONTENT_DIRECTORY );
-		Cursor cur = _activity.getContentResolver().query( contact_uri,
+		// remove contacts that have been deleted since then
+		cur = new CursorReader( _activity.getContentResolver().query(
+			ContactsContract.DeletedContacts.CONTENT_URI,
 			new String[] {
-				ContactsContract.RawContacts.CONTACT_ID,
-			}, null, null, null );
-		Long id = null;
-		if( cur.moveToNext() )
-			id = cur.getLong(
-				cur.getColumnIndex( ContactsContract.RawContacts.CONTACT_ID ) );
+				ContactsContract.DeletedContacts.CONTACT_ID,
+			},
+			ContactsContract.DeletedContacts.CONTACT_DELETED_TIMESTAMP +
+				" > ?",
+			new String[] { "" + since }, null ) );
+		id_column =
+			cur.getColumn( ContactsContract.DeletedContacts.CONTACT_ID );
+		while( cur.moveToNext() )
+			cache.removeContact( id_column.getLong() );
 		cur.close();
-		if( id == null || id == 0 )
-		{
-			// we didn't find an aggregate contact id, so try to clean up (by
-			// deleting the raw contact we just created) before bailing
-			contact_uri = ContentUris.withAppendedId(
-				ContactsContract.RawContacts.CONTENT_URI, id );
-			_activity.getContentResolver().delete( contact_uri, null, null );
 
-			throw new ContactCreationException();
+		// and replace the changed contacts
+		if( !changed_ids.isEmpty() ) {
+			cache.forgetContacts( changed_ids );
+			populateCache( cache, ids.toString() );
 		}
 
-		return id;
+		return true;
 	}
 
 	/**
-	 * Obtain the raw contact id for the phone-only raw contact that is
-	 * associated with the aggregate contact id.  One will be created if
-	 * necessary.
+	 * Find the raw contact id for the phone-only raw contact that is
+	 * associated with the aggregate contact id, without creating one.
 	 *
 	 * @param id the aggregate contact id
-	 * @return the raw contact id
-	 * @throws ContactCreationException
+	 * @return the raw contact id, or null if there isn't one
 	 */
-	Long obtainRawContact( Long id ) throws ContactCreationException
+	private Long findRawContact( Long id )
 	{
 		// attempt to lookup cached value
 		Long raw_id = _aggregate_to_raw_ids.get( id );
@@ -402,17 +361,9 @@ public class ContactsContractBackend implements Backend
 				cur.getColumnIndex( ContactsContract.RawContacts._ID ) );
 		cur.close();
 
-		// if one wasn't found, we'll need to create one
-		if( raw_id == null ) {
-			ContentValues values = new ContentValues();
-			Uri contact_uri = _activity.getContentResolver().insert(
-				ContactsContract.RawContacts.CONTENT_URI, values);
-			raw_id = ContentUris.parseId( contact_uri );
-			if( raw_id == 0 ) throw new ContactCreationException();
-		}
-
 		// save value in our cache
-		_aggregate_to_raw_ids.put( id, raw_id );
+		if( raw_id != null )
+			_aggregate_to_raw_ids.put( id, raw_id );
 		return raw_id;
 	}
 
@@ -463,114 +414,510 @@ public class ContactsContractBackend implements Backend
 	}
 
 	@Override
-	public void addContactPhone( Long id, String number,
-		ContactData.PreferredDetail data ) throws ContactCreationException
+	public void commitBatch( ContactBatch batch )
+		throws ContactCreationException
 	{
-		ContentValues values = new ContentValues();
-		values.put( ContactsContract.Data.RAW_CONTACT_ID,
-			obtainRawContact( id ) );
-		values.put( ContactsContract.Data.MIMETYPE,
-			CommonDataKinds.Phone.CONTENT_ITEM_TYPE );
-		values.put( CommonDataKinds.Phone.TYPE,
-			convertTypeToBackendType( CommonDataKinds.Phone.class,
-				data.getType() ) );
-		values.put( CommonDataKinds.Phone.NUMBER, number );
-		if( data.isPreferred() )
-			values.put( CommonDataKinds.Phone.IS_PRIMARY, 1 );
-
-		_activity.getContentResolver().insert(
-			ContactsContract.Data.CONTENT_URI, values );
+		ArrayList< ContentProviderOperation > ops =
+			new ArrayList< ContentProviderOperation >();
+
+		// the index of the operation that creates each entry's raw contact
+		// (or -1, if it has an existing one)
+		int[] raw_contact_ops = new int[ batch.size() ];
+
+		// Entries' operations are applied in as few transactions as possible,
+		// but without letting a transaction grow too big.  An entry's
+		// operations are never split between transactions.
+		int first = 0;
+		for( int a = 0; a < batch.size(); a++ )
+		{
+			int mark = ops.size();
+			addEntryOps( ops, batch.get( a ), raw_contact_ops, a );
+			if( ops.size() > MAX_TRANSACTION_OPS && a > first ) {
+				while( ops.size() > mark )
+					ops.remove( ops.size() - 1 );
+				applyEntryOps( batch, first, a, ops, raw_contact_ops );
+				ops.clear();
+				first = a;
+				addEntryOps( ops, batch.get( a ), raw_contact_ops, a );
+			}
+		}
+		applyEntryOps( batch, first, batch.size(), ops, raw_contact_ops );
 	}
 
-	@Override
-	public void addContactEmail( Long id, String email,
-		ContactData.PreferredDetail data ) throws ContactCreationException
+	/**
+	 * Add the operations that write a batch entry.
+	 *
+	 * @param ops the operations to add to
+	 * @param entry the batch entry
+	 * @param raw_contact_ops the index of the operation that creates each
+	 *        entry's raw contact, to set for this entry
+	 * @param a the entry's index in the batch
+	 * @throws ContactCreationException
+	 */
+	private void addEntryOps( ArrayList< ContentProviderOperation > ops,
+		ContactBatch.Entry entry, int[] raw_contact_ops, int a )
+		throws ContactCreationException
 	{
-		ContentValues values = new ContentValues();
-		values.put( ContactsContract.Data.RAW_CONTACT_ID,
-			obtainRawContact( id ) );
-		values.put( ContactsContract.Data.MIMETYPE,
-			CommonDataKinds.Email.CONTENT_ITEM_TYPE );
-		values.put( CommonDataKinds.Email.TYPE,
-			convertTypeToBackendType( CommonDataKinds.Email.class,
-				data.getType() ) );
-		values.put( CommonDataKinds.Email.DATA, email );
-		if( data.isPreferred() )
-			values.put( CommonDataKinds.Email.IS_PRIMARY, 1 );
-
-		_activity.getContentResolver().insert(
-			ContactsContract.Data.CONTENT_URI, values );
+		if( entry.getDeleteId() != null )
+			ops.add( ContentProviderOperation.newDelete(
+				ContentUris.withAppendedId(
+					ContactsContract.Contacts.CONTENT_URI,
+					entry.getDeleteId() ) ).build() );
+
+		// find the existing contact's raw contact, or create one (in the
+		// transaction, so that nothing is written if the transaction fails)
+		Long raw_id = entry.isNewContact()?
+			null : findRawContact( entry.getId() );
+		raw_contact_ops[ a ] = -1;
+		if( raw_id == null ) {
+			raw_contact_ops[ a ] = ops.size();
+			ops.add( ContentProviderOperation.newInsert(
+				ContactsContract.RawContacts.CONTENT_URI )
+				.withValue(
+					ContactsContract.RawContacts.ACCOUNT_NAME, null )
+				.withValue(
+					ContactsContract.RawContacts.ACCOUNT_TYPE, null )
+				.build() );
+		}
+		if( entry.isNewContact() && entry.getName() != null )
+			ops.add( newDataInsert( raw_id, raw_contact_ops[ a ],
+				CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE )
+				.withValue( CommonDataKinds.StructuredName.DISPLAY_NAME,
+					entry.getName() ).build() );
+
+		for( int kind = 0; kind < MergePolicy.NUM_KINDS; kind++ )
+			addDetailOps( ops, entry, kind, raw_id, raw_contact_ops[ a ] );
+
+		if( entry.getPhoto() != null )
+			ops.add( newDataInsert( raw_id, raw_contact_ops[ a ],
+				CommonDataKinds.Photo.CONTENT_ITEM_TYPE )
+				.withValue( CommonDataKinds.Photo.PHOTO,
+					entry.getPhoto() ).build() );
+	}
+
+	/**
+	 * Apply the operations of some of a batch's entries in one transaction
+	 * and mark the entries as committed.
+	 *
+	 * @param batch the batch
+	 * @param first the index of the first entry
+	 * @param end the index after the last entry
+	 * @param ops the entries' operations
+	 * @param raw_contact_ops the index of the operation that creates each
+	 *        entry's raw contact (or -1)
+	 * @throws ContactCreationException
+	 */
+	private void applyEntryOps( ContactBatch batch, int first, int end,
+		ArrayList< ContentProviderOperation > ops, int[] raw_contact_ops )
+		throws ContactCreationException
+	{
+		if( ops.isEmpty() ) return;
+
+		// apply the operations in one transaction (there are no yield
+		// points, so these entries are written completely or not at all)
+		ContentProviderResult[] results;
+		try {
+			results = _activity.getContentResolver().applyBatch(
+				ContactsContract.AUTHORITY, ops );
+		}
+		catch( RemoteException e ) {
+			throw new ContactCreationException();
+		}
+		catch( OperationApplicationException e ) {
+			throw new ContactCreationException();
+		}
+
+		// forget the raw contacts of deleted contacts, remember those that we
+		// created for existing contacts, and collect the ids of the raw
+		// contacts of new contacts
+		HashMap< Long, ContactBatch.Entry > raw_id_entries =
+			new HashMap< Long, ContactBatch.Entry >();
+		StringBuilder raw_ids = new StringBuilder();
+		for( int a = first; a < end; a++ )
+		{
+			ContactBatch.Entry entry = batch.get( a );
+			if( entry.getDeleteId() != null )
+				_aggregate_to_raw_ids.remove( entry.getDeleteId() );
+			Long raw_id = raw_contact_ops[ a ] == -1? null :
+				ContentUris.parseId( results[ raw_contact_ops[ a ] ].uri );
+			if( !entry.isNewContact() ) {
+				if( raw_id != null )
+					_aggregate_to_raw_ids.put( entry.getId(), raw_id );
+				entry.setCommitted();
+				continue;
+			}
+
+			raw_id_entries.put( raw_id, entry );
+			if( raw_ids.length() > 0 ) raw_ids.append( ',' );
+			raw_ids.append( raw_id );
+		}
+		if( raw_id_entries.isEmpty() ) return;
+
+		// find the corresponding aggregate contacts
+		CursorReader cur = new CursorReader(
+			_activity.getContentResolver().query(
+				ContactsContract.RawContacts.CONTENT_URI,
+				new String[] {
+					ContactsContract.RawContacts._ID,
+					ContactsContract.RawContacts.CONTACT_ID,
+				},
+				ContactsContract.RawContacts._ID + " IN ( " + raw_ids + " )",
+				null, null ) );
+		CursorReader.Column raw_id_column =
+			cur.getColumn( ContactsContract.RawContacts._ID );
+		CursorReader.Column id_column =
+			cur.getColumn( ContactsContract.RawContacts.CONTACT_ID );
+		while( cur.moveToNext() ) {
+			Long raw_id = raw_id_column.getLong();
+			Long id = id_column.getLong();
+			ContactBatch.Entry entry = raw_id_entries.get( raw_id );
+			if( entry == null || id == 0 ) continue;
+
+			entry.setNewId( id );
+			entry.setCommitted();
+			_aggregate_to_raw_ids.put( id, raw_id );
+			raw_id_entries.remove( raw_id );
+		}
+		cur.close();
+
+		// if we didn't find the aggregate contacts of any new raw contacts,
+		// try to clean up (by deleting the raw contacts) before bailing
+		if( !raw_id_entries.isEmpty() ) {
+			Iterator< Long > i = raw_id_entries.keySet().iterator();
+			while( i.hasNext() )
+				_activity.getContentResolver().delete(
+					ContentUris.withAppendedId(
+						ContactsContract.RawContacts.CONTENT_URI, i.next() ),
+					null, null );
+			throw new ContactCreationException();
+		}
+	}
+
+	/**
+	 * Add the operations that add an entry's details of one kind.  If the
+	 * existing contact's details of this kind are being replaced, the rows of
+	 * those that are not wanted any more are updated with new details, rather
+	 * than being deleted (and any left over rows are then deleted).
+	 *
+	 * @param ops the operations to add to
+	 * @param entry the batch entry
+	 * @param kind the kind of details (a MergePolicy.KIND_* value)
+	 * @param raw_id the existing raw contact's id, or null
+	 * @param raw_contact_op the index of the operation that creates the raw
+	 *        contact (used if there is no existing raw contact id)
+	 * @throws ContactCreationException
+	 */
+	private void addDetailOps( ArrayList< ContentProviderOperation > ops,
+		ContactBatch.Entry entry, int kind, Long raw_id, int raw_contact_op )
+		throws ContactCreationException
+	{
+		ArrayList< Long > unwanted_row_ids = entry.isReplaced( kind )?
+			findUnwantedRows( entry, kind ) : null;
+		int unwanted = 0;
+
+		ContactDetails datas = entry.getDetails( kind );
+		for( int b = 0; b < datas.size(); b++ )
+		{
+			// details that the contact already has don't need adding
+			if( datas.isExisting( b ) ) continue;
+
+			ContentProviderOperation.Builder builder;
+			if( unwanted_row_ids != null &&
+				unwanted < unwanted_row_ids.size() )
+			{
+				builder = ContentProviderOperation.newUpdate(
+					ContentUris.withAppendedId(
+						ContactsContract.Data.CONTENT_URI,
+						unwanted_row_ids.get( unwanted++ ) ) );
+			}
+			else
+				builder = newDataInsert( raw_id, raw_contact_op,
+					KIND_MIMETYPES[ kind ] );
+			ops.add( withDetail( builder, kind, datas, b ).build() );
+		}
+
+		// delete any unwanted rows that weren't reused
+		while( unwanted_row_ids != null &&
+			unwanted < unwanted_row_ids.size() )
+		{
+			ops.add( ContentProviderOperation.newDelete(
+				ContentUris.withAppendedId( ContactsContract.Data.CONTENT_URI,
+					unwanted_row_ids.get( unwanted++ ) ) ).build() );
+		}
 	}
 
 	@Override
-	public void addContactAddresses( Long id, String address,
-		ContactData.TypeDetail data ) throws ContactCreationException
+	@TargetApi(18)
+	public String getCacheMarker()
 	{
-		ContentValues values = new ContentValues();
-		values.put( ContactsContract.Data.RAW_CONTACT_ID,
-			obtainRawContact( id ) );
-		values.put( ContactsContract.Data.MIMETYPE,
-			CommonDataKinds.StructuredPostal.CONTENT_ITEM_TYPE );
-		values.put( CommonDataKinds.StructuredPostal.TYPE,
-			convertTypeToBackendType( CommonDataKinds.StructuredPostal.class,
-				data.getType() ) );
-		values.put(
-			CommonDataKinds.StructuredPostal.FORMATTED_ADDRESS, address );
-
-		_activity.getContentResolver().insert(
-			ContactsContract.Data.CONTENT_URI, values );
+		// contacts' last-updated timestamps are only available from API 18
+		if( android.os.Build.VERSION.SDK_INT < 18 )
+			return null;
+
+		// The most recent deletion of a contact and the most recent change to
+		// a contact change when a contact is deleted, or added or changed.
+		// The newest data row is included for good measure.  Each is a single
+		// row query, so this is cheap however many contacts there are.
+		long last_deleted = queryLatest(
+			ContactsContract.DeletedContacts.CONTENT_URI,
+			ContactsContract.DeletedContacts.CONTACT_DELETED_TIMESTAMP );
+		long last_updated = queryLatest(
+			ContactsContract.Contacts.CONTENT_URI,
+			ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP );
+		long last_data = queryLatest(
+			ContactsContract.Data.CONTENT_URI, ContactsContract.Data._ID );
+
+		return last_deleted + ":" + last_updated + ":" + last_data;
+	}
+
+	/**
+	 * Find the largest value of a column.
+	 *
+	 * @param uri the content uri to query
+	 * @param column the column
+	 * @return the value, or 0 if there are no rows
+	 */
+	@TargetApi(11)
+	private long queryLatest( Uri uri, String column )
+	{
+		Cursor cur = _activity.getContentResolver().query(
+			uri.buildUpon().appendQueryParameter(
+				ContactsContract.LIMIT_PARAM_KEY, "1" ).build(),
+			new String[] {
+				column,
+			}, null, null, column + " DESC" );
+		if( cur == null ) return 0;
+		long latest = cur.moveToFirst()? cur.getLong( 0 ) : 0;
+		cur.close();
+		return latest;
 	}
 
 	@Override
-	public void addContactOrganisation( Long id, String organisation,
-		ContactData.ExtraDetail data ) throws ContactCreationException
+	public void loadAssociatedData( ContactsCache cache, long[] ids )
 	{
-		ContentValues values = new ContentValues();
-		values.put( ContactsContract.Data.RAW_CONTACT_ID,
-			obtainRawContact( id ) );
-		values.put( ContactsContract.Data.MIMETYPE,
-			CommonDataKinds.Organization.CONTENT_ITEM_TYPE );
-		values.put( CommonDataKinds.Organization.TYPE,
-			CommonDataKinds.Organization.TYPE_WORK );
-		values.put(
-			CommonDataKinds.Organization.COMPANY, organisation );
-		if( data.getExtra() != null )
-			values.put( CommonDataKinds.Organization.TITLE, data.getExtra() );
-
-		_activity.getContentResolver().insert(
-			ContactsContract.Data.CONTENT_URI, values );
+		// select the data rows of the contacts, of all the lazy kinds at once
+		StringBuilder id_list = new StringBuilder();
+		for( int a = 0; a < ids.length; a++ ) {
+			if( a > 0 ) id_list.append( ',' );
+			id_list.append( ids[ a ] );
+		}
+		StringBuilder mimetypes = new StringBuilder();
+		ArrayList< String > columns = new ArrayList< String >();
+		columns.add( ContactsContract.Data.CONTACT_ID );
+		columns.add( ContactsContract.Data.MIMETYPE );
+		columns.add( CommonDataKinds.Event.TYPE );
+		for( int kind = 0; kind < MergePolicy.NUM_KINDS; kind++ ) {
+			if( !cache.isLoadedLazily( kind ) ) continue;
+			if( mimetypes.length() > 0 ) mimetypes.append( ',' );
+			mimetypes.append( '\'' ).append( KIND_MIMETYPES[ kind ] )
+				.append( '\'' );
+			if( !columns.contains( KIND_VALUE_COLUMNS[ kind ] ) )
+				columns.add( KIND_VALUE_COLUMNS[ kind ] );
+		}
+		if( mimetypes.length() == 0 ) return;
+
+		CursorReader cur = new CursorReader(
+			_activity.getContentResolver().query(
+				ContactsContract.Data.CONTENT_URI,
+				columns.toArray( new String[ columns.size() ] ),
+				ContactsContract.Data.CONTACT_ID + " IN (" + id_list +
+					") AND " + ContactsContract.Data.MIMETYPE + " IN (" +
+					mimetypes + ")",
+				null, null ) );
+		CursorReader.Column id_column =
+			cur.getColumn( ContactsContract.Data.CONTACT_ID );
+		CursorReader.Column mimetype_column =
+			cur.getColumn( ContactsContract.Data.MIMETYPE );
+		CursorReader.Column event_type_column =
+			cur.getColumn( CommonDataKinds.Event.TYPE );
+		CursorReader.Column[] value_columns = getValueColumns( cur );
+		while( cur.moveToNext() ) {
+			String mimetype = mimetype_column.getString();
+			for( int kind = 0; kind < MergePolicy.NUM_KINDS; kind++ ) {
+				if( !KIND_MIMETYPES[ kind ].equals( mimetype ) ) continue;
+
+				// events other than birthdays are ignored
+				if( kind == MergePolicy.KIND_BIRTHDAY &&
+					event_type_column.getInt() !=
+						CommonDataKinds.Event.TYPE_BIRTHDAY )
+				{
+					break;
+				}
+
+				cache.addAssociatedData( kind, id_column.getLong(),
+					value_columns[ kind ].getString() );
+				break;
+			}
+		}
+		cur.close();
 	}
 
 	@Override
-	public void addContactNote( Long id, String note )
-		throws ContactCreationException
+	public ArrayList< String > readContactDetails( Long id, int kind )
 	{
-		ContentValues values = new ContentValues();
-		values.put( ContactsContract.Data.RAW_CONTACT_ID,
-			obtainRawContact( id ) );
-		values.put( ContactsContract.Data.MIMETYPE,
-			CommonDataKinds.Note.CONTENT_ITEM_TYPE );
-		values.put(
-			CommonDataKinds.Note.NOTE, note );
-
-		_activity.getContentResolver().insert(
-			ContactsContract.Data.CONTENT_URI, values );
+		ArrayList< String > values = new ArrayList< String >();
+		CursorReader cur = new CursorReader( queryDetailRows( id, kind ) );
+		CursorReader.Column value_column =
+			cur.getColumn( KIND_VALUE_COLUMNS[ kind ] );
+		while( cur.moveToNext() )
+			values.add( value_column.getString() );
+		cur.close();
+
+		return values;
 	}
 
 	@Override
-	public void addContactBirthday( Long id, String birthday )
-		throws ContactCreationException
+	public boolean hasContactPhoto( Long id )
+	{
+		Cursor cur = _activity.getContentResolver().query(
+			ContactsContract.Data.CONTENT_URI,
+			new String[] {
+				ContactsContract.Data._ID,
+			},
+			ContactsContract.Data.CONTACT_ID + " = ? AND " +
+				ContactsContract.Data.MIMETYPE + " = ? AND " +
+				CommonDataKinds.Photo.PHOTO + " IS NOT NULL",
+			new String[] {
+				"" + id,
+				CommonDataKinds.Photo.CONTENT_ITEM_TYPE,
+			}, null );
+		if( cur == null ) return false;
+		boolean has_photo = cur.getCount() > 0;
+		cur.close();
+		return has_photo;
+	}
+
+	/**
+	 * Query the data rows of an existing contact's details of one kind.
+	 *
+	 * @param id the existing contact's id
+	 * @param kind the kind of details (a MergePolicy.KIND_* value)
+	 * @return a cursor, with the rows' ids and details
+	 */
+	private Cursor queryDetailRows( Long id, int kind )
+	{
+		String selection = ContactsContract.Data.CONTACT_ID + " = ? AND " +
+			ContactsContract.Data.MIMETYPE + " = ?";
+		if( kind == MergePolicy.KIND_BIRTHDAY )
+			selection += " AND " + CommonDataKinds.Event.TYPE + " = " +
+				CommonDataKinds.Event.TYPE_BIRTHDAY;
+
+		return _activity.getContentResolver().query(
+			ContactsContract.Data.CONTENT_URI,
+			new String[] {
+				ContactsContract.Data._ID,
+				KIND_VALUE_COLUMNS[ kind ],
+			}, selection,
+			new String[] {
+				"" + id,
+				KIND_MIMETYPES[ kind ],
+			}, null );
+	}
+
+	/**
+	 * Find the data rows of an existing contact's details of one kind, other
+	 * than those that a batch entry has (to add or to retain).
+	 *
+	 * @param entry the batch entry
+	 * @param kind the kind of details (a MergePolicy.KIND_* value)
+	 * @return the rows' ids
+	 */
+	private ArrayList< Long > findUnwantedRows( ContactBatch.Entry entry,
+		int kind )
+	{
+		ArrayList< Long > row_ids = new ArrayList< Long >();
+		CursorReader cur =
+			new CursorReader( queryDetailRows( entry.getId(), kind ) );
+		CursorReader.Column row_id_column =
+			cur.getColumn( ContactsContract.Data._ID );
+		CursorReader.Column value_column =
+			cur.getColumn( KIND_VALUE_COLUMNS[ kind ] );
+		while( cur.moveToNext() )
+			if( !entry.hasDetail( kind, value_column.getString() ) )
+				row_ids.add( row_id_column.getLong() );
+		cur.close();
+
+		return row_ids;
+	}
+
+	/**
+	 * Add the values of a detail to an operation that inserts (or updates) a
+	 * data row.
+	 *
+	 * @param builder the operation builder
+	 * @param kind the kind of detail (a MergePolicy.KIND_* value)
+	 * @param datas the details
+	 * @param index the index of the detail
+	 * @return the operation builder
+	 * @throws ContactCreationException
+	 */
+	private ContentProviderOperation.Builder withDetail(
+		ContentProviderOperation.Builder builder, int kind,
+		ContactDetails datas, int index ) throws ContactCreationException
+	{
+		builder.withValue( KIND_VALUE_COLUMNS[ kind ],
+			datas.getValue( index ) );
+
+		switch( kind )
+		{
+		case MergePolicy.KIND_NUMBERS:
+			builder.withValue( CommonDataKinds.Phone.TYPE,
+				convertTypeToBackendType( CommonDataKinds.Phone.class,
+					datas.getType( index ) ) );
+			if( datas.isPreferred( index ) )
+				builder.withValue( CommonDataKinds.Phone.IS_PRIMARY, 1 );
+			break;
+		case MergePolicy.KIND_EMAILS:
+			builder.withValue( CommonDataKinds.Email.TYPE,
+				convertTypeToBackendType( CommonDataKinds.Email.class,
+					datas.getType( index ) ) );
+			if( datas.isPreferred( index ) )
+				builder.withValue( CommonDataKinds.Email.IS_PRIMARY, 1 );
+			break;
+		case MergePolicy.KIND_ADDRESSES:
+			builder.withValue( CommonDataKinds.StructuredPostal.TYPE,
+				convertTypeToBackendType(
+					CommonDataKinds.StructuredPostal.class,
+					datas.getType( index ) ) );
+			break;
+		case MergePolicy.KIND_ORGANISATIONS:
+			builder.withValue( CommonDataKinds.Organization.TYPE,
+				CommonDataKinds.Organization.TYPE_WORK );
+			if( datas.getExtra( index ) != null )
+				builder.withValue( CommonDataKinds.Organization.TITLE,
+					datas.getExtra( index ) );
+			break;
+		case MergePolicy.KIND_BIRTHDAY:
+			builder.withValue( CommonDataKinds.Event.TYPE,
+				CommonDataKinds.Event.TYPE_BIRTHDAY );
+			break;
+		}
+
+		return builder;
+	}
+
+	/**
+	 * Start building an operation to insert a data row for a raw contact,
+	 * which is either an existing one or one that is created by an earlier
+	 * operation in the same batch.
+	 *
+	 * @param raw_id the existing raw contact's id, or null
+	 * @param raw_contact_op the index of the operation that creates the raw
+	 *        contact (used if there is no existing raw contact id)
+	 * @param mimetype the data row's mimetype
+	 * @return an operation builder
+	 */
+	private ContentProviderOperation.Builder newDataInsert( Long raw_id,
+		int raw_contact_op, String mimetype )
 	{
-		ContentValues values = new ContentValues();
-		values.put( ContactsContract.Data.RAW_CONTACT_ID,
-			obtainRawContact( id ) );
-		values.put( ContactsContract.Data.MIMETYPE,
-			CommonDataKinds.Event.CONTENT_ITEM_TYPE );
-		values.put(
-			CommonDataKinds.Event.TYPE, CommonDataKinds.Event.TYPE_BIRTHDAY );
-		values.put(
-			CommonDataKinds.Event.START_DATE, birthday );
-		_activity.getContentResolver().insert(
-			ContactsContract.Data.CONTENT_URI, values );
+		ContentProviderOperation.Builder builder =
+			ContentProviderOperation.newInsert(
+				ContactsContract.Data.CONTENT_URI );
+		if( raw_id != null )
+			builder.withValue( ContactsContract.Data.RAW_CONTACT_ID, raw_id );
+		else
+			builder.withValueBackReference(
+				ContactsContract.Data.RAW_CONTACT_ID, raw_contact_op );
+		return builder.withValue( ContactsContract.Data.MIMETYPE, mimetype );
 	}
 }
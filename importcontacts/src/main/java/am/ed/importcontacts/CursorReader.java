@@ -0,0 +1,101 @@
+/*
+ * CursorReader.java
+ *
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This file is part of the Import Contacts program (hereafter referred
+ * to as "this program").  For more information, see
+ * http://ed.am/dev/android/import-contacts
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package am.ed.importcontacts;
+
+import android.database.Cursor;
+
+/**
+ * Reads the rows of a cursor by column name, with each column's index looked
+ * up only once (when the column is first asked for), rather than for every
+ * row.  The columns are asked for before the rows are read, e.g.:
+ *
+ *   CursorReader reader = new CursorReader( cur );
+ *   CursorReader.Column id = reader.getColumn( Contacts.People._ID );
+ *   while( reader.moveToNext() )
+ *       ... id.getLong() ...
+ *   reader.close();
+ */
+public class CursorReader
+{
+	/**
+	 * A column of the cursor, from which the current row's value is read.
+	 */
+	public class Column
+	{
+		private int _index;
+
+		private Column( int index )
+		{
+			_index = index;
+		}
+
+		public String getString()
+		{
+			return _cursor.getString( _index );
+		}
+
+		public long getLong()
+		{
+			return _cursor.getLong( _index );
+		}
+
+		public int getInt()
+		{
+			return _cursor.getInt( _index );
+		}
+	}
+
+	private Cursor _cursor;
+
+	public CursorReader( Cursor cursor )
+	{
+		_cursor = cursor;
+	}
+
+	/**
+	 * Get a column, by name.
+	 *
+	 * @param name the column's name
+	 * @return the column
+	 */
+	public Column getColumn( String name )
+	{
+		return new Column( _cursor.getColumnIndex( name ) );
+	}
+
+	public boolean moveToNext()
+	{
+		return _cursor.moveToNext();
+	}
+
+	public int getCount()
+	{
+		return _cursor.getCount();
+	}
+
+	public void close()
+	{
+		_cursor.close();
+	}
+}
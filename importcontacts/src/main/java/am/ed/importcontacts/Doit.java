@@ -33,9 +33,14 @@ import android.os.Message;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.View.OnClickListener;
+import android.view.ViewGroup;
+import android.widget.AdapterView;
+import android.widget.AdapterView.OnItemClickListener;
+import android.widget.BaseAdapter;
 import android.widget.Button;
 import android.widget.CheckBox;
 import android.widget.CompoundButton;
+import android.widget.ListView;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -45,20 +50,26 @@ public class Doit extends WizardActivity
 	private final static int DIALOG_ERROR = 0;
 	private final static int DIALOG_CONTINUEORABORT = 1;
 	private final static int DIALOG_MERGEPROMPT = 2;
+	private final static int DIALOG_MERGEPLAN = 3;
+	private final static int DIALOG_DRYRUNSUMMARY = 4;
 
 	public final static int MESSAGE_ALLDONE = 0;
 	public final static int MESSAGE_ABORT = 1;
 	public final static int MESSAGE_ERROR = 3;
 	public final static int MESSAGE_CONTINUEORABORT = 4;
 	public final static int MESSAGE_SETPROGRESSMESSAGE = 5;
-	public final static int MESSAGE_SETMAXPROGRESS = 6;
-	public final static int MESSAGE_SETTMPPROGRESS = 7;
-	public final static int MESSAGE_SETPROGRESS = 8;
-	public final static int MESSAGE_MERGEPROMPT = 9;
-	public final static int MESSAGE_CONTACTOVERWRITTEN = 10;
-	public final static int MESSAGE_CONTACTCREATED = 11;
-	public final static int MESSAGE_CONTACTMERGED = 12;
-	public final static int MESSAGE_CONTACTSKIPPED = 13;
+	public final static int MESSAGE_MERGEPROMPT = 6;
+	public final static int MESSAGE_MERGEPLAN = 7;
+	public final static int MESSAGE_DRYRUNSUMMARY = 8;
+
+	public final static int COUNT_OVERWRITES = 0;
+	public final static int COUNT_CREATES = 1;
+	public final static int COUNT_MERGES = 2;
+	public final static int COUNT_SKIPS = 3;
+	private final static int NUM_COUNTS = 4;
+
+	// how often (in milliseconds) progress and statistics are displayed
+	private final static int PROGRESS_POLL_INTERVAL = 100;
 
 	public final static int ACTION_PROMPT = 0;
 	public final static int ACTION_KEEP = 1;
@@ -68,24 +79,32 @@ public class Doit extends WizardActivity
 	public final static int NEXT_BEGIN = 0;
 	public final static int NEXT_CLOSE = 1;
 
-	private boolean _started_progress;
-	private int _max_progress;
-	private int _tmp_progress;
-	private int _progress;
+	private int _shown_max_progress;
+	private int _shown_tmp_progress;
+	private int _shown_progress;
 	protected String _dialog_message;
 	private Dialog _merge_prompt_dialog;
 	private boolean _merge_prompt_always_selected;
+	private MergePlan _merge_plan;
+	private MergePlanAdapter _merge_plan_adapter;
 	private int _next_action;
 	private int _current_dialog_id;
+	private boolean _is_dry_run;
 
-	private int _count_overwrites;
-	private int _count_creates;
-	private int _count_merges;
-	private int _count_skips;
+	private int[] _shown_counts;
 
 	protected Importer _importer = null;
 
 	public Handler _handler;
+	public ProgressCounters _progress_counters;
+
+	private Runnable _progress_poller = new Runnable() {
+		public void run() {
+			updateProgress();
+			updateStats();
+			_handler.postDelayed( this, PROGRESS_POLL_INTERVAL );
+		}
+	};
 
 	public class DoitHandler extends Handler
 	{
@@ -94,6 +113,7 @@ public class Doit extends WizardActivity
 			switch( msg.what )
 			{
 			case MESSAGE_ALLDONE:
+				stopProgressPolling();
 				( (TextView)findViewById( R.id.doit_alldone ) ).
 					setVisibility( View.VISIBLE );
 				( (Button)findViewById( R.id.back ) ).setEnabled( false );
@@ -116,44 +136,17 @@ public class Doit extends WizardActivity
 				( (TextView)findViewById( R.id.doit_percentage ) ).
 					setText( (String)msg.obj );
 				break;
-			case MESSAGE_SETMAXPROGRESS:
-				if( _max_progress > 0 ) {
-					if( _tmp_progress == _max_progress - 1 )
-						_tmp_progress = (Integer)msg.obj;
-					if( _progress == _max_progress - 1 )
-						_progress = (Integer)msg.obj;
-				}
-				_max_progress = (Integer)msg.obj;
-				updateProgress();
-				break;
-			case MESSAGE_SETTMPPROGRESS:
-				_tmp_progress = (Integer)msg.obj;
-				updateProgress();
-				break;
-			case MESSAGE_SETPROGRESS:
-				_started_progress = true;
-				_progress = (Integer)msg.obj;
-				updateProgress();
-				break;
 			case MESSAGE_MERGEPROMPT:
 				_dialog_message = (String)msg.obj;
 				showDialog( DIALOG_MERGEPROMPT );
 				break;
-			case MESSAGE_CONTACTOVERWRITTEN:
-				_count_overwrites++;
-				updateStats();
+			case MESSAGE_MERGEPLAN:
+				_merge_plan = (MergePlan)msg.obj;
+				showDialog( DIALOG_MERGEPLAN );
 				break;
-			case MESSAGE_CONTACTCREATED:
-				_count_creates++;
-				updateStats();
-				break;
-			case MESSAGE_CONTACTMERGED:
-				_count_merges++;
-				updateStats();
-				break;
-			case MESSAGE_CONTACTSKIPPED:
-				_count_skips++;
-				updateStats();
+			case MESSAGE_DRYRUNSUMMARY:
+				_dialog_message = (String)msg.obj;
+				showDialog( DIALOG_DRYRUNSUMMARY );
 				break;
 			default:
 				super.handleMessage( msg );
@@ -178,16 +171,15 @@ public class Doit extends WizardActivity
 			}
 		} );
 
-		_started_progress = false;
-		_max_progress = 0;
-		_tmp_progress = 0;
-		_progress = 0;
+		_shown_max_progress = -1;
+		_shown_tmp_progress = -1;
+		_shown_progress = -1;
 		_handler = new DoitHandler();
 
-		_count_overwrites = 0;
-		_count_creates = 0;
-		_count_merges = 0;
-		_count_skips = 0;
+		_progress_counters = new ProgressCounters( NUM_COUNTS );
+		_shown_counts = new int[ NUM_COUNTS ];
+		for( int a = 0; a < NUM_COUNTS; a++ )
+			_shown_counts[ a ] = -1;
 
 		updateNext( NEXT_BEGIN );
 
@@ -284,10 +276,147 @@ public class Doit extends WizardActivity
 				.setView( dialog_view )
 				.setOnCancelListener( _dialog_on_cancel_listener )
 				.create();
+		case DIALOG_MERGEPLAN:
+			// custom layout in an AlertDialog
+			final View plan_view = LayoutInflater.from( this ).inflate(
+				R.layout.mergeplan, null );
+			_merge_plan_adapter = new MergePlanAdapter();
+			ListView list = (ListView)plan_view.findViewById(
+				R.id.mergeplan_list );
+			list.setAdapter( _merge_plan_adapter );
+			list.setOnItemClickListener( _merge_plan_item_listener );
+			( (Button)plan_view.findViewById( R.id.merge_keep ) ).
+				setOnClickListener( _merge_plan_button_listener );
+			( (Button)plan_view.findViewById( R.id.merge_merge ) ).
+				setOnClickListener( _merge_plan_button_listener );
+			( (Button)plan_view.findViewById( R.id.merge_overwrite ) ).
+				setOnClickListener( _merge_plan_button_listener );
+			( (Button)plan_view.findViewById( R.id.mergeplan_import ) ).
+				setOnClickListener( _merge_plan_button_listener );
+			( (Button)plan_view.findViewById( R.id.abort ) ).
+				setOnClickListener( _merge_plan_button_listener );
+			return new AlertDialog.Builder( this )
+				.setIcon( R.drawable.alert_dialog_icon )
+				.setTitle( R.string.mergeplan_title )
+				.setView( plan_view )
+				.setOnCancelListener( _dialog_on_cancel_listener )
+				.create();
+		case DIALOG_DRYRUNSUMMARY:
+			return new AlertDialog.Builder( this )
+				.setTitle( R.string.dryrun_title )
+				.setMessage( "" )
+				.setPositiveButton( R.string.error_ok,
+					new DialogInterface.OnClickListener() {
+						public void onClick( DialogInterface dialog,
+							int which_button )
+						{
+							if( Doit.this != null )
+								Doit.this._importer.wake();
+						}
+					} )
+				.setOnCancelListener( new DialogInterface.OnCancelListener() {
+					public void onCancel( DialogInterface dialog ) {
+						// the import is finished anyway
+						if( Doit.this != null )
+							Doit.this._importer.wake();
+					}
+				} )
+				.create();
 		}
 		return null;
 	}
 
+	// class to show the conflicts in the merge plan, and their decisions
+	private class MergePlanAdapter extends BaseAdapter
+	{
+		@Override
+		public int getCount()
+		{
+			return _merge_plan == null? 0 : _merge_plan.size();
+		}
+
+		@Override
+		public Object getItem( int position )
+		{
+			return _merge_plan.getDetail( position );
+		}
+
+		@Override
+		public long getItemId( int position )
+		{
+			return position;
+		}
+
+		@Override
+		public View getView( int position, View convert_view, ViewGroup parent )
+		{
+			View view = convert_view;
+			if( view == null ) {
+				LayoutInflater factory = LayoutInflater.from( Doit.this );
+				view = factory.inflate( R.layout.mergeplan_row, null );
+			}
+			( (TextView)view.findViewById( R.id.mergeplan_row_name ) )
+				.setText( _merge_plan.getDetail( position ) );
+			( (TextView)view.findViewById( R.id.mergeplan_row_action ) )
+				.setText( convertActionToPlanText(
+					_merge_plan.getDecision( position ) ) );
+			return view;
+		}
+	}
+
+	private OnItemClickListener _merge_plan_item_listener =
+		new OnItemClickListener()
+	{
+		public void onItemClick( AdapterView< ? > adapter_view, View view,
+			int position, long id )
+		{
+			if( _merge_plan == null ) return;
+
+			// cycle through the possible decisions
+			int action;
+			switch( _merge_plan.getDecision( position ) ) {
+			case ACTION_KEEP:			action = ACTION_MERGE_MERGE; break;
+			case ACTION_MERGE_MERGE:	action = ACTION_OVERWRITE; break;
+			default:					action = ACTION_KEEP; break;
+			}
+			_merge_plan.setDecision( position, action );
+			_merge_plan_adapter.notifyDataSetChanged();
+		}
+	};
+
+	private OnClickListener _merge_plan_button_listener =
+		new OnClickListener()
+	{
+		public void onClick( View view )
+		{
+			if( Doit.this == null || _merge_plan == null ) return;
+
+			switch( view.getId() )
+			{
+			case R.id.abort:
+				manualAbort();
+				break;
+			case R.id.mergeplan_import:
+				// the decisions are all set, so let the importer carry on (if
+				// we haven't aborted already!)
+				if( Doit.this._importer != null )
+					Doit.this._importer.wake( Importer.RESPONSE_POSITIVE );
+				break;
+			default:
+				// set the decision for all conflicts
+				_merge_plan.setAllDecisions(
+					convertIdToAction( view.getId() ) );
+				_merge_plan_adapter.notifyDataSetChanged();
+				return;
+			}
+
+			// close dialog and free the plan (don't keep a reference)
+			dismissDialog( DIALOG_MERGEPLAN );
+			_merge_plan = null;
+			_merge_plan_adapter.notifyDataSetChanged();
+		}
+	};
+
 	private OnClickListener _merge_prompt_button_listener =
 		new OnClickListener()
 	{
@@ -386,6 +515,14 @@ public class Doit extends WizardActivity
 		}
 	}
 
+	private int convertActionToPlanText( int action ) {
+		switch( action ) {
+		case ACTION_MERGE_MERGE:	return R.string.mergeplan_merge;
+		case ACTION_OVERWRITE:		return R.string.mergeplan_overwrite;
+		default: return R.string.mergeplan_keep;
+		}
+	}
+
 	private DialogInterface.OnCancelListener _dialog_on_cancel_listener =
 		new DialogInterface.OnCancelListener()
 	{
@@ -412,7 +549,8 @@ public class Doit extends WizardActivity
 		switch( id )
 		{
 		case DIALOG_ERROR:	// fall through
-		case DIALOG_CONTINUEORABORT:
+		case DIALOG_CONTINUEORABORT:	// fall through
+		case DIALOG_DRYRUNSUMMARY:
 			// set dialog message
 			( (AlertDialog)dialog ).setMessage( _dialog_message );
 			break;
@@ -423,6 +561,10 @@ public class Doit extends WizardActivity
 			// and set up reference to dialog
 			_merge_prompt_dialog = dialog;
 			break;
+		case DIALOG_MERGEPLAN:
+			// show the new plan
+			_merge_plan_adapter.notifyDataSetChanged();
+			break;
 		}
 
 		super.onPrepareDialog( id, dialog );
@@ -437,43 +579,92 @@ public class Doit extends WizardActivity
 		// disable back button
 		( (Button)findViewById( R.id.back ) ).setEnabled( false );
 
+		// is this a dry run?
+		_is_dry_run = ( (CheckBox)findViewById( R.id.doit_dryrun ) ).
+			isChecked();
+
 		// create importer
 		_importer = new VcardImporter( this );
 
 		// start the service's thread
 		_importer.start();
+
+		// and start displaying its progress
+		_handler.postDelayed( _progress_poller, PROGRESS_POLL_INTERVAL );
+	}
+
+	/**
+	 * Is the import a dry run (i.e., one that doesn't change any contacts)?
+	 *
+	 * @return true if it is
+	 */
+	public boolean isDryRun()
+	{
+		return _is_dry_run;
+	}
+
+	/**
+	 * Stop periodically displaying progress and statistics, and display them
+	 * one last time.
+	 */
+	private void stopProgressPolling()
+	{
+		if( _handler != null )
+			_handler.removeCallbacks( _progress_poller );
+		updateProgress();
+		updateStats();
 	}
 
 	private void updateProgress()
 	{
+		int max_progress = _progress_counters.getMaxProgress();
+		int tmp_progress = _progress_counters.getTmpProgress();
+		int progress = _progress_counters.getProgress();
+
+		// only update the views if something has changed
+		if( max_progress == _shown_max_progress &&
+			tmp_progress == _shown_tmp_progress &&
+			progress == _shown_progress )
+		{
+			return;
+		}
+		_shown_max_progress = max_progress;
+		_shown_tmp_progress = tmp_progress;
+		_shown_progress = progress;
+
 		ProgressBar bar = (ProgressBar)findViewById( R.id.doit_progress );
 		TextView out_of = (TextView)findViewById( R.id.doit_outof );
 
-		if( _max_progress > 0 )
+		if( max_progress > 0 )
 		{
-			bar.setMax( _max_progress );
-			bar.setSecondaryProgress( _tmp_progress );
+			bar.setMax( max_progress );
+			bar.setSecondaryProgress( tmp_progress );
 
-			if( _started_progress )
+			if( progress != -1 )
 			{
 				( (TextView)findViewById( R.id.doit_percentage ) ).setText(
-					(int)Math.round( 100 * _progress / _max_progress ) + "%" );
-				out_of.setText( _progress + "/" + _max_progress );
-				bar.setProgress( _progress );
+					(int)Math.round( 100 * progress / max_progress ) + "%" );
+				out_of.setText( progress + "/" + max_progress );
+				bar.setProgress( progress );
 			}
 		}
 	}
 
 	private void updateStats()
 	{
-		( (TextView)findViewById( R.id.doit_overwrites ) ).setText(
-			"" + _count_overwrites );
-		( (TextView)findViewById( R.id.doit_creates ) ).setText(
-			"" + _count_creates );
-		( (TextView)findViewById( R.id.doit_merges ) ).setText(
-			"" + _count_merges );
-		( (TextView)findViewById( R.id.doit_skips ) ).setText(
-			"" + _count_skips );
+		updateStat( R.id.doit_overwrites, COUNT_OVERWRITES );
+		updateStat( R.id.doit_creates, COUNT_CREATES );
+		updateStat( R.id.doit_merges, COUNT_MERGES );
+		updateStat( R.id.doit_skips, COUNT_SKIPS );
+	}
+
+	private void updateStat( int id, int counter )
+	{
+		int count = _progress_counters.getCount( counter );
+		if( count != _shown_counts[ counter ] ) {
+			_shown_counts[ counter ] = count;
+			( (TextView)findViewById( id ) ).setText( "" + count );
+		}
 	}
 
 	private void abortImport( boolean show_toaster_popup )
@@ -500,6 +691,7 @@ public class Doit extends WizardActivity
 		}
 
 		// destroy some stuff
+		stopProgressPolling();
 		_importer = null;
 		_handler = null;
 	}
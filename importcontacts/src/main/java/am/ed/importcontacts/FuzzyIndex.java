@@ -0,0 +1,396 @@
+/*
+ * FuzzyIndex.java
+ *
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This file is part of the Import Contacts program (hereafter referred
+ * to as "this program").  For more information, see
+ * http://ed.am/dev/android/import-contacts
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package am.ed.importcontacts;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+
+/**
+ * An index of existing contacts' names and phone numbers which can find a
+ * contact whose name is similar to (rather than the same as) an imported
+ * contact's.  E.g., "Joe Smith" is similar to "joe smith", "Smith, Joe" and
+ * "Joe Smyth".
+ *
+ * Names are "folded" before they are compared: they are lower-cased,
+ * accented and Cyrillic letters are transliterated to plain Latin letters,
+ * punctuation is removed and the words are sorted.  The similarity of two
+ * folded names is the proportion of their pairs of adjacent characters
+ * (bigrams) that they share.
+ *
+ * Comparing an imported contact with every existing contact would be too
+ * slow, so contacts are grouped in to blocks, and the contact is only
+ * compared with those in the blocks it belongs to.  There is a block for the
+ * phonetic (Soundex) code of each word in a name, and for the trailing digits
+ * of each phone number.
+ */
+public class FuzzyIndex
+{
+	// how similar names must be to match, and how similar they must be if
+	// the contacts also share a phone number
+	private final static float MIN_SIMILARITY = 0.85f;
+	private final static float MIN_SIMILARITY_WITH_NUMBER = 0.7f;
+
+	// the number of trailing digits of phone numbers that are compared
+	private final static int NUMBER_DIGITS = 7;
+
+	// blocks that are larger than this (e.g., for a very common surname) are
+	// only used when there is no smaller block to use
+	private final static int MAX_BLOCK_SIZE = 1000;
+
+	private final static String[] TRANSLITERATIONS = {
+		"\u00e0\u00e1\u00e2\u00e3\u00e4\u00e5\u0101\u0103\u0105", "a",
+		"\u00e7\u0107\u0109\u010b\u010d", "c",
+		"\u010f\u0111", "d",
+		"\u00e8\u00e9\u00ea\u00eb\u0113\u0115\u0117\u0119\u011b", "e",
+		"\u011d\u011f\u0121\u0123", "g",
+		"\u0125\u0127", "h",
+		"\u00ec\u00ed\u00ee\u00ef\u0129\u012b\u012d\u012f\u0131", "i",
+		"\u0135", "j",
+		"\u0137", "k",
+		"\u013a\u013c\u013e\u0140\u0142", "l",
+		"\u00f1\u0144\u0146\u0148\u0149", "n",
+		"\u00f2\u00f3\u00f4\u00f5\u00f6\u00f8\u014d\u014f\u0151", "o",
+		"\u0155\u0157\u0159", "r",
+		"\u015b\u015d\u015f\u0161", "s",
+		"\u0163\u0165\u0167", "t",
+		"\u00f9\u00fa\u00fb\u00fc\u0169\u016b\u016d\u016f\u0171\u0173", "u",
+		"\u0175", "w",
+		"\u00fd\u00ff\u0177", "y",
+		"\u017a\u017c\u017e", "z",
+		"\u00df", "ss",
+		"\u00e6", "ae",
+		"\u0153", "oe",
+		"\u00fe", "th",
+		"\u00f0", "d",
+		"\u0430", "a",
+		"\u0431", "b",
+		"\u0432", "v",
+		"\u0433", "g",
+		"\u0434", "d",
+		"\u0435\u0451", "e",
+		"\u0436", "zh",
+		"\u0437", "z",
+		"\u0438\u0439", "i",
+		"\u043a", "k",
+		"\u043b", "l",
+		"\u043c", "m",
+		"\u043d", "n",
+		"\u043e", "o",
+		"\u043f", "p",
+		"\u0440", "r",
+		"\u0441", "s",
+		"\u0442", "t",
+		"\u0443", "u",
+		"\u0444", "f",
+		"\u0445", "kh",
+		"\u0446", "ts",
+		"\u0447", "ch",
+		"\u0448", "sh",
+		"\u0449", "shch",
+		"\u044a\u044c", "",
+		"\u044b", "y",
+		"\u044d", "e",
+		"\u044e", "yu",
+		"\u044f", "ya",
+	};
+
+	// transliterations, indexed by (lower-case) character, for characters
+	// from TRANSLITERATION_BASE to (but not including) TRANSLITERATION_END
+	private final static char TRANSLITERATION_BASE = '\u00c0';
+	private final static char TRANSLITERATION_END = '\u0500';
+	private final static String[] TRANSLITERATION_TABLE =
+		new String[ TRANSLITERATION_END - TRANSLITERATION_BASE ];
+	static {
+		for( int a = 0; a < TRANSLITERATIONS.length; a += 2 )
+			for( int b = 0; b < TRANSLITERATIONS[ a ].length(); b++ )
+				TRANSLITERATION_TABLE[ TRANSLITERATIONS[ a ].charAt( b ) -
+					TRANSLITERATION_BASE ] = TRANSLITERATIONS[ a + 1 ];
+	}
+
+	// Soundex digits for the letters a to z
+	private final static String SOUNDEX_CODES = "01230120022455012623010202";
+
+	private HashMap< String, ArrayList< Long > > _blocks =
+		new HashMap< String, ArrayList< Long > >();
+	private HashMap< Long, String > _folded_names =
+		new HashMap< Long, String >();
+
+	/**
+	 * Add an existing contact's name to the index.
+	 *
+	 * @param id the contact's id
+	 * @param name the name
+	 */
+	public void addName( Long id, String name )
+	{
+		String folded = fold( name );
+		if( folded.length() == 0 || _folded_names.containsKey( id ) ) return;
+
+		_folded_names.put( id, folded );
+		String[] words = folded.split( " " );
+		for( int a = 0; a < words.length; a++ )
+			addToBlock( getWordBlockKey( words[ a ] ), id );
+	}
+
+	/**
+	 * Add an existing contact's phone number to the index.
+	 *
+	 * @param id the contact's id
+	 * @param number the phone number
+	 */
+	public void addNumber( Long id, String number )
+	{
+		String key = getNumberBlockKey( number );
+		if( key != null )
+			addToBlock( key, id );
+	}
+
+	/**
+	 * Remove a contact (e.g., that has been deleted), so that it is not
+	 * matched.
+	 *
+	 * @param id the contact's id
+	 */
+	public void removeContact( Long id )
+	{
+		// the contact is left in its blocks, but without a name it is ignored
+		_folded_names.remove( id );
+	}
+
+	/**
+	 * Find the existing contact whose name is most similar to an imported
+	 * contact's, if it is similar enough (and no other contact's is as
+	 * similar).
+	 *
+	 * @param name the imported contact's name
+	 * @param numbers the imported contact's phone numbers
+	 * @return the existing contact's id, or null
+	 */
+	public Long match( String name, ContactDetails numbers )
+	{
+		String folded = fold( name );
+		if( folded.length() == 0 ) return null;
+
+		// find the candidates that share a phone number
+		ArrayList< Long > number_candidates = new ArrayList< Long >();
+		for( int a = 0; a < numbers.size(); a++ ) {
+			String key = getNumberBlockKey( numbers.getValue( a ) );
+			ArrayList< Long > block = key == null? null : _blocks.get( key );
+			if( block != null && block.size() <= MAX_BLOCK_SIZE )
+				number_candidates.addAll( block );
+		}
+
+		// find the candidates that share a (phonetically) similar word,
+		// ignoring large blocks, unless that is all there is
+		String[] words = folded.split( " " );
+		ArrayList< Long > candidates = new ArrayList< Long >();
+		ArrayList< Long > smallest_block = null;
+		for( int a = 0; a < words.length; a++ ) {
+			ArrayList< Long > block = _blocks.get(
+				getWordBlockKey( words[ a ] ) );
+			if( block == null ) continue;
+			if( block.size() <= MAX_BLOCK_SIZE )
+				candidates.addAll( block );
+			else if( smallest_block == null ||
+				block.size() < smallest_block.size() )
+			{
+				smallest_block = block;
+			}
+		}
+		if( candidates.isEmpty() && smallest_block != null )
+			candidates.addAll( smallest_block );
+		candidates.addAll( number_candidates );
+		Collections.sort( candidates );
+
+		// score the candidates (each only once)
+		int[] bigrams = getBigrams( folded );
+		Long best = null;
+		float best_score = 0;
+		boolean is_tied = false;
+		for( int a = 0; a < candidates.size(); a++ )
+		{
+			Long id = candidates.get( a );
+			if( a > 0 && id.equals( candidates.get( a - 1 ) ) ) continue;
+			String candidate_name = _folded_names.get( id );
+			if( candidate_name == null ) continue;
+
+			boolean shares_number = number_candidates.contains( id );
+			float similarity = getSimilarity( bigrams,
+				getBigrams( candidate_name ) );
+			if( similarity < ( shares_number?
+				MIN_SIMILARITY_WITH_NUMBER : MIN_SIMILARITY ) )
+			{
+				continue;
+			}
+
+			float score = similarity + ( shares_number? 1 : 0 );
+			if( score > best_score ) {
+				best = id;
+				best_score = score;
+				is_tied = false;
+			}
+			else if( score == best_score )
+				is_tied = true;
+		}
+
+		return is_tied? null : best;
+	}
+
+	private void addToBlock( String key, Long id )
+	{
+		ArrayList< Long > block = _blocks.get( key );
+		if( block == null ) {
+			block = new ArrayList< Long >( 2 );
+			_blocks.put( key, block );
+		}
+		else if( block.get( block.size() - 1 ).equals( id ) )
+			return;
+		block.add( id );
+	}
+
+	/**
+	 * Fold a name, so that it can be compared with others.  The name is
+	 * lower-cased and transliterated, and its words are separated by single
+	 * spaces and sorted.
+	 *
+	 * @param name the name
+	 * @return the folded name
+	 */
+	static public String fold( String name )
+	{
+		StringBuilder folded = new StringBuilder( name.length() );
+		for( int a = 0; a < name.length(); a++ )
+		{
+			char ch = Character.toLowerCase( name.charAt( a ) );
+			if( ch >= TRANSLITERATION_BASE && ch < TRANSLITERATION_END &&
+				TRANSLITERATION_TABLE[ ch - TRANSLITERATION_BASE ] != null )
+			{
+				folded.append(
+					TRANSLITERATION_TABLE[ ch - TRANSLITERATION_BASE ] );
+			}
+			else if( Character.isLetterOrDigit( ch ) )
+				folded.append( ch );
+			else if( folded.length() > 0 &&
+				folded.charAt( folded.length() - 1 ) != ' ' )
+			{
+				folded.append( ' ' );
+			}
+		}
+
+		String[] words = folded.toString().trim().split( " " );
+		if( words.length == 1 ) return words[ 0 ];
+		Arrays.sort( words );
+		folded.setLength( 0 );
+		for( int a = 0; a < words.length; a++ ) {
+			if( a > 0 ) folded.append( ' ' );
+			folded.append( words[ a ] );
+		}
+		return folded.toString();
+	}
+
+	/**
+	 * Get the block key of a (folded) word: its Soundex code, if it starts
+	 * with a Latin letter, or else the word itself.
+	 */
+	private static String getWordBlockKey( String word )
+	{
+		char first = word.charAt( 0 );
+		if( first < 'a' || first > 'z' ) return "w" + word;
+
+		char[] code = { 'n', Character.toUpperCase( first ), '0', '0', '0' };
+		int len = 2;
+		char last = SOUNDEX_CODES.charAt( first - 'a' );
+		for( int a = 1; a < word.length() && len < code.length; a++ )
+		{
+			char ch = word.charAt( a );
+			if( ch < 'a' || ch > 'z' ) continue;
+			char digit = SOUNDEX_CODES.charAt( ch - 'a' );
+			if( digit != '0' && digit != last )
+				code[ len++ ] = digit;
+			// (h and w don't separate letters with the same code)
+			if( ch != 'h' && ch != 'w' )
+				last = digit;
+		}
+		return new String( code );
+	}
+
+	/**
+	 * Get the block key of a phone number: its trailing digits.
+	 *
+	 * @return the key, or null if it doesn't have enough digits
+	 */
+	private static String getNumberBlockKey( String number )
+	{
+		char[] digits = new char[ NUMBER_DIGITS + 1 ];
+		digits[ 0 ] = 'p';
+		int len = 0;
+		for( int a = number.length() - 1; a >= 0 && len < NUMBER_DIGITS; a-- )
+		{
+			char ch = number.charAt( a );
+			if( ch >= '0' && ch <= '9' )
+				digits[ NUMBER_DIGITS - len++ ] = ch;
+		}
+		return len < NUMBER_DIGITS? null : new String( digits );
+	}
+
+	/**
+	 * Get the (sorted) bigrams of a string, each encoded as an int.
+	 */
+	private static int[] getBigrams( String string )
+	{
+		if( string.length() < 2 ) return new int[] { string.charAt( 0 ) };
+
+		int[] bigrams = new int[ string.length() - 1 ];
+		for( int a = 0; a < bigrams.length; a++ )
+			bigrams[ a ] = ( string.charAt( a ) << 16 ) |
+				string.charAt( a + 1 );
+		Arrays.sort( bigrams );
+		return bigrams;
+	}
+
+	/**
+	 * Get the similarity (the Dice coefficient) of two sets of bigrams.
+	 *
+	 * @return a number from 0 (nothing in common) to 1 (the same)
+	 */
+	private static float getSimilarity( int[] bigrams1, int[] bigrams2 )
+	{
+		int shared = 0;
+		int a = 0, b = 0;
+		while( a < bigrams1.length && b < bigrams2.length ) {
+			if( bigrams1[ a ] == bigrams2[ b ] ) {
+				shared++;
+				a++;
+				b++;
+			}
+			else if( bigrams1[ a ] < bigrams2[ b ] )
+				a++;
+			else
+				b++;
+		}
+		return 2.0f * shared / ( bigrams1.length + bigrams2.length );
+	}
+}
@@ -23,18 +23,15 @@
 
 package am.ed.importcontacts;
 
-import java.util.Arrays;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Locale;
-import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import am.ed.importcontacts.Backend.ContactCreationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import android.content.SharedPreferences;
 import android.os.Message;
+import android.util.Log;
 
 public class Importer extends Thread
 {
@@ -47,18 +44,49 @@ public class Importer extends Thread
 	public final static int RESPONSEEXTRA_NONE = 0;
 	public final static int RESPONSEEXTRA_ALWAYS = 1;
 
+	protected final static String TAG = "ImportContacts";
+
+	// maximum number of distinct organisations, titles and addresses that we
+	// de-duplicate during an import
+	private final static int STRING_POOL_SIZE = 4096;
+
+	// number of imported contacts that are committed to the device together
+	private final static int BATCH_SIZE = 50;
+
+	// names of the kinds of detail, for the dry run summary (indexed by
+	// RecordingBackend's kinds)
+	private final static int[] DRY_RUN_KIND_NAMES = {
+		R.string.dryrun_numbers, R.string.dryrun_emails,
+		R.string.dryrun_addresses, R.string.dryrun_organisations,
+		R.string.dryrun_notes, R.string.dryrun_birthdays,
+		R.string.dryrun_photos,
+	};
+
 	private Doit _doit;
-	private int _response;
-	private int _response_extra;
 	private int _merge_setting;
+	private MergePolicy _merge_policy;
 	private int _last_merge_decision;
-	private boolean _abort = false;
-	private boolean _is_finished = false;
+	private AtomicBoolean _abort = new AtomicBoolean( false );
+	private volatile boolean _is_finished = false;
+	private volatile PromptFuture _prompt = null;
 	private ContactsCache _contacts_cache = null;
+	private String _cache_marker = null;
 	private Backend _backend = null;
+	private RecordingBackend _recording_backend = null;
+	private PhotoBuffer _photo_buffer = new PhotoBuffer();
+	private StringPool _string_pool = new StringPool( STRING_POOL_SIZE );
+	private ContactBatch _batch = new ContactBatch();
+	private ContactDetails _birthdays = new ContactDetails();
+	private MergePlan _merge_plan = null;
+
+	// while planning, the cache identifiers, phone numbers and email
+	// addresses of the contacts that are going to be created, mapped to the
+	// keys of their cache identifiers
+	private HashMap< String, String > _planned_details = null;
 
 	/**
-	 * Data about a contact
+	 * Data about a contact.  Contact data can be reset and reused for another
+	 * contact, so that importing many contacts allocates very little.
 	 */
 	public class ContactData
 	{
@@ -69,83 +97,47 @@ public class Importer extends Thread
 		public final static int TYPE_FAX_WORK = 4;	// only used with phones
 		public final static int TYPE_PAGER = 5;		// only used with phones
 
-		class TypeDetail
-		{
-			protected int _type;
-
-			public TypeDetail( int type )
-			{
-				_type = type;
-			}
-
-			public int getType()
-			{
-				return _type;
-			}
-		}
-
-		class PreferredDetail extends TypeDetail
-		{
-			protected boolean _is_preferred;
-
-			public PreferredDetail( int type, boolean is_preferred )
-			{
-				super( type );
-				_is_preferred = is_preferred;
-			}
-
-			public boolean isPreferred()
-			{
-				return _is_preferred;
-			}
-		}
-
-		class ExtraDetail extends PreferredDetail
-		{
-			protected String _extra;
-
-			public ExtraDetail( int type, boolean is_preferred, String extra )
-			{
-				super( type, is_preferred );
-
-				if( extra != null ) extra = extra.trim();
-				_extra = extra;
-			}
-
-			public String getExtra()
-			{
-				return _extra;
-			}
-
-			public void setExtra( String extra )
-			{
-				if( extra != null ) extra = extra.trim();
-				_extra = extra;
-			}
-		}
-
 		@SuppressWarnings("serial")
 		protected class ContactNotIdentifiableException extends Exception
 		{
 		}
 
 		protected String _name = null;
-		protected String _primary_organisation = null;
+		protected int _primary_organisation = -1;
 		protected boolean _primary_organisation_is_preferred;
-		protected String _primary_number = null;
-		protected int _primary_number_type;
+		protected int _primary_number = -1;
 		protected boolean _primary_number_is_preferred;
-		protected String _primary_email = null;
+		protected int _primary_email = -1;
 		protected boolean _primary_email_is_preferred;
-		protected HashMap< String, ExtraDetail > _organisations = null;
-		protected HashMap< String, PreferredDetail > _numbers = null;
-		protected HashMap< String, PreferredDetail > _emails = null;
-		protected HashMap< String, TypeDetail > _addresses = null;
-		protected HashSet< String > _notes = null;
+		protected ContactDetails _organisations = new ContactDetails();
+		protected ContactDetails _numbers = new ContactDetails();
+		protected ContactDetails _emails = new ContactDetails();
+		protected ContactDetails _addresses = new ContactDetails();
+		protected ContactDetails _notes = new ContactDetails();
 		protected String _birthday = null;
+		protected boolean _has_photo = false;
 
 		private ContactsCache.CacheIdentifier _cache_identifier = null;
 
+		/**
+		 * Discard all data, so that this can be reused for another contact.
+		 */
+		protected void reset()
+		{
+			_name = null;
+			_primary_organisation = -1;
+			_primary_number = -1;
+			_primary_email = -1;
+			_organisations.clear();
+			_numbers.clear();
+			_emails.clear();
+			_addresses.clear();
+			_notes.clear();
+			_birthday = null;
+			_has_photo = false;
+			_cache_identifier = null;
+		}
+
 		protected void setName( String name )
 		{
 			_name = name;
@@ -164,61 +156,68 @@ public class Importer extends Thread
 		protected void addOrganisation( String organisation, String title,
 			boolean is_preferred )
 		{
-			organisation = organisation.trim();
+			organisation = _string_pool.intern( organisation.trim() );
 			if( organisation.length() <= 0 )
 			{
 				// TODO: warn that an imported organisation is being ignored
 				return;
 			}
 
-			if( title != null ) {
-				title = title.trim();
-				if( title.length() <= 0 ) title = null;
-			}
-
 			// add the organisation, as non-preferred (we prefer only one
 			// organisation in finalise() after they're all imported)
-			if( _organisations == null )
-				_organisations = new HashMap< String, ExtraDetail >();
-			if( !_organisations.containsKey( organisation ) )
-				_organisations.put( organisation,
-					new ExtraDetail( 0, false, title ) );
+			int index = _organisations.add( organisation, 0, 0,
+				internTitle( title ) );
 
 			// if this is the first organisation added, or it's a preferred
 			// organisation and the current primary organisation isn't, then
 			// record this as the primary organisation
-			if( _primary_organisation == null ||
+			if( _primary_organisation == -1 ||
 				( is_preferred && !_primary_organisation_is_preferred ) )
 			{
-				_primary_organisation = organisation;
+				_primary_organisation = index;
 				_primary_organisation_is_preferred = is_preferred;
 			}
 		}
 
+		/**
+		 * Set the title of an organisation that has already been added.
+		 *
+		 * @param organisation the organisation
+		 * @param title the title
+		 */
+		protected void setOrganisationTitle( String organisation,
+			String title )
+		{
+			int index = _organisations.indexOf( organisation.trim() );
+			if( index != -1 )
+				_organisations.setExtra( index, internTitle( title ) );
+		}
+
 		public boolean hasOrganisations()
 		{
-			return _organisations != null && _organisations.size() > 0;
+			return _organisations.size() > 0;
 		}
 
-		public HashMap< String, ExtraDetail > getOrganisations()
+		public ContactDetails getOrganisations()
 		{
 			return _organisations;
 		}
 
 		public boolean hasPrimaryOrganisation()
 		{
-			return _primary_organisation != null;
+			return _primary_organisation != -1;
 		}
 
 		public String getPrimaryOrganisation()
 		{
-			return _primary_organisation;
+			return _primary_organisation == -1? null :
+				_organisations.getValue( _primary_organisation );
 		}
 
 		protected void addNumber( String number, int type,
 			boolean is_preferred )
 		{
-			number = sanitisePhoneNumber( number );
+			number = Normaliser.sanitisePhoneNumber( number );
 			if( number == null )
 			{
 				// TODO: warn that an imported phone number is being ignored
@@ -227,56 +226,49 @@ public class Importer extends Thread
 
 			// add the number, as non-preferred (we prefer only one number
 			// in finalise() after they're all imported)
-			if( _numbers == null )
-				_numbers = new HashMap< String, PreferredDetail >();
-			if( !_numbers.containsKey( number ) )
-				_numbers.put( number,
-					new PreferredDetail( type, false ) );
-
-			final Set< Integer > non_voice_types = new HashSet< Integer >(
-				Arrays.asList( TYPE_FAX_HOME, TYPE_FAX_WORK, TYPE_PAGER ) );
+			int index = _numbers.add( number, type, 0, null );
 
 			// if this is the first number added, or it's a preferred number
 			// and the current primary number isn't, or this number is on equal
 			// standing with the primary number in terms of preference and it is
 			// a voice number and the primary number isn't, then record this as
 			// the primary number
-			if( _primary_number == null ||
+			if( _primary_number == -1 ||
 				( is_preferred && !_primary_number_is_preferred ) ||
 				( is_preferred == _primary_number_is_preferred &&
-					!non_voice_types.contains( type ) &&
-					non_voice_types.contains( _primary_number_type ) ) )
+					!isNonVoiceType( type ) &&
+					isNonVoiceType( _numbers.getType( _primary_number ) ) ) )
 			{
-				_primary_number = number;
-				_primary_number_type = type;
+				_primary_number = index;
 				_primary_number_is_preferred = is_preferred;
 			}
 		}
 
 		public boolean hasNumbers()
 		{
-			return _numbers != null && _numbers.size() > 0;
+			return _numbers.size() > 0;
 		}
 
-		public HashMap< String, PreferredDetail > getNumbers()
+		public ContactDetails getNumbers()
 		{
 			return _numbers;
 		}
 
 		public boolean hasPrimaryNumber()
 		{
-			return _primary_number != null;
+			return _primary_number != -1;
 		}
 
 		public String getPrimaryNumber()
 		{
-			return _primary_number;
+			return _primary_number == -1? null :
+				_numbers.getValue( _primary_number );
 		}
 
 		protected void addEmail( String email, int type, boolean is_preferred )
 		{
 
-			email = sanitisesEmailAddress( email );
+			email = Normaliser.sanitiseEmailAddress( email );
 			if( email == null )
 			{
 				// TODO: warn that an imported email address is being ignored
@@ -285,80 +277,73 @@ public class Importer extends Thread
 
 			// add the email, as non-preferred (we prefer only one email in
 			// finalise() after they're all imported)
-			if( _emails == null )
-				_emails = new HashMap< String, PreferredDetail >();
-			if( !_emails.containsKey( email ) )
-				_emails.put( email, new PreferredDetail( type, false ) );
+			int index = _emails.add( email, type, 0, null );
 
 			// if this is the first email added, or it's a preferred email and
 			// the current primary organisation isn't, then record this as the
 			// primary email
-			if( _primary_email == null ||
+			if( _primary_email == -1 ||
 				( is_preferred && !_primary_email_is_preferred ) )
 			{
-				_primary_email = email;
+				_primary_email = index;
 				_primary_email_is_preferred = is_preferred;
 			}
 		}
 
 		public boolean hasEmails()
 		{
-			return _emails != null && _emails.size() > 0;
+			return _emails.size() > 0;
 		}
 
-		public HashMap< String, PreferredDetail > getEmails()
+		public ContactDetails getEmails()
 		{
 			return _emails;
 		}
 
 		public boolean hasPrimaryEmail()
 		{
-			return _primary_email != null;
+			return _primary_email != -1;
 		}
 
 		public String getPrimaryEmail()
 		{
-			return _primary_email;
+			return _primary_email == -1? null :
+				_emails.getValue( _primary_email );
 		}
 
 		protected void addAddress( String address, int type )
 		{
-			address = address.trim();
+			address = _string_pool.intern( address.trim() );
 			if( address.length() <= 0 )
 			{
 				// TODO: warn that an imported address is being ignored
 				return;
 			}
 
-			if( _addresses == null ) _addresses =
-				new HashMap< String, TypeDetail >();
-			if( !_addresses.containsKey( address ) )
-				_addresses.put( address, new TypeDetail( type ) );
+			_addresses.add( address, type, 0, null );
 		}
 
 		public boolean hasAddresses()
 		{
-			return _addresses != null && _addresses.size() > 0;
+			return _addresses.size() > 0;
 		}
 
-		public HashMap< String, TypeDetail > getAddresses()
+		public ContactDetails getAddresses()
 		{
 			return _addresses;
 		}
 
 		protected void addNote( String note )
 		{
-			if( _notes == null ) _notes = new HashSet< String >();
-			if( !_notes.contains( note ) )
-				_notes.add( note );
+			_notes.add( note, 0, 0, null );
 		}
 
 		public boolean hasNotes()
 		{
-			return _notes != null && _notes.size() > 0;
+			return _notes.size() > 0;
 		}
 
-		public HashSet< String > getNotes()
+		public ContactDetails getNotes()
 		{
 			return _notes;
 		}
@@ -378,31 +363,55 @@ public class Importer extends Thread
 			return _birthday;
 		}
 
+		/**
+		 * Obtain the buffer that this contact's photo should be decoded in
+		 * to.  The buffer is shared between all contacts (so that we only have
+		 * one photo in memory at a time) and it is reset by this call.
+		 *
+		 * @return the photo buffer
+		 */
+		protected PhotoBuffer beginPhoto()
+		{
+			_has_photo = false;
+			_photo_buffer.reset();
+			return _photo_buffer;
+		}
+
+		/**
+		 * Indicate that all of this contact's photo has been decoded in to the
+		 * buffer obtained from beginPhoto().
+		 */
+		protected void finishPhoto()
+		{
+			_has_photo = _photo_buffer.finish();
+		}
+
+		public boolean hasPhoto()
+		{
+			return _has_photo && _photo_buffer.hasData();
+		}
+
+		public PhotoBuffer getPhoto()
+		{
+			return _photo_buffer;
+		}
+
 		protected void finalise()
 			throws ContactNotIdentifiableException
 		{
 			// Ensure that if there is a primary number, it is preferred so
 			// that there is always one preferred number.  Android will assign
 			// preference to one anyway so we might as well decide one sensibly.
-			if( _primary_number != null ) {
-				PreferredDetail data = _numbers.get( _primary_number );
-				_numbers.put( _primary_number,
-					new PreferredDetail( data.getType(), true ) );
-			}
+			if( _primary_number != -1 )
+				_numbers.setPreferred( _primary_number );
 
 			// do the same for the primary email
-			if( _primary_email != null ) {
-				PreferredDetail data = _emails.get( _primary_email );
-				_emails.put( _primary_email,
-					new PreferredDetail( data.getType(), true ) );
-			}
+			if( _primary_email != -1 )
+				_emails.setPreferred( _primary_email );
 
 			// do the same for the primary organisation
-			if( _primary_organisation != null ) {
-				ExtraDetail data = _organisations.get( _primary_organisation );
-				_organisations.put( _primary_organisation,
-					new ExtraDetail( 0, true, data.getExtra() ) );
-			}
+			if( _primary_organisation != -1 )
+				_organisations.setPreferred( _primary_organisation );
 
 			// create a cache identifier from this contact data, which can be
 			// used to look-up an existing contact
@@ -416,27 +425,19 @@ public class Importer extends Thread
 			return _cache_identifier;
 		}
 
-		private String sanitisePhoneNumber( String number )
+		private String internTitle( String title )
 		{
-			number = number.trim();
-			Pattern p = Pattern.compile( "^[-\\(\\) \\+0-9#*]+" );
-			Matcher m = p.matcher( number );
-			if( m.lookingAt() ) return m.group( 0 );
-			return null;
+			if( title != null ) {
+				title = title.trim();
+				if( title.length() <= 0 ) title = null;
+			}
+			return _string_pool.intern( title );
 		}
 
-		private String sanitisesEmailAddress( String email )
+		private boolean isNonVoiceType( int type )
 		{
-			email = email.trim();
-			Pattern p = Pattern.compile(
-				"^[^ @]+@[a-zA-Z]([-a-zA-Z0-9]*[a-zA-z0-9])?(\\.[a-zA-Z]([-a-zA-Z0-9]*[a-zA-z0-9])?)+$" );
-			Matcher m = p.matcher( email );
-			if( m.matches() ) {
-				String[] bits = email.split( "@" );
-				return bits[ 0 ] + "@" +
-					bits[ 1 ].toLowerCase( Locale.ENGLISH );
-			}
-			return null;
+			return type == TYPE_FAX_HOME || type == TYPE_FAX_WORK ||
+				type == TYPE_PAGER;
 		}
 	}
 
@@ -449,6 +450,8 @@ public class Importer extends Thread
 
 		SharedPreferences prefs = getSharedPreferences();
 		_merge_setting = prefs.getInt( "merge_setting", Doit.ACTION_PROMPT );
+		_merge_policy = new MergePolicy(
+			prefs.getString( "merge_policy", null ) );
 	}
 
 	@Override
@@ -460,17 +463,52 @@ public class Importer extends Thread
 			setProgressMessage( R.string.doit_caching );
 
 			// create the appropriate backend
+			_contacts_cache = new ContactsCache();
 			if( Integer.parseInt( android.os.Build.VERSION.SDK ) >= 5 )
 				_backend = new ContactsContractBackend( _doit );
 			else
 				_backend = new ContactsBackend( _doit );
 
-			// create a cache of existing contacts and populate it
-			_contacts_cache = new ContactsCache();
-			_backend.populateCache( _contacts_cache );
+			// for a dry run, record what would happen, instead
+			if( _doit.isDryRun() ) {
+				_recording_backend =
+					new RecordingBackend( _backend, _contacts_cache );
+				_backend = _recording_backend;
+			}
+
+			// populate the cache of existing contacts (from a snapshot, if the
+			// contacts haven't changed since it was saved).  The contacts are
+			// marked before the cache is populated, so that any changes made
+			// while we are importing are picked up when the snapshot is next
+			// refreshed.
+			SharedPreferences prefs = getSharedPreferences();
+			if( prefs.getBoolean( "cache_snapshot", false ) )
+				_cache_marker = _backend.getCacheMarker();
+			if( prefs.getBoolean( "lazy_cache", true ) )
+				_contacts_cache.enableLazyLoading( _backend );
+			if( prefs.getBoolean( "cache_fingerprints", false ) )
+				_contacts_cache.enableFingerprints( prefs.getBoolean(
+					"verify_fingerprints", true )? _backend : null );
+			if( !loadCacheSnapshot() ) {
+				_contacts_cache.clear();
+				_backend.populateCache( _contacts_cache );
+			}
+			if( prefs.getBoolean( "bloom_filters", false ) )
+				_contacts_cache.enableBloomFilters();
+			if( prefs.getBoolean( "fuzzy_matching", false ) )
+				_contacts_cache.enableFuzzyMatching();
 
-			// do the import
+			// do the import (and commit any remaining imported contacts)
 			onImport();
+			commitBatch();
+			Log.i( TAG, _string_pool.getReport() );
+			Log.i( TAG, _contacts_cache.getReport() );
+			if( _contacts_cache.getBloomFilterReport() != null )
+				Log.i( TAG, _contacts_cache.getBloomFilterReport() );
+			if( _recording_backend != null )
+				showDryRunSummary();
+			else
+				saveCacheSnapshot();
 
 			// done!
 			finish( ACTION_ALLDONE );
@@ -482,7 +520,101 @@ public class Importer extends Thread
 		setIsFinished();
 	}
 
-	synchronized private void setIsFinished()
+	private CacheSnapshot getCacheSnapshot()
+	{
+		return new CacheSnapshot(
+			new File( _doit.getFilesDir(), "contacts_cache.dat" ) );
+	}
+
+	/**
+	 * Load the contacts cache from the snapshot saved by the last import, if
+	 * snapshots are enabled, and bring it up to date with any changes to the
+	 * contacts on the device since.
+	 *
+	 * @return true if the cache was loaded
+	 */
+	private boolean loadCacheSnapshot()
+	{
+		if( !getSharedPreferences().getBoolean( "cache_snapshot", false ) )
+			return false;
+
+		if( _cache_marker == null ) return false;
+		String marker = getCacheSnapshot().load( _contacts_cache );
+		if( marker == null ) {
+			Log.i( TAG, "no valid cache snapshot" );
+			return false;
+		}
+
+		if( marker.equals( _cache_marker ) ) {
+			Log.i( TAG, "cache loaded from snapshot" );
+			return true;
+		}
+		if( _backend.refreshCache( _contacts_cache, marker ) ) {
+			Log.i( TAG, "cache loaded from snapshot and refreshed" );
+			return true;
+		}
+		Log.i( TAG, "cache snapshot too old to refresh" );
+		return false;
+	}
+
+	/**
+	 * Save the contacts cache, which now includes the imported contacts, as
+	 * a snapshot for the next import (or, if snapshots are disabled, delete
+	 * any old snapshot, so contact details aren't left lying around).  The
+	 * snapshot is marked as it was before the import, so the next import
+	 * refreshes the imported contacts (and anything else that has changed
+	 * since).
+	 */
+	private void saveCacheSnapshot()
+	{
+		CacheSnapshot snapshot = getCacheSnapshot();
+		if( _cache_marker == null ) {
+			snapshot.delete();
+			return;
+		}
+
+		try {
+			snapshot.save( _contacts_cache, _cache_marker );
+		}
+		catch( IOException e ) {
+			Log.w( TAG, "unable to save cache snapshot", e );
+			snapshot.delete();
+		}
+	}
+
+	/**
+	 * Show a summary of what would have happened during a dry run.
+	 *
+	 * @throws AbortImportException
+	 */
+	private void showDryRunSummary() throws AbortImportException
+	{
+		StringBuilder summary = new StringBuilder();
+		summary.append( String.format(
+			getText( R.string.dryrun_contacts ).toString(),
+			_recording_backend.getCreates(), _recording_backend.getMerges(),
+			_recording_backend.getOverwrites(),
+			_doit._progress_counters.getCount( Doit.COUNT_SKIPS ) ) );
+
+		for( int kind = 0; kind < RecordingBackend.NUM_KINDS; kind++ )
+		{
+			int inserts = _recording_backend.getInserts( kind );
+			int updates = _recording_backend.getUpdates( kind );
+			int deletes = _recording_backend.getDeletes( kind );
+			if( inserts == 0 && updates == 0 && deletes == 0 ) continue;
+
+			summary.append( '\n' ).append( String.format(
+				getText( R.string.dryrun_rows ).toString(),
+				getText( DRY_RUN_KIND_NAMES[ kind ] ), inserts, updates,
+				deletes ) );
+		}
+
+		Log.i( TAG, summary.toString() );
+		showPrompt( Doit.MESSAGE_DRYRUNSUMMARY, summary.toString() );
+		checkAbort();
+	}
+
+	private void setIsFinished()
 	{
 		_is_finished = true;
 	}
@@ -501,21 +633,30 @@ public class Importer extends Thread
 		wake( response, RESPONSEEXTRA_NONE );
 	}
 
-	synchronized public void wake( int response, int response_extra )
+	/**
+	 * Answer the prompt that the user is currently being shown.  This is
+	 * called from the UI thread.
+	 *
+	 * @param response the response
+	 * @param response_extra any extra response information
+	 */
+	public void wake( int response, int response_extra )
 	{
-		_response = response;
-		_response_extra = response_extra;
-		notify();
+		PromptFuture prompt = _prompt;
+		if( prompt != null )
+			prompt.answer( response, response_extra );
 	}
 
-	synchronized public boolean setAbort()
+	public boolean setAbort()
 	{
-		if( !_is_finished && !_abort ) {
-			_abort = true;
-			notify();
-			return true;
-		}
-		return false;
+		if( _is_finished || !_abort.compareAndSet( false, true ) )
+			return false;
+
+		// stop waiting for any prompt
+		PromptFuture prompt = _prompt;
+		if( prompt != null )
+			prompt.cancel();
+		return true;
 	}
 
 	protected SharedPreferences getSharedPreferences()
@@ -528,16 +669,9 @@ public class Importer extends Thread
 		showError( _doit.getText( res ).toString() );
 	}
 
-	synchronized protected void showError( String message )
-			throws AbortImportException
+	protected void showError( String message ) throws AbortImportException
 	{
-		checkAbort();
-		_doit._handler.sendMessage( Message.obtain(
-			_doit._handler, Doit.MESSAGE_ERROR, message ) );
-		try {
-			wait();
-		}
-		catch( InterruptedException e ) { }
+		showPrompt( Doit.MESSAGE_ERROR, message );
 
 		// no need to check if an abortion happened during the wait, we are
 		// about to finish anyway!
@@ -549,25 +683,67 @@ public class Importer extends Thread
 		showContinueOrAbort( _doit.getText( res ).toString() );
 	}
 
-	synchronized protected void showContinueOrAbort( String message )
+	protected void showContinueOrAbort( String message )
 			throws AbortImportException
 	{
-		checkAbort();
-		_doit._handler.sendMessage( Message.obtain(
-			_doit._handler, Doit.MESSAGE_CONTINUEORABORT, message ) );
-		try {
-			wait();
-		}
-		catch( InterruptedException e ) { }
+		PromptFuture prompt =
+			showPrompt( Doit.MESSAGE_CONTINUEORABORT, message );
 
 		// if we're aborting, there's no need to check if an abortion happened
 		// during the wait
-		if( _response == RESPONSE_NEGATIVE )
+		if( !prompt.isCancelled() &&
+			prompt.getResponse() == RESPONSE_NEGATIVE )
+		{
 			finish( ACTION_ABORT );
+		}
 		else
 			checkAbort();
 	}
 
+	/**
+	 * Ask the UI to prompt the user.  This doesn't wait for the user to
+	 * respond: the response can be obtained from the returned future when it
+	 * is needed.  Only one prompt can be outstanding at a time.
+	 *
+	 * @param what the message to send to the UI
+	 * @param message the text of the prompt (or other data the UI needs)
+	 * @return the future response
+	 * @throws AbortImportException
+	 */
+	protected PromptFuture requestPrompt( int what, Object message )
+		throws AbortImportException
+	{
+		checkAbort();
+		PromptFuture prompt = new PromptFuture();
+		_prompt = prompt;
+
+		// if we were aborted before the prompt was visible to setAbort(), it
+		// will not have been cancelled, so cancel it now
+		if( _abort.get() )
+			prompt.cancel();
+		else
+			_doit._handler.sendMessage( Message.obtain(
+				_doit._handler, what, message ) );
+		return prompt;
+	}
+
+	/**
+	 * Ask the UI to prompt the user, and wait for the response.
+	 *
+	 * @param what the message to send to the UI
+	 * @param message the text of the prompt (or other data the UI needs)
+	 * @return the answered (or cancelled) prompt
+	 * @throws AbortImportException
+	 */
+	private PromptFuture showPrompt( int what, Object message )
+		throws AbortImportException
+	{
+		PromptFuture prompt = requestPrompt( what, message );
+		prompt.await();
+		_prompt = null;
+		return prompt;
+	}
+
 	protected void setProgressMessage( int res ) throws AbortImportException
 	{
 		checkAbort();
@@ -579,26 +755,20 @@ public class Importer extends Thread
 			throws AbortImportException
 	{
 		checkAbort();
-		_doit._handler.sendMessage( Message.obtain(
-			_doit._handler, Doit.MESSAGE_SETMAXPROGRESS,
-			Integer.valueOf( max_progress ) ) );
+		_doit._progress_counters.setMaxProgress( max_progress );
 	}
 
 	protected void setTmpProgress( int tmp_progress )
 		throws AbortImportException
 	{
 		checkAbort();
-		_doit._handler.sendMessage( Message.obtain(
-			_doit._handler, Doit.MESSAGE_SETTMPPROGRESS,
-			Integer.valueOf( tmp_progress ) ) );
+		_doit._progress_counters.setTmpProgress( tmp_progress );
 	}
 
 	protected void setProgress( int progress ) throws AbortImportException
 	{
 		checkAbort();
-		_doit._handler.sendMessage( Message.obtain(
-			_doit._handler, Doit.MESSAGE_SETPROGRESS,
-			Integer.valueOf( progress ) ) );
+		_doit._progress_counters.setProgress( progress );
 	}
 
 	protected void finish( int action ) throws AbortImportException
@@ -622,18 +792,142 @@ public class Importer extends Thread
 		return _doit.getText( res );
 	}
 
+	/**
+	 * Get a directory in which temporary files can be created.
+	 *
+	 * @return the directory
+	 */
+	protected File getTempDir()
+	{
+		return _doit.getCacheDir();
+	}
+
+	/**
+	 * Create a new, empty, on-disk store in which contacts can be staged
+	 * during the import.  The caller should delete() it when done.
+	 *
+	 * @return the staging store
+	 * @throws AbortImportException
+	 */
+	protected ContactStagingStore createStagingStore()
+		throws AbortImportException
+	{
+		try {
+			File file = File.createTempFile( "staging", ".dat",
+				getTempDir() );
+			return new ContactStagingStore( file );
+		}
+		catch( IOException e ) {
+			showError( R.string.error_stagingstore );
+		}
+
+		// showError() never returns, but appease the compiler...
+		return null;
+	}
+
+	/**
+	 * Are we going to plan what to do with all duplicate contacts before
+	 * importing any of them?  We do this when we would otherwise prompt the
+	 * user about each one.  If so, all contacts must be passed to
+	 * planContact() and then resolveMergePlan() must be called before any are
+	 * imported.
+	 *
+	 * @return true if we are
+	 */
+	protected boolean isPlanningMerges()
+	{
+		return _merge_setting == Doit.ACTION_PROMPT;
+	}
+
+	/**
+	 * Add a contact to the merge plan, if it matches an existing contact or
+	 * would match one that an earlier planned contact is going to create
+	 * (i.e., it is a duplicate within the import).
+	 *
+	 * @param contact the (finalised) contact
+	 * @param collating whether contacts that share a cache identifier are
+	 *        going to be merged before they are imported
+	 * @throws AbortImportException
+	 */
+	protected void planContact( ContactData contact, boolean collating )
+		throws AbortImportException
+	{
+		checkAbort();
+
+		if( _merge_plan == null ) {
+			_merge_plan = new MergePlan();
+			_planned_details = new HashMap< String, String >();
+		}
+
+		if( _contacts_cache.match( contact ) != null ) {
+			_merge_plan.addConflict( contact.getCacheIdentifier() );
+			return;
+		}
+
+		// Any contact that shares a phone number or email address with one
+		// that is going to be created is likely to be matched to it, as is
+		// one with the same cache identifier (unless they will be merged).
+		// This is only a guess, so anything that we miss is still prompted
+		// for when it is imported, but it stops us prompting for most
+		// duplicates within the import.
+		String key = contact.getCacheIdentifier().getKey();
+		ArrayList< String > details = new ArrayList< String >();
+		details.add( "i" + key );
+		ContactDetails numbers = contact.getNumbers();
+		for( int a = 0; a < numbers.size(); a++ ) {
+			String number =
+				Normaliser.normalisePhoneNumber( numbers.getValue( a ) );
+			if( number != null ) details.add( "n" + number );
+		}
+		ContactDetails emails = contact.getEmails();
+		for( int a = 0; a < emails.size(); a++ ) {
+			String email =
+				Normaliser.normaliseEmailAddress( emails.getValue( a ) );
+			if( email != null ) details.add( "e" + email );
+		}
+		boolean duplicate = false;
+		for( int a = 0; a < details.size(); a++ ) {
+			String owner = _planned_details.get( details.get( a ) );
+			if( owner != null && !( collating && owner.equals( key ) ) )
+				duplicate = true;
+		}
+		for( int a = 0; a < details.size(); a++ )
+			_planned_details.put( details.get( a ), key );
+		if( duplicate )
+			_merge_plan.addConflict( contact.getCacheIdentifier() );
+	}
+
+	/**
+	 * Have the user decide what to do with all of the contacts in the merge
+	 * plan, on one screen.  After this, contacts can be imported without any
+	 * further prompting.
+	 *
+	 * @throws AbortImportException
+	 */
+	protected void resolveMergePlan() throws AbortImportException
+	{
+		if( _merge_plan == null || _merge_plan.size() == 0 ) return;
+
+		// the UI sets the decisions in the plan before answering the prompt
+		showPrompt( Doit.MESSAGE_MERGEPLAN, _merge_plan );
+
+		// check if an abortion happened during the wait
+		checkAbort();
+	}
+
 	/**
 	 * Should we skip a contact, given whether it exists or not and the current
 	 * merge setting?  This routine handles throwing up a prompt, if required.
 	 *
-	 * @param contact_detail the display name of the contact
+	 * @param cache_identifier the contact's cache identifier
 	 * @param exists true if this contact matches one in the cache
 	 * @param merge_setting the merge setting to use
 	 * @return true if the contact should be skipped outright
 	 * @throws AbortImportException
 	 */
-	synchronized private boolean shouldWeSkipContact( String contact_detail,
-		boolean exists, int merge_setting ) throws AbortImportException
+	private boolean shouldWeSkipContact(
+		ContactsCache.CacheIdentifier cache_identifier, boolean exists,
+		int merge_setting ) throws AbortImportException
 	{
 		_last_merge_decision = merge_setting;
 
@@ -649,23 +943,32 @@ public class Importer extends Thread
 			// skip if there isn't one
 			if( !exists ) return false;
 
-			// ok, duplicate exists, so do prompt
-			_doit._handler.sendMessage( Message.obtain( _doit._handler,
-				Doit.MESSAGE_MERGEPROMPT, contact_detail ) );
-			try {
-				wait();
+			// if the user has already decided, as part of the merge plan, use
+			// their decision
+			if( _merge_plan != null ) {
+				int decision = _merge_plan.lookupDecision( cache_identifier );
+				if( decision != Doit.ACTION_PROMPT )
+					return shouldWeSkipContact( cache_identifier, exists,
+						decision );
 			}
-			catch( InterruptedException e ) { }
+
+			// ok, duplicate exists, so do prompt (this is only necessary if
+			// the contact wasn't planned for, which can happen when it is
+			// matched to a contact that was created during the import in a
+			// way that planContact() didn't foresee)
+			PromptFuture prompt = showPrompt( Doit.MESSAGE_MERGEPROMPT,
+				cache_identifier.getDetail() );
 
 			// check if an abortion happened during the wait
 			checkAbort();
 
 			// if "always" was selected, make choice permanent
-			if( _response_extra == RESPONSEEXTRA_ALWAYS )
-				_merge_setting = _response;
+			if( prompt.getResponseExtra() == RESPONSEEXTRA_ALWAYS )
+				_merge_setting = prompt.getResponse();
 
 			// recurse, with our new merge setting
-			return shouldWeSkipContact( contact_detail, exists, _response );
+			return shouldWeSkipContact( cache_identifier, exists,
+				prompt.getResponse() );
 		}
 
 		// for all other cases (either overwriting or merging) we don't skip
@@ -677,7 +980,7 @@ public class Importer extends Thread
 		checkAbort();
 
 		// show that we're skipping a new contact
-		_doit._handler.sendEmptyMessage( Doit.MESSAGE_CONTACTSKIPPED );
+		_doit._progress_counters.increment( Doit.COUNT_SKIPS );
 	}
 
 	protected void importContact( ContactData contact )
@@ -694,225 +997,246 @@ public class Importer extends Thread
 //		if( !showContinue( "====[ IMPORTING ]====\n: " + contact._name ) )
 //			finish( ACTION_ABORT );
 
-		// attempt to lookup the id of an existing contact in the cache with
-		// this contact data's cache identifier
-		Long id = (Long)_contacts_cache.lookup( cache_identifier );
+		// if a contact with the same identifier is waiting to be committed,
+		// or one that shares a phone number or email address with this one
+		// (which it could be matched by), commit it now, so that the cache is
+		// up to date
+		if( _batch.contains( cache_identifier ) ||
+			_batch.containsAnyDetail( MergePolicy.KIND_NUMBERS,
+				contact.getNumbers() ) ||
+			_batch.containsAnyDetail( MergePolicy.KIND_EMAILS,
+				contact.getEmails() ) )
+		{
+			commitBatch();
+		}
+
+		// attempt to find the id of an existing contact in the cache that
+		// matches this contact data
+		Long id = _contacts_cache.match( contact );
+
+		// likewise, if the existing contact is already being changed
+		if( id != null && _batch.containsContact( id ) ) {
+			commitBatch();
+			id = _contacts_cache.match( contact );
+		}
+
+		// if there's no such contact, we're going to create one, so reserve
+		// its cache identifier (unless someone else has just created it, in
+		// which case we use theirs) until the batch is committed
+		if( id == null ) {
+			try {
+				id = _contacts_cache.lookupOrReserve( cache_identifier );
+			}
+			catch( InterruptedException e ) {
+				throw new AbortImportException();
+			}
+		}
 
 		// check to see if this contact should be skipped
-		if( shouldWeSkipContact( cache_identifier.getDetail(), id != null,
+		if( shouldWeSkipContact( cache_identifier, id != null,
 			_merge_setting ) )
 		{
+			if( id == null )
+				_contacts_cache.cancelReservation( cache_identifier );
+
 			// show that we're skipping a contact
-			_doit._handler.sendEmptyMessage( Doit.MESSAGE_CONTACTSKIPPED );
+			_doit._progress_counters.increment( Doit.COUNT_SKIPS );
 			return;
 		}
 
+		ContactBatch.Entry entry = _batch.add( cache_identifier );
+
 		// if a contact exists, and we're overwriting, destroy the existing
 		// contact before importing
-		boolean contact_deleted = false;
-		if( id != null && _last_merge_decision == Doit.ACTION_OVERWRITE )
-		{
-			contact_deleted = true;
-
-			// remove from device
-			_backend.deleteContact( id );
-
-			// update cache
-			_contacts_cache.removeLookup( cache_identifier );
-			_contacts_cache.removeAssociatedData( id );
-
-			// show that we're overwriting a contact
-			_doit._handler.sendEmptyMessage( Doit.MESSAGE_CONTACTOVERWRITTEN );
-
-			// discard the contact id
+		if( id != null && _last_merge_decision == Doit.ACTION_OVERWRITE ) {
+			entry.setDeleteId( id );
 			id = null;
 		}
 
-		try {
-			// if we don't have a contact id yet (or we did, but we destroyed it
-			// when we deleted the contact), we'll have to create a new contact
-			if( id == null )
-			{
-				// create a new contact
-				id = _backend.addContact( contact._name );
-
-				// update cache
-				_contacts_cache.addLookup( cache_identifier, id );
-
-				// if we haven't already shown that we're overwriting a contact,
-				// show that we're creating a new contact
-				if( !contact_deleted )
-					_doit._handler.sendEmptyMessage(
-						Doit.MESSAGE_CONTACTCREATED );
-			}
-			else
-				// show that we're merging with an existing contact
-				_doit._handler.sendEmptyMessage( Doit.MESSAGE_CONTACTMERGED );
-
-			// import contact parts
-			if( contact.hasNumbers() )
-				importContactPhones( id, contact.getNumbers() );
-			if( contact.hasEmails() )
-				importContactEmails( id, contact.getEmails() );
-			if( contact.hasAddresses() )
-				importContactAddresses( id, contact.getAddresses() );
-			if( contact.hasOrganisations() )
-				importContactOrganisations( id, contact.getOrganisations() );
-			if( contact.hasNotes() )
-				importContactNotes( id, contact.getNotes() );
-			if( contact.hasBirthday() )
-				importContactBirthday( id, contact.getBirthday() );
-		}
-		catch( Backend.ContactCreationException e )
-		{
-			showError( R.string.error_unabletoaddcontact );
-		}
+		// if we don't have a contact id (or we did, but we are destroying that
+		// contact), a new contact will be created
+		entry.setId( id );
+		if( id == null )
+			entry.setName( contact._name );
+
+		// import contact parts
+		if( contact.hasNumbers() )
+			importContactDetails( entry, MergePolicy.KIND_NUMBERS,
+				contact.getNumbers() );
+		if( contact.hasEmails() )
+			importContactDetails( entry, MergePolicy.KIND_EMAILS,
+				contact.getEmails() );
+		if( contact.hasAddresses() )
+			importContactDetails( entry, MergePolicy.KIND_ADDRESSES,
+				contact.getAddresses() );
+		if( contact.hasOrganisations() )
+			importContactDetails( entry, MergePolicy.KIND_ORGANISATIONS,
+				contact.getOrganisations() );
+		if( contact.hasNotes() )
+			importContactDetails( entry, MergePolicy.KIND_NOTES,
+				contact.getNotes() );
+		if( contact.hasBirthday() )
+			importContactBirthday( entry, contact.getBirthday() );
+
+		// We don't know whether existing contacts have a photo (the cache
+		// doesn't hold them), so we only add a photo to a contact that we are
+		// creating.
+		if( contact.hasPhoto() && entry.isNewContact() )
+			importContactPhoto( entry, contact.getPhoto() );
+
+		// commit the batch once it is big enough, or as soon as it has a
+		// photo (so that we never hold more than one decoded photo)
+		if( _batch.size() >= BATCH_SIZE || _batch.getPhotoBytes() > 0 )
+			commitBatch();
 	}
 
-	private void importContactPhones( Long id,
-		HashMap< String, ContactData.PreferredDetail > datas )
-		throws ContactCreationException
+	/**
+	 * Commit the contacts that have been imported to the device and then
+	 * update the cache for those that were written.
+	 *
+	 * @throws AbortImportException
+	 */
+	protected void commitBatch() throws AbortImportException
 	{
-		// add phone numbers
-		Set< String > datas_keys = datas.keySet();
-		Iterator< String > i = datas_keys.iterator();
-		while( i.hasNext() ) {
-			String number = i.next();
-			ContactData.PreferredDetail data = datas.get( number );
-
-			// We don't want to add this number if it's crap, or it already
-			// exists (which would cause a duplicate to be created).  We don't
-			// take in to account the type when checking for duplicates.  This
-			// is intentional: types aren't really very reliable.  We assume
-			// that if the number exists at all, it doesn't need importing.
-			// Because of this, we also can't update the cache (which we don't
-			// need to anyway, so it's not a problem).
-			if( _contacts_cache.hasAssociatedNumber( id, number ) )
-				continue;
-
-			// add phone number
-			_backend.addContactPhone( id, number, data );
+		if( _batch.size() == 0 ) return;
 
-			// and add this address to the cache to prevent a addition of
-			// duplicate date from another file
-			_contacts_cache.addAssociatedNumber( id, number );
+		boolean failed = false;
+		try {
+			_backend.commitBatch( _batch );
+		}
+		catch( Backend.ContactCreationException e ) {
+			failed = true;
 		}
-	}
-
-	private void importContactEmails( Long id,
-		HashMap< String, ContactData.PreferredDetail > datas )
-		throws ContactCreationException
-	{
-		// add email addresses
-		Set< String > datas_keys = datas.keySet();
-		Iterator< String > i = datas_keys.iterator();
-		while( i.hasNext() ) {
-			String email = i.next();
-			ContactData.PreferredDetail data = datas.get( email );
 
-			// we don't want to add this email address if it exists already or
-			// we would introduce duplicates
-			if( _contacts_cache.hasAssociatedEmail( id, email ) )
+		for( int a = 0; a < _batch.size(); a++ )
+		{
+			ContactBatch.Entry entry = _batch.get( a );
+			ContactsCache.CacheIdentifier cache_identifier =
+				entry.getCacheIdentifier();
+
+			// entries that weren't written (because the batch failed) are
+			// left out of the cache, and new contacts' reservations released
+			if( !entry.isCommitted() ) {
+				if( entry.isNewContact() )
+					_contacts_cache.cancelReservation( cache_identifier );
 				continue;
+			}
 
-			// add phone number
-			_backend.addContactEmail( id, email, data );
-
-			// and add this address to the cache to prevent a addition of
-			// duplicate date from another file
-			_contacts_cache.addAssociatedEmail( id, email );
-		}
-	}
-
-	private void importContactAddresses( Long id,
-		HashMap< String, ContactData.TypeDetail > datas )
-		throws ContactCreationException
-	{
-		// add addresses
-		Set< String > datas_keys = datas.keySet();
-		Iterator< String > i = datas_keys.iterator();
-		while( i.hasNext() ) {
-			String address = i.next();
-			ContactData.TypeDetail data = datas.get( address );
+			// update the cache for a deleted contact
+			if( entry.getDeleteId() != null ) {
+				_contacts_cache.removeLookup( cache_identifier );
+				_contacts_cache.removeContact( entry.getDeleteId() );
+			}
 
-			// we don't want to add this address if it exists already or we
-			// would introduce duplicates
-			if( _contacts_cache.hasAssociatedAddress( id, address ) )
-				continue;
+			// update the cache for a new contact, completing its reservation
+			// (or an existing contact that was matched by something other than
+			// its cache identifier)
+			Long id = entry.getContactId();
+			if( id != null &&
+				_contacts_cache.lookup( cache_identifier ) == null )
+			{
+				_contacts_cache.addLookup( cache_identifier, id );
+			}
 
-			// add postal address
-			_backend.addContactAddresses( id, address, data );
+			// and add the new data to the cache to prevent the addition of
+			// duplicate data from another file (forgetting any data that was
+			// replaced)
+			if( id != null ) {
+				for( int kind = 0; kind < MergePolicy.NUM_KINDS; kind++ ) {
+					if( entry.isReplaced( kind ) )
+						_contacts_cache.removeAssociatedData( kind, id );
+					ContactDetails datas = entry.getDetails( kind );
+					for( int b = 0; b < datas.size(); b++ )
+						_contacts_cache.addAssociatedData(
+							kind, id, datas.getValue( b ) );
+				}
+			}
 
-			// and add this address to the cache to prevent a addition of
-			// duplicate date from another file
-			_contacts_cache.addAssociatedAddress( id, address );
+			// show what happened to the contact
+			if( entry.getDeleteId() != null )
+				_doit._progress_counters.increment( Doit.COUNT_OVERWRITES );
+			else if( entry.isNewContact() )
+				_doit._progress_counters.increment( Doit.COUNT_CREATES );
+			else
+				_doit._progress_counters.increment( Doit.COUNT_MERGES );
 		}
+
+		_batch.clear();
+		if( failed )
+			showError( R.string.error_unabletoaddcontact );
 	}
 
-	private void importContactOrganisations( Long id,
-		HashMap< String, ContactData.ExtraDetail > datas )
-		throws ContactCreationException
+	private void importContactDetails( ContactBatch.Entry entry, int kind,
+		ContactDetails datas )
 	{
-		// add addresses
-		Set< String > datas_keys = datas.keySet();
-		Iterator< String > i = datas_keys.iterator();
-		while( i.hasNext() ) {
-			String organisation = i.next();
-			ContactData.ExtraDetail data = datas.get( organisation );
+		Long id = entry.getId();
+		int policy = entry.isNewContact()?
+			MergePolicy.POLICY_MERGE : _merge_policy.getPolicy( kind );
+
+		// if we're keeping the existing contact's details of this kind, we
+		// only add any if it doesn't have any
+		if( policy == MergePolicy.POLICY_KEEP &&
+			_contacts_cache.countAssociatedData( kind, id ) > 0 )
+		{
+			return;
+		}
 
-			// we don't want to add this address if it exists already or we
-			// would introduce duplicates
-			if( _contacts_cache.hasAssociatedOrganisation( id, organisation ) )
+		for( int a = 0; a < datas.size(); a++ ) {
+			String value = datas.getValue( a );
+
+			// We don't want to add this detail if it already exists (which
+			// would cause a duplicate to be created).  We don't take in to
+			// account the type when checking for duplicates.  This is
+			// intentional: types aren't really very reliable.  We assume that
+			// if the detail exists at all, it doesn't need importing.  But if
+			// we are overwriting, we need to remember to keep it.
+			if( !entry.isNewContact() &&
+				_contacts_cache.hasAssociatedData( kind, id, value ) )
+			{
+				if( policy == MergePolicy.POLICY_OVERWRITE )
+					entry.retainDetail( kind, value );
 				continue;
+			}
 
-			// add organisation address
-			_backend.addContactOrganisation( id, organisation, data );
+			// add detail
+			entry.addDetail( kind, value, datas.getType( a ),
+				datas.isPreferred( a ), datas.getExtra( a ) );
+		}
 
-			// and add this address to the cache to prevent a addition of
-			// duplicate date from another file
-			_contacts_cache.addAssociatedOrganisation( id, organisation );
+		// if we're overwriting, and the existing contact has details of this
+		// kind that we aren't keeping, they need to be removed
+		if( policy == MergePolicy.POLICY_OVERWRITE &&
+			_contacts_cache.countAssociatedData( kind, id ) >
+				entry.countRetainedDetails( kind ) )
+		{
+			entry.setReplaced( kind );
 		}
 	}
 
-	private void importContactNotes( Long id, HashSet< String > datas )
-		throws ContactCreationException
+	private void importContactBirthday( ContactBatch.Entry entry,
+		String birthday )
 	{
-		// add notes
-		Iterator< String > i = datas.iterator();
-		while( i.hasNext() ) {
-			String note = i.next();
-
-			// we don't want to add this note if it exists already or we would
-			// introduce duplicates
-			if( _contacts_cache.hasAssociatedNote( id, note ) )
-				continue;
-
-			// add note
-			_backend.addContactNote( id, note );
-
-			// and add this note to the cache to prevent a addition of duplicate
-			// date from another file
-			_contacts_cache.addAssociatedNote( id, note );
-		}
+		// a contact only has one birthday, so we treat it as a list of one
+		_birthdays.clear();
+		_birthdays.add( birthday, 0, 0, null );
+		importContactDetails( entry, MergePolicy.KIND_BIRTHDAY, _birthdays );
 	}
 
-	private void importContactBirthday( Long id, String birthday )
-		throws ContactCreationException
+	private void importContactPhoto( ContactBatch.Entry entry,
+		PhotoBuffer photo )
 	{
-		// we don't want to import this birthday if it already exists
-		if( _contacts_cache.hasAssociatedBirthday( id, birthday ) )
-			return;
-
-		// add birthday
-		_backend.addContactBirthday( id, birthday );
+		// get the (possibly scaled) photo data, and add it
+		byte[] data = photo.getPhoto();
+		if( data != null )
+			_batch.setPhoto( entry, data );
 
-		// and update the cache
-		_contacts_cache.addAssociatedBirthday( id, birthday );
+		// we're done with the photo, so free up the buffer
+		photo.reset();
 	}
 
-	synchronized protected void checkAbort() throws AbortImportException
+	protected void checkAbort() throws AbortImportException
 	{
-		if( _abort ) {
+		if( _abort.get() ) {
 			// stop
 			throw new AbortImportException();
 		}
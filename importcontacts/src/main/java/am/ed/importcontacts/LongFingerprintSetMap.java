@@ -0,0 +1,180 @@
+/*
+ * LongFingerprintSetMap.java
+ *
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This file is part of the Import Contacts program (hereafter referred
+ * to as "this program").  For more information, see
+ * http://ed.am/dev/android/import-contacts
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package am.ed.importcontacts;
+
+/**
+ * A mapping of primitive longs (such as contact ids) to small sets of string
+ * fingerprints.  This is like a LongStringSetMap, except that only a 64-bit
+ * hash of each string is kept, rather than the string itself.  It can say
+ * that a string is definitely not in a set, but a string that appears to be
+ * in a set might only share its fingerprint with one that is (although this
+ * is very unlikely).
+ */
+public class LongFingerprintSetMap
+{
+	private LongHashMap< long[] > _sets;
+
+	public LongFingerprintSetMap()
+	{
+		_sets = new LongHashMap< long[] >();
+	}
+
+	/**
+	 * Add a string's fingerprint to a key's set.
+	 *
+	 * @param key the key
+	 * @param value the string
+	 * @return true if it was added (i.e., the fingerprint wasn't already in
+	 *         the set)
+	 */
+	public boolean add( long key, String value )
+	{
+		long fingerprint = fingerprint( value );
+		long[] fingerprints = _sets.get( key );
+		if( fingerprints == null ) {
+			_sets.put( key, new long[] { fingerprint } );
+			return true;
+		}
+
+		if( indexOf( fingerprints, fingerprint ) != -1 ) return false;
+		long[] new_fingerprints = new long[ fingerprints.length + 1 ];
+		System.arraycopy( fingerprints, 0, new_fingerprints, 0,
+			fingerprints.length );
+		new_fingerprints[ fingerprints.length ] = fingerprint;
+		_sets.put( key, new_fingerprints );
+		return true;
+	}
+
+	/**
+	 * Check whether a string's fingerprint is in a key's set.
+	 *
+	 * @param key the key
+	 * @param value the string
+	 * @return false if the string is definitely not in the set
+	 */
+	public boolean mightContain( long key, String value )
+	{
+		long[] fingerprints = _sets.get( key );
+		return fingerprints != null &&
+			indexOf( fingerprints, fingerprint( value ) ) != -1;
+	}
+
+	/**
+	 * Count the fingerprints in a key's set.
+	 *
+	 * @param key the key
+	 * @return the number of fingerprints
+	 */
+	public int count( long key )
+	{
+		long[] fingerprints = _sets.get( key );
+		return fingerprints == null? 0 : fingerprints.length;
+	}
+
+	/**
+	 * Get the fingerprints in a key's set.
+	 *
+	 * @param key the key
+	 * @return the fingerprints (which must not be modified), or null if the
+	 *         set is empty
+	 */
+	public long[] get( long key )
+	{
+		return _sets.get( key );
+	}
+
+	/**
+	 * Set a key's set of fingerprints.
+	 *
+	 * @param key the key
+	 * @param fingerprints the (distinct) fingerprints
+	 */
+	public void put( long key, long[] fingerprints )
+	{
+		_sets.put( key, fingerprints );
+	}
+
+	/**
+	 * Get the keys that have non-empty sets.
+	 *
+	 * @return a new array of keys
+	 */
+	public long[] keys()
+	{
+		return _sets.keys();
+	}
+
+	public void remove( long key )
+	{
+		_sets.remove( key );
+	}
+
+	public int size()
+	{
+		return _sets.size();
+	}
+
+	/**
+	 * Estimate the heap space used by the map, including its fingerprints.
+	 *
+	 * @return number of bytes
+	 */
+	public long estimateSize()
+	{
+		long size = _sets.estimateSize();
+		long[] keys = _sets.keys();
+		for( int a = 0; a < keys.length; a++ )
+			size += 16 + 8 * _sets.get( keys[ a ] ).length;
+		return size;
+	}
+
+	/**
+	 * Calculate a string's fingerprint.  This is a 64-bit FNV-1a hash of its
+	 * characters, with the bits mixed afterwards so that similar strings
+	 * don't have similar fingerprints.
+	 *
+	 * @param value the string
+	 * @return the fingerprint
+	 */
+	public static long fingerprint( String value )
+	{
+		long hash = 0xcbf29ce484222325L;
+		for( int a = 0; a < value.length(); a++ ) {
+			hash ^= value.charAt( a );
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	private static int indexOf( long[] fingerprints, long fingerprint )
+	{
+		for( int a = 0; a < fingerprints.length; a++ )
+			if( fingerprints[ a ] == fingerprint )
+				return a;
+		return -1;
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * LongHashMap.java
+ *
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This file is part of the Import Contacts program (hereafter referred
+ * to as "this program").  For more information, see
+ * http://ed.am/dev/android/import-contacts
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package am.ed.importcontacts;
+
+/**
+ * A hash map keyed by primitive longs (such as contact ids), which avoids the
+ * boxed keys and per-entry objects of a HashMap< Long, V >.  It uses open
+ * addressing (with linear probing), so all keys and values are held in two
+ * arrays.  Values may not be null, and Long.MIN_VALUE may not be used as a
+ * key (it marks empty slots).
+ */
+public class LongHashMap< V >
+{
+	private final static long EMPTY = Long.MIN_VALUE;
+
+	private long[] _keys;
+	private Object[] _values;
+	private int _size = 0;
+
+	public LongHashMap()
+	{
+		this( 16 );
+	}
+
+	/**
+	 * Create a map.
+	 *
+	 * @param expected_size the number of entries expected
+	 */
+	public LongHashMap( int expected_size )
+	{
+		int capacity = 16;
+		while( capacity * 2 < expected_size * 3 )
+			capacity *= 2;
+		allocate( capacity );
+	}
+
+	public int size()
+	{
+		return _size;
+	}
+
+	public V get( long key )
+	{
+		int slot = findSlot( key );
+		return _keys[ slot ] == EMPTY? null : value( slot );
+	}
+
+	public boolean containsKey( long key )
+	{
+		return _keys[ findSlot( key ) ] != EMPTY;
+	}
+
+	/**
+	 * Map a key to a value.
+	 *
+	 * @param key the key
+	 * @param value the value (which must not be null)
+	 * @return the value that the key was previously mapped to, or null
+	 */
+	public V put( long key, V value )
+	{
+		int slot = findSlot( key );
+		if( _keys[ slot ] != EMPTY ) {
+			V old = value( slot );
+			_values[ slot ] = value;
+			return old;
+		}
+
+		_keys[ slot ] = key;
+		_values[ slot ] = value;
+
+		// keep the table no more than two thirds full
+		if( ++_size * 3 > _keys.length * 2 )
+			rehash( _keys.length * 2 );
+		return null;
+	}
+
+	/**
+	 * Remove a key.
+	 *
+	 * @param key the key
+	 * @return the value that the key was mapped to, or null
+	 */
+	public V remove( long key )
+	{
+		int slot = findSlot( key );
+		if( _keys[ slot ] == EMPTY ) return null;
+		V old = value( slot );
+		_size--;
+
+		// Rather than leaving a marker, shift back any following entries that
+		// would no longer be found once this slot is empty.
+		int mask = _keys.length - 1;
+		int next = slot;
+		while( true ) {
+			next = ( next + 1 ) & mask;
+			if( _keys[ next ] == EMPTY ) break;
+			int home = hash( _keys[ next ] ) & mask;
+			if( ( ( next - home ) & mask ) >= ( ( next - slot ) & mask ) ) {
+				_keys[ slot ] = _keys[ next ];
+				_values[ slot ] = _values[ next ];
+				slot = next;
+			}
+		}
+		_keys[ slot ] = EMPTY;
+		_values[ slot ] = null;
+		return old;
+	}
+
+	/**
+	 * Get all of the keys.
+	 *
+	 * @return a new array of keys
+	 */
+	public long[] keys()
+	{
+		long[] keys = new long[ _size ];
+		int count = 0;
+		for( int a = 0; a < _keys.length; a++ )
+			if( _keys[ a ] != EMPTY )
+				keys[ count++ ] = _keys[ a ];
+		return keys;
+	}
+
+	/**
+	 * Estimate the heap space used by the map's tables (but not its values).
+	 *
+	 * @return number of bytes
+	 */
+	public long estimateSize()
+	{
+		return 16 + 8 * _keys.length + 16 + 4 * _values.length;
+	}
+
+	@SuppressWarnings( "unchecked" )
+	private V value( int slot )
+	{
+		return (V)_values[ slot ];
+	}
+
+	private int findSlot( long key )
+	{
+		int mask = _keys.length - 1;
+		int slot = hash( key ) & mask;
+		while( _keys[ slot ] != EMPTY && _keys[ slot ] != key )
+			slot = ( slot + 1 ) & mask;
+		return slot;
+	}
+
+	private static int hash( long key )
+	{
+		// ids are often sequential, so spread them across the table
+		int hash = (int)( key ^ ( key >>> 32 ) ) * 0x9e3779b9;
+		return hash ^ ( hash >>> 16 );
+	}
+
+	private void allocate( int capacity )
+	{
+		_keys = new long[ capacity ];
+		_values = new Object[ capacity ];
+		for( int a = 0; a < capacity; a++ )
+			_keys[ a ] = EMPTY;
+	}
+
+	private void rehash( int capacity )
+	{
+		long[] keys = _keys;
+		Object[] values = _values;
+		allocate( capacity );
+		for( int a = 0; a < keys.length; a++ )
+			if( keys[ a ] != EMPTY ) {
+				int slot = findSlot( keys[ a ] );
+				_keys[ slot ] = keys[ a ];
+				_values[ slot ] = values[ a ];
+			}
+	}
+}
@@ -0,0 +1,166 @@
+/*
+ * LongStringSetMap.java
+ *
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This file is part of the Import Contacts program (hereafter referred
+ * to as "this program").  For more information, see
+ * http://ed.am/dev/android/import-contacts
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package am.ed.importcontacts;
+
+/**
+ * A mapping of primitive longs (such as contact ids) to small sets of strings
+ * (such as a contact's phone numbers).  Most contacts only have one or two of
+ * each kind of detail, so rather than a HashSet for each, a set of one string
+ * is held as the string itself, and a larger set as an array of exactly the
+ * right size, which is searched linearly.
+ */
+public class LongStringSetMap
+{
+	private LongHashMap< Object > _sets;
+
+	public LongStringSetMap()
+	{
+		_sets = new LongHashMap< Object >();
+	}
+
+	/**
+	 * Add a string to a key's set.
+	 *
+	 * @param key the key
+	 * @param value the string
+	 * @return true if it was added (i.e., it wasn't already in the set)
+	 */
+	public boolean add( long key, String value )
+	{
+		Object set = _sets.get( key );
+		if( set == null ) {
+			_sets.put( key, value );
+			return true;
+		}
+
+		if( set instanceof String ) {
+			if( set.equals( value ) ) return false;
+			_sets.put( key, new String[] { (String)set, value } );
+			return true;
+		}
+
+		String[] values = (String[])set;
+		if( indexOf( values, value ) != -1 ) return false;
+		String[] new_values = new String[ values.length + 1 ];
+		System.arraycopy( values, 0, new_values, 0, values.length );
+		new_values[ values.length ] = value;
+		_sets.put( key, new_values );
+		return true;
+	}
+
+	public boolean contains( long key, String value )
+	{
+		Object set = _sets.get( key );
+		if( set == null ) return false;
+		if( set instanceof String ) return set.equals( value );
+		return indexOf( (String[])set, value ) != -1;
+	}
+
+	/**
+	 * Count the strings in a key's set.
+	 *
+	 * @param key the key
+	 * @return the number of strings
+	 */
+	public int count( long key )
+	{
+		Object set = _sets.get( key );
+		if( set == null ) return 0;
+		if( set instanceof String ) return 1;
+		return ( (String[])set ).length;
+	}
+
+	/**
+	 * Get the strings in a key's set.
+	 *
+	 * @param key the key
+	 * @return the strings (which must not be modified), or null if the set is
+	 *         empty
+	 */
+	public String[] get( long key )
+	{
+		return toArray( _sets.get( key ) );
+	}
+
+	/**
+	 * Remove a key's set.
+	 *
+	 * @param key the key
+	 * @return the strings that were in the set, or null if it was empty
+	 */
+	public String[] remove( long key )
+	{
+		return toArray( _sets.remove( key ) );
+	}
+
+	/**
+	 * Get the keys that have non-empty sets.
+	 *
+	 * @return a new array of keys
+	 */
+	public long[] keys()
+	{
+		return _sets.keys();
+	}
+
+	public int size()
+	{
+		return _sets.size();
+	}
+
+	/**
+	 * Estimate the heap space used by the map, including its strings (some of
+	 * which may be shared with other maps).
+	 *
+	 * @return number of bytes
+	 */
+	public long estimateSize()
+	{
+		long size = _sets.estimateSize();
+		long[] keys = _sets.keys();
+		for( int a = 0; a < keys.length; a++ ) {
+			String[] values = get( keys[ a ] );
+			if( values.length > 1 )
+				size += 16 + 4 * values.length;
+			for( int b = 0; b < values.length; b++ )
+				size += StringPool.estimateSize( values[ b ] );
+		}
+		return size;
+	}
+
+	private static String[] toArray( Object set )
+	{
+		if( set == null ) return null;
+		if( set instanceof String ) return new String[] { (String)set };
+		return (String[])set;
+	}
+
+	private static int indexOf( String[] values, String value )
+	{
+		for( int a = 0; a < values.length; a++ )
+			if( values[ a ].equals( value ) )
+				return a;
+		return -1;
+	}
+}
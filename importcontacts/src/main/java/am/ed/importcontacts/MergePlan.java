@@ -0,0 +1,124 @@
+/*
+ * MergePlan.java
+ *
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This file is part of the Import Contacts program (hereafter referred
+ * to as "this program").  For more information, see
+ * http://ed.am/dev/android/import-contacts
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package am.ed.importcontacts;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A plan of what to do with each imported contact that matches an existing
+ * contact on the device (a conflict).  The importer builds the plan while it
+ * reads the contacts, before any are imported, and the user then decides what
+ * to do about all of the conflicts at once (on one screen), rather than being
+ * prompted as each is imported.  Contacts that don't conflict are always
+ * created, so they are not part of the plan.
+ *
+ * The plan is built by the importer and then handed to the UI, which sets the
+ * decisions, so it is never used by both threads at the same time.
+ */
+public class MergePlan
+{
+	private HashMap< String, Integer > _conflict_indices =
+		new HashMap< String, Integer >();
+	private ArrayList< String > _details = new ArrayList< String >();
+	private int[] _decisions = null;
+
+	/**
+	 * Add a conflict to the plan (unless it is already there).
+	 *
+	 * @param cache_identifier the imported contact's cache identifier
+	 */
+	public void addConflict( ContactsCache.CacheIdentifier cache_identifier )
+	{
+		String key = cache_identifier.getKey();
+		if( _conflict_indices.containsKey( key ) ) return;
+
+		_conflict_indices.put( key, _details.size() );
+		_details.add( cache_identifier.getDetail() );
+		_decisions = null;
+	}
+
+	public int size()
+	{
+		return _details.size();
+	}
+
+	/**
+	 * Get the detail (e.g., the name) that identifies a conflicting contact,
+	 * to show to the user.
+	 *
+	 * @param index the conflict's index
+	 * @return the detail
+	 */
+	public String getDetail( int index )
+	{
+		return _details.get( index );
+	}
+
+	/**
+	 * Get the decision for a conflict.  Until it is set, it is to keep the
+	 * existing contact (i.e., nothing changes unless the user says so).
+	 *
+	 * @param index the conflict's index
+	 * @return one of Doit.ACTION_KEEP, ACTION_MERGE_MERGE or ACTION_OVERWRITE
+	 */
+	public int getDecision( int index )
+	{
+		return _decisions == null? Doit.ACTION_KEEP : _decisions[ index ];
+	}
+
+	public void setDecision( int index, int action )
+	{
+		if( _decisions == null ) {
+			_decisions = new int[ _details.size() ];
+			for( int a = 0; a < _decisions.length; a++ )
+				_decisions[ a ] = Doit.ACTION_KEEP;
+		}
+		_decisions[ index ] = action;
+	}
+
+	/**
+	 * Set the decision for all conflicts.
+	 *
+	 * @param action the action
+	 */
+	public void setAllDecisions( int action )
+	{
+		for( int a = 0; a < _details.size(); a++ )
+			setDecision( a, action );
+	}
+
+	/**
+	 * Look up the decision for an imported contact.
+	 *
+	 * @param cache_identifier the imported contact's cache identifier
+	 * @return the decision, or Doit.ACTION_PROMPT if the contact is not in
+	 *         the plan
+	 */
+	public int lookupDecision( ContactsCache.CacheIdentifier cache_identifier )
+	{
+		Integer index = _conflict_indices.get( cache_identifier.getKey() );
+		return index == null? Doit.ACTION_PROMPT : getDecision( index );
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * MergePolicy.java
+ *
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This file is part of the Import Contacts program (hereafter referred
+ * to as "this program").  For more information, see
+ * http://ed.am/dev/android/import-contacts
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package am.ed.importcontacts;
+
+import java.util.Locale;
+
+/**
+ * What to do with each kind of detail (phone numbers, notes, etc.) when an
+ * imported contact is merged in to an existing contact:
+ *
+ *  - POLICY_MERGE adds the imported details that the contact doesn't have;
+ *  - POLICY_OVERWRITE makes the contact's details of that kind the same as
+ *    the imported ones (removing any others); and
+ *  - POLICY_KEEP leaves the contact's details of that kind alone, unless it
+ *    doesn't have any, in which case the imported ones are added.
+ *
+ * A policy is described by a string such as "numbers=merge,notes=overwrite,
+ * birthday=keep".  Kinds that aren't mentioned are merged.
+ */
+public class MergePolicy
+{
+	public final static int KIND_NUMBERS = 0;
+	public final static int KIND_EMAILS = 1;
+	public final static int KIND_ADDRESSES = 2;
+	public final static int KIND_ORGANISATIONS = 3;
+	public final static int KIND_NOTES = 4;
+	public final static int KIND_BIRTHDAY = 5;
+	public final static int NUM_KINDS = 6;
+
+	public final static int POLICY_MERGE = 0;
+	public final static int POLICY_OVERWRITE = 1;
+	public final static int POLICY_KEEP = 2;
+
+	private final static String[] KIND_NAMES = {
+		"numbers", "emails", "addresses", "organisations", "notes",
+		"birthday",
+	};
+
+	private final static String[] POLICY_NAMES = {
+		"merge", "overwrite", "keep",
+	};
+
+	private int[] _policies = new int[ NUM_KINDS ];
+
+	/**
+	 * Create a policy that merges all kinds of detail.
+	 */
+	public MergePolicy()
+	{
+	}
+
+	/**
+	 * Create a policy from a description.  Anything that isn't understood is
+	 * ignored.
+	 *
+	 * @param description the description (e.g., "notes=overwrite"), or null
+	 */
+	public MergePolicy( String description )
+	{
+		if( description == null ) return;
+
+		String[] parts = description.split( "," );
+		for( int a = 0; a < parts.length; a++ )
+		{
+			int equals = parts[ a ].indexOf( '=' );
+			if( equals == -1 ) continue;
+
+			int kind = find( KIND_NAMES, parts[ a ].substring( 0, equals ) );
+			int policy = find( POLICY_NAMES,
+				parts[ a ].substring( equals + 1 ) );
+			if( kind != -1 && policy != -1 )
+				_policies[ kind ] = policy;
+		}
+	}
+
+	/**
+	 * Get the name of a kind of detail (as used in descriptions).
+	 *
+	 * @param kind the kind of detail
+	 * @return the name
+	 */
+	public static String getKindName( int kind )
+	{
+		return KIND_NAMES[ kind ];
+	}
+
+	public int getPolicy( int kind )
+	{
+		return _policies[ kind ];
+	}
+
+	public void setPolicy( int kind, int policy )
+	{
+		_policies[ kind ] = policy;
+	}
+
+	/**
+	 * Describe the policy, in the form understood by the constructor.
+	 *
+	 * @return the description
+	 */
+	@Override
+	public String toString()
+	{
+		StringBuilder description = new StringBuilder();
+		for( int a = 0; a < NUM_KINDS; a++ ) {
+			if( a > 0 ) description.append( ',' );
+			description.append( KIND_NAMES[ a ] ).append( '=' )
+				.append( POLICY_NAMES[ _policies[ a ] ] );
+		}
+		return description.toString();
+	}
+
+	private static int find( String[] names, String name )
+	{
+		name = name.trim().toLowerCase( Locale.ENGLISH );
+		for( int a = 0; a < names.length; a++ )
+			if( names[ a ].equals( name ) )
+				return a;
+		return -1;
+	}
+}
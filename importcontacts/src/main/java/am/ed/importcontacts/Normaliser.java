@@ -0,0 +1,290 @@
+/*
+ * Normaliser.java
+ *
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This file is part of the Import Contacts program (hereafter referred
+ * to as "this program").  For more information, see
+ * http://ed.am/dev/android/import-contacts
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package am.ed.importcontacts;
+
+/**
+ * Routines to sanitise and normalise contact details, shared by the importer
+ * (when reading contact data) and the contacts cache (when matching it).
+ *
+ * These are hand-written scanners, rather than regular expressions, and they
+ * only allocate a new string when the result differs from the value given
+ * (other than by trimming).  They are called several times for every detail
+ * of every contact, both imported and on the device.
+ */
+public class Normaliser
+{
+	/**
+	 * Sanitise a phone number, as it is imported.  The result is the leading
+	 * part of the (trimmed) number that consists of digits, spaces and the
+	 * characters "-()+#*".
+	 *
+	 * @param number the phone number
+	 * @return the sanitised number, or null if there is nothing left
+	 */
+	static public String sanitisePhoneNumber( String number )
+	{
+		if( number == null ) return null;
+		int start = trimStart( number );
+		int end = trimEnd( number, start );
+
+		int pos = start;
+		while( pos < end && isPhoneNumberChar( number.charAt( pos ) ) )
+			pos++;
+
+		return pos > start? number.substring( start, pos ) : null;
+	}
+
+	/**
+	 * Sanitise an email address, as it is imported.  The (trimmed) address
+	 * must have a local part (which contains no spaces) and a domain, made up
+	 * of at least two dot-separated labels.  The domain is lower-cased.
+	 *
+	 * @param email the email address
+	 * @return the sanitised email address, or null if it is invalid
+	 */
+	static public String sanitiseEmailAddress( String email )
+	{
+		if( email == null ) return null;
+		int start = trimStart( email );
+		int end = trimEnd( email, start );
+
+		// local part
+		int at = start;
+		while( at < end && email.charAt( at ) != '@' ) {
+			if( email.charAt( at ) == ' ' ) return null;
+			at++;
+		}
+		if( at == start || at == end ) return null;
+
+		// domain labels
+		int labels = 0;
+		boolean has_upper_case = false;
+		int label_start = at + 1;
+		while( true )
+		{
+			int label_end = label_start;
+			while( label_end < end && email.charAt( label_end ) != '.' ) {
+				char ch = email.charAt( label_end );
+				if( ch >= 'A' && ch <= 'Z' ) has_upper_case = true;
+				label_end++;
+			}
+			if( !isEmailDomainLabel( email, label_start, label_end ) )
+				return null;
+			labels++;
+
+			if( label_end == end ) break;
+			label_start = label_end + 1;
+		}
+		if( labels < 2 ) return null;
+
+		String ret = email.substring( start, end );
+		if( has_upper_case ) {
+			char[] chars = ret.toCharArray();
+			for( int a = at + 1 - start; a < chars.length; a++ )
+				if( chars[ a ] >= 'A' && chars[ a ] <= 'Z' )
+					chars[ a ] += 'a' - 'A';
+			ret = new String( chars );
+		}
+		return ret;
+	}
+
+	static public String normaliseName( String name )
+	{
+		return trimToNull( name );
+	}
+
+	/**
+	 * Normalise a phone number, for comparison.  The (trimmed) number has any
+	 * of the characters "-() " removed.
+	 *
+	 * @param number the phone number
+	 * @return the normalised number, or null if there is nothing left
+	 */
+	static public String normalisePhoneNumber( String number )
+	{
+		if( number == null ) return null;
+		int start = trimStart( number );
+		int end = trimEnd( number, start );
+
+		// count the characters that will be removed
+		int removed = 0;
+		for( int a = start; a < end; a++ )
+			if( isPhoneNumberSeparator( number.charAt( a ) ) )
+				removed++;
+		if( end - start - removed <= 0 ) return null;
+		if( removed == 0 ) return number.substring( start, end );
+
+		char[] chars = new char[ end - start - removed ];
+		int len = 0;
+		for( int a = start; a < end; a++ ) {
+			char ch = number.charAt( a );
+			if( !isPhoneNumberSeparator( ch ) )
+				chars[ len++ ] = ch;
+		}
+		return new String( chars );
+	}
+
+	/**
+	 * Normalise an email address, for comparison.  The address is trimmed and
+	 * lower-cased.
+	 *
+	 * @param email the email address
+	 * @return the normalised email address, or null if it is empty
+	 */
+	static public String normaliseEmailAddress( String email )
+	{
+		if( email == null ) return null;
+		int start = trimStart( email );
+		int end = trimEnd( email, start );
+		if( start == end ) return null;
+
+		// look for anything that needs lower-casing
+		int a = start;
+		while( a < end && !isUpperCaseOrNonAscii( email.charAt( a ) ) )
+			a++;
+		if( a == end ) return email.substring( start, end );
+
+		// ASCII-only addresses can be lower-cased simply
+		char[] chars = new char[ end - start ];
+		email.getChars( start, end, chars, 0 );
+		for( int b = a - start; b < chars.length; b++ ) {
+			char ch = chars[ b ];
+			if( ch >= 'A' && ch <= 'Z' )
+				chars[ b ] += 'a' - 'A';
+			else if( ch > 127 )
+				return new String( chars ).toLowerCase(
+					java.util.Locale.ENGLISH );
+		}
+		return new String( chars );
+	}
+
+	static public String normaliseOrganisation( String organisation )
+	{
+		return trimToNull( organisation );
+	}
+
+	static public String normaliseAddress( String address )
+	{
+		return trimToNull( address );
+	}
+
+	static public String normaliseNote( String note )
+	{
+		return trimToNull( note );
+	}
+
+	static public String normaliseBirthday( String birthday )
+	{
+		return trimToNull( birthday );
+	}
+
+	/**
+	 * Normalise any kind of detail, for comparison.
+	 *
+	 * @param kind the kind of detail (a MergePolicy.KIND_* value)
+	 * @param value the detail
+	 * @return the normalised detail, or null
+	 */
+	static public String normaliseDetail( int kind, String value )
+	{
+		switch( kind )
+		{
+		case MergePolicy.KIND_NUMBERS:	return normalisePhoneNumber( value );
+		case MergePolicy.KIND_EMAILS:	return normaliseEmailAddress( value );
+		default:						return trimToNull( value );
+		}
+	}
+
+	/**
+	 * Trim a string (as per String.trim()), returning null if nothing is left.
+	 *
+	 * @param string the string
+	 * @return the trimmed string, or null
+	 */
+	static private String trimToNull( String string )
+	{
+		if( string == null ) return null;
+		int start = trimStart( string );
+		int end = trimEnd( string, start );
+		return end > start? string.substring( start, end ) : null;
+	}
+
+	static private int trimStart( String string )
+	{
+		int start = 0;
+		while( start < string.length() && string.charAt( start ) <= ' ' )
+			start++;
+		return start;
+	}
+
+	static private int trimEnd( String string, int start )
+	{
+		int end = string.length();
+		while( end > start && string.charAt( end - 1 ) <= ' ' )
+			end--;
+		return end;
+	}
+
+	static private boolean isPhoneNumberChar( char ch )
+	{
+		return ( ch >= '0' && ch <= '9' ) || ch == '-' || ch == '(' ||
+			ch == ')' || ch == ' ' || ch == '+' || ch == '#' || ch == '*';
+	}
+
+	static private boolean isPhoneNumberSeparator( char ch )
+	{
+		return ch == '-' || ch == '(' || ch == ')' || ch == ' ';
+	}
+
+	static private boolean isUpperCaseOrNonAscii( char ch )
+	{
+		return ( ch >= 'A' && ch <= 'Z' ) || ch > 127;
+	}
+
+	static private boolean isAsciiLetter( char ch )
+	{
+		return ( ch >= 'a' && ch <= 'z' ) || ( ch >= 'A' && ch <= 'Z' );
+	}
+
+	/**
+	 * Check a domain label: it must start with a letter, may contain letters,
+	 * digits and hyphens, and must not end with a hyphen.
+	 */
+	static private boolean isEmailDomainLabel( String email, int start,
+		int end )
+	{
+		if( start == end || !isAsciiLetter( email.charAt( start ) ) )
+			return false;
+
+		for( int a = start + 1; a < end; a++ ) {
+			char ch = email.charAt( a );
+			if( !isAsciiLetter( ch ) && !( ch >= '0' && ch <= '9' ) &&
+				( ch != '-' || a == end - 1 ) )
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,308 @@
+/*
+ * PhotoBuffer.java
+ *
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This file is part of the Import Contacts program (hereafter referred
+ * to as "this program").  For more information, see
+ * http://ed.am/dev/android/import-contacts
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package am.ed.importcontacts;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * A bounded buffer that holds the binary data of a single photo.  The data is
+ * fed in as BASE64-encoded bytes, a piece (e.g., a line) at a time, and is
+ * decoded as it arrives, so the encoded data is never held in memory as a
+ * whole.  One buffer is reused for every photo, so there is only ever one
+ * photo in memory at a time.
+ */
+public class PhotoBuffer
+{
+	/**
+	 * The maximum size of (decoded) photo data that we will accept.  Photos
+	 * that are larger than this are discarded.
+	 */
+	public final static int MAX_PHOTO_SIZE = 512 * 1024;
+
+	/**
+	 * Photos with a width or height greater than this are scaled down before
+	 * being imported.
+	 */
+	public final static int MAX_PHOTO_DIMENSION = 720;
+
+	private final static int PHOTO_JPEG_QUALITY = 90;
+
+	private byte[] _data = new byte[ 16 * 1024 ];
+	private int _length = 0;
+	private boolean _overflowed = false;
+	private boolean _malformed = false;
+
+	// partially decoded BASE64 quantum
+	private int _quantum = 0;
+	private int _quantum_chars = 0;
+	private boolean _padding_seen = false;
+
+	/**
+	 * Discard any data, ready to receive a new photo.
+	 */
+	public void reset()
+	{
+		_length = 0;
+		_overflowed = false;
+		_malformed = false;
+		_quantum = 0;
+		_quantum_chars = 0;
+		_padding_seen = false;
+	}
+
+	/**
+	 * Decode some BASE64-encoded data, appending it to the buffer.  Whitespace
+	 * is ignored, so this can be given the raw bytes of each line of a multi-
+	 * line value in turn.
+	 *
+	 * @param in an array of BASE64-encoded bytes
+	 * @param from position in the array to start decoding from
+	 * @param to position in the array to stop decoding at
+	 */
+	public void decodeBase64( byte[] in, int from, int to )
+	{
+		for( int a = from; a < to && !_overflowed && !_malformed; a++ )
+		{
+			int ch = in[ a ];
+
+			// ignore whitespace
+			if( ch == ' ' || ch == '\t' || ch == '\r' || ch == '\n' )
+				continue;
+
+			// padding ends the data, but only at the end of a quantum
+			if( ch == '=' ) {
+				if( _quantum_chars < 2 ) _malformed = true;
+				_padding_seen = true;
+				continue;
+			}
+
+			int value = decodeBase64Char( ch );
+			if( value == -1 || _padding_seen ) {
+				_malformed = true;
+				break;
+			}
+
+			_quantum = ( _quantum << 6 ) | value;
+			if( ++_quantum_chars == 4 ) {
+				append( ( _quantum >> 16 ) & 0xff );
+				append( ( _quantum >> 8 ) & 0xff );
+				append( _quantum & 0xff );
+				_quantum = 0;
+				_quantum_chars = 0;
+			}
+		}
+	}
+
+	/**
+	 * Indicate that there is no more data for this photo.  Any partial quantum
+	 * of data is flushed and the data is checked.
+	 *
+	 * @return true if the buffer holds what appears to be a valid photo
+	 */
+	public boolean finish()
+	{
+		// flush any remaining (padded) bits
+		switch( _quantum_chars )
+		{
+		case 0:
+			break;
+		case 2:
+			append( ( _quantum >> 4 ) & 0xff );
+			break;
+		case 3:
+			append( ( _quantum >> 10 ) & 0xff );
+			append( ( _quantum >> 2 ) & 0xff );
+			break;
+		default:
+			_malformed = true;
+		}
+		_quantum = 0;
+		_quantum_chars = 0;
+
+		if( _overflowed || _malformed || !isKnownImageFormat() ) {
+			_length = 0;
+			return false;
+		}
+		return true;
+	}
+
+	public boolean hasData()
+	{
+		return _length > 0;
+	}
+
+	/**
+	 * Get the raw (decoded) photo data.  Only the first getLength() bytes of
+	 * the returned array are valid.
+	 *
+	 * @return the buffer's data
+	 */
+	public byte[] getData()
+	{
+		return _data;
+	}
+
+	public int getLength()
+	{
+		return _length;
+	}
+
+	/**
+	 * Replace the buffer's contents with previously decoded data (e.g., data
+	 * obtained from getData() that has been stored elsewhere in the mean
+	 * time).  Data that is too large is discarded.  This should be followed
+	 * by a call to finish().
+	 *
+	 * @param in a buffer, positioned at the start of the data
+	 * @param length the length of the data
+	 */
+	public void load( ByteBuffer in, int length )
+	{
+		reset();
+		if( length > MAX_PHOTO_SIZE ) {
+			in.position( in.position() + length );
+			_overflowed = true;
+			return;
+		}
+
+		if( _data.length < length )
+			_data = new byte[ length ];
+		in.get( _data, 0, length );
+		_length = length;
+	}
+
+	/**
+	 * Obtain the photo, scaled down if it is larger than MAX_PHOTO_DIMENSION
+	 * in either direction.
+	 *
+	 * @return the image data, or null if the image can not be decoded
+	 */
+	public byte[] getPhoto()
+	{
+		if( _length == 0 ) return null;
+
+		// find the image size
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray( _data, 0, _length, options );
+		if( options.outWidth <= 0 || options.outHeight <= 0 )
+			return null;
+
+		// if it's small enough, use it as-is
+		if( options.outWidth <= MAX_PHOTO_DIMENSION &&
+			options.outHeight <= MAX_PHOTO_DIMENSION )
+		{
+			byte[] ret = new byte[ _length ];
+			System.arraycopy( _data, 0, ret, 0, _length );
+			return ret;
+		}
+
+		// else, decode a sub-sampled version of it (no smaller than it needs
+		// to be), scale that to fit and re-compress it
+		int sample_size = 1;
+		while( options.outWidth / ( sample_size * 2 ) >= MAX_PHOTO_DIMENSION ||
+			options.outHeight / ( sample_size * 2 ) >= MAX_PHOTO_DIMENSION )
+		{
+			sample_size *= 2;
+		}
+		options = new BitmapFactory.Options();
+		options.inSampleSize = sample_size;
+		Bitmap bitmap = BitmapFactory.decodeByteArray(
+			_data, 0, _length, options );
+		if( bitmap == null ) return null;
+		int width = bitmap.getWidth();
+		int height = bitmap.getHeight();
+		if( width > MAX_PHOTO_DIMENSION || height > MAX_PHOTO_DIMENSION )
+		{
+			float scale =
+				(float)MAX_PHOTO_DIMENSION / Math.max( width, height );
+			Bitmap scaled = Bitmap.createScaledBitmap( bitmap,
+				Math.max( 1, Math.round( width * scale ) ),
+				Math.max( 1, Math.round( height * scale ) ), true );
+			if( scaled != bitmap ) bitmap.recycle();
+			bitmap = scaled;
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		bitmap.compress( Bitmap.CompressFormat.JPEG, PHOTO_JPEG_QUALITY, out );
+		bitmap.recycle();
+		return out.toByteArray();
+	}
+
+	private void append( int b )
+	{
+		if( _length == _data.length )
+		{
+			// grow the buffer, but not beyond our maximum photo size
+			if( _length >= MAX_PHOTO_SIZE ) {
+				_overflowed = true;
+				return;
+			}
+			byte[] data = new byte[ Math.min( _data.length * 2,
+				MAX_PHOTO_SIZE ) ];
+			System.arraycopy( _data, 0, data, 0, _length );
+			_data = data;
+		}
+		_data[ _length++ ] = (byte)b;
+	}
+
+	private boolean isKnownImageFormat()
+	{
+		// JPEG
+		if( _length >= 3 && ( _data[ 0 ] & 0xff ) == 0xff &&
+			( _data[ 1 ] & 0xff ) == 0xd8 && ( _data[ 2 ] & 0xff ) == 0xff )
+		{
+			return true;
+		}
+
+		// PNG
+		if( _length >= 8 && ( _data[ 0 ] & 0xff ) == 0x89 &&
+			_data[ 1 ] == 'P' && _data[ 2 ] == 'N' && _data[ 3 ] == 'G' )
+		{
+			return true;
+		}
+
+		// GIF
+		if( _length >= 6 && _data[ 0 ] == 'G' && _data[ 1 ] == 'I' &&
+			_data[ 2 ] == 'F' && _data[ 3 ] == '8' )
+		{
+			return true;
+		}
+
+		return false;
+	}
+
+	private static int decodeBase64Char( int ch )
+	{
+		if( ch >= 'A' && ch <= 'Z' ) return ch - 'A';
+		if( ch >= 'a' && ch <= 'z' ) return ch - 'a' + 26;
+		if( ch >= '0' && ch <= '9' ) return ch - '0' + 52;
+		if( ch == '+' ) return 62;
+		if( ch == '/' ) return 63;
+		return -1;
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * ProgressCounters.java
+ *
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This file is part of the Import Contacts program (hereafter referred
+ * to as "this program").  For more information, see
+ * http://ed.am/dev/android/import-contacts
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package am.ed.importcontacts;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Progress and statistics counters, which are updated by the worker thread as
+ * it goes and read by the UI periodically.  They are atomics, so updating them
+ * is cheap and the worker doesn't need to send the UI a message for every
+ * contact.
+ */
+public class ProgressCounters
+{
+	private AtomicInteger _max_progress = new AtomicInteger( 0 );
+	private AtomicInteger _tmp_progress = new AtomicInteger( 0 );
+	private AtomicInteger _progress = new AtomicInteger( -1 );
+	private AtomicIntegerArray _counts;
+
+	/**
+	 * Create counters.
+	 *
+	 * @param num_counts the number of statistics counters required
+	 */
+	public ProgressCounters( int num_counts )
+	{
+		_counts = new AtomicIntegerArray( num_counts );
+	}
+
+	/**
+	 * Set the maximum progress.  If either the temporary progress or the
+	 * progress are at the end of the previous maximum, they are moved to the
+	 * end of the new maximum.
+	 *
+	 * @param max_progress the new maximum progress
+	 */
+	public void setMaxProgress( int max_progress )
+	{
+		int old_max_progress = _max_progress.getAndSet( max_progress );
+		if( old_max_progress > 0 ) {
+			_tmp_progress.compareAndSet( old_max_progress - 1, max_progress );
+			_progress.compareAndSet( old_max_progress - 1, max_progress );
+		}
+	}
+
+	public int getMaxProgress()
+	{
+		return _max_progress.get();
+	}
+
+	public void setTmpProgress( int tmp_progress )
+	{
+		_tmp_progress.set( tmp_progress );
+	}
+
+	public int getTmpProgress()
+	{
+		return _tmp_progress.get();
+	}
+
+	public void setProgress( int progress )
+	{
+		_progress.set( progress );
+	}
+
+	/**
+	 * Get the progress.
+	 *
+	 * @return the progress, or -1 if it has not been set yet
+	 */
+	public int getProgress()
+	{
+		return _progress.get();
+	}
+
+	public void increment( int counter )
+	{
+		_counts.incrementAndGet( counter );
+	}
+
+	public int getCount( int counter )
+	{
+		return _counts.get( counter );
+	}
+}
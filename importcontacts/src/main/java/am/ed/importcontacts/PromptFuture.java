@@ -0,0 +1,104 @@
+/*
+ * PromptFuture.java
+ *
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This file is part of the Import Contacts program (hereafter referred
+ * to as "this program").  For more information, see
+ * http://ed.am/dev/android/import-contacts
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package am.ed.importcontacts;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The pending response to a prompt that the importer has asked the UI to show
+ * the user.  The UI answers it (from its own thread) whenever the user
+ * responds, and the importer can check for, or wait for, the response when it
+ * needs it.  A prompt can only be answered (or cancelled) once.
+ */
+public class PromptFuture
+{
+	private CountDownLatch _done = new CountDownLatch( 1 );
+	private volatile int _response = Importer.RESPONSE_NEGATIVE;
+	private volatile int _response_extra = Importer.RESPONSEEXTRA_NONE;
+	private volatile boolean _is_cancelled = false;
+	private AtomicBoolean _is_settled = new AtomicBoolean( false );
+
+	/**
+	 * Answer the prompt.  This has no effect if it has already been answered
+	 * or cancelled.
+	 *
+	 * @param response the response
+	 * @param response_extra any extra response information
+	 */
+	public void answer( int response, int response_extra )
+	{
+		if( !_is_settled.compareAndSet( false, true ) ) return;
+
+		_response = response;
+		_response_extra = response_extra;
+		_done.countDown();
+	}
+
+	/**
+	 * Cancel the prompt (e.g., because the import has been aborted).  This
+	 * has no effect if it has already been answered.
+	 */
+	public void cancel()
+	{
+		if( !_is_settled.compareAndSet( false, true ) ) return;
+
+		_is_cancelled = true;
+		_done.countDown();
+	}
+
+	public boolean isDone()
+	{
+		return _done.getCount() == 0;
+	}
+
+	public boolean isCancelled()
+	{
+		return _is_cancelled;
+	}
+
+	/**
+	 * Wait until the prompt has been answered or cancelled.
+	 */
+	public void await()
+	{
+		while( true ) {
+			try {
+				_done.await();
+				return;
+			}
+			catch( InterruptedException e ) { }
+		}
+	}
+
+	public int getResponse()
+	{
+		return _response;
+	}
+
+	public int getResponseExtra()
+	{
+		return _response_extra;
+	}
+}
@@ -0,0 +1,251 @@
+/*
+ * RecordingBackend.java
+ *
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This file is part of the Import Contacts program (hereafter referred
+ * to as "this program").  For more information, see
+ * http://ed.am/dev/android/import-contacts
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package am.ed.importcontacts;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * A backend for a dry run of an import.  The contacts cache is populated from
+ * the device (by another backend) as usual, but changes to contacts are not
+ * made.  Instead, they are counted: the contacts that would be created,
+ * merged and overwritten, and the data rows of each kind that would be
+ * inserted, updated and deleted.
+ *
+ * The contacts that would be created are given (negative) fake ids, so that
+ * later imported contacts can be matched to them, as they would be.
+ */
+public class RecordingBackend implements Backend
+{
+	// the rows of each kind of detail (indexed by MergePolicy.KIND_* values,
+	// or KIND_PHOTO) that would be inserted, updated and deleted
+	public final static int KIND_PHOTO = MergePolicy.NUM_KINDS;
+	public final static int NUM_KINDS = MergePolicy.NUM_KINDS + 1;
+
+	private Backend _backend;
+	private ContactsCache _cache;
+
+	// fake ids start below -1, which the cache uses as a special value
+	private long _next_fake_id = -2;
+
+	private int _creates = 0;
+	private int _merges = 0;
+	private int _overwrites = 0;
+	private int[] _inserts = new int[ NUM_KINDS ];
+	private int[] _updates = new int[ NUM_KINDS ];
+	private int[] _deletes = new int[ NUM_KINDS ];
+
+	// the details that would have been added to contacts (indexed by
+	// MergePolicy.KIND_* values), so that they can be read back
+	private LongStringSetMap[] _added_details =
+		new LongStringSetMap[ MergePolicy.NUM_KINDS ];
+
+	// the contacts that would have been given photos
+	private HashSet< Long > _added_photo_ids = new HashSet< Long >();
+
+	/**
+	 * Create a recording backend.
+	 *
+	 * @param backend the backend that is used to populate the cache
+	 * @param cache the cache, so we can see what data existing contacts have
+	 */
+	public RecordingBackend( Backend backend, ContactsCache cache )
+	{
+		_backend = backend;
+		_cache = cache;
+		for( int a = 0; a < MergePolicy.NUM_KINDS; a++ )
+			_added_details[ a ] = new LongStringSetMap();
+	}
+
+	@Override
+	public void populateCache( ContactsCache cache )
+	{
+		_backend.populateCache( cache );
+	}
+
+	@Override
+	public String getCacheMarker()
+	{
+		return _backend.getCacheMarker();
+	}
+
+	@Override
+	public boolean refreshCache( ContactsCache cache, String marker )
+	{
+		return _backend.refreshCache( cache, marker );
+	}
+
+	@Override
+	public void loadAssociatedData( ContactsCache cache, long[] ids )
+	{
+		// fake ids don't exist on the device
+		int num_real_ids = 0;
+		for( int a = 0; a < ids.length; a++ )
+			if( ids[ a ] >= 0 ) num_real_ids++;
+		long[] real_ids = new long[ num_real_ids ];
+		for( int a = 0, b = 0; a < ids.length; a++ )
+			if( ids[ a ] >= 0 ) real_ids[ b++ ] = ids[ a ];
+		if( num_real_ids > 0 )
+			_backend.loadAssociatedData( cache, real_ids );
+
+		// add the details that would have been added
+		for( int kind = 0; kind < MergePolicy.NUM_KINDS; kind++ ) {
+			if( !cache.isLoadedLazily( kind ) ) continue;
+			for( int a = 0; a < ids.length; a++ ) {
+				String[] added = _added_details[ kind ].get( ids[ a ] );
+				if( added != null )
+					for( int b = 0; b < added.length; b++ )
+						cache.addAssociatedData( kind, ids[ a ], added[ b ] );
+			}
+		}
+	}
+
+	@Override
+	public ArrayList< String > readContactDetails( Long id, int kind )
+	{
+		// fake ids don't exist on the device
+		ArrayList< String > values = id < 0?
+			new ArrayList< String >() : _backend.readContactDetails( id, kind );
+
+		String[] added = _added_details[ kind ].get( id );
+		if( added != null )
+			for( int a = 0; a < added.length; a++ )
+				values.add( added[ a ] );
+		return values;
+	}
+
+	@Override
+	public boolean hasContactPhoto( Long id )
+	{
+		// fake ids don't exist on the device
+		if( _added_photo_ids.contains( id ) ) return true;
+		return id >= 0 && _backend.hasContactPhoto( id );
+	}
+
+	/**
+	 * Pretend to add a contact.
+	 *
+	 * @param name name of the new contact
+	 * @return a new fake id
+	 */
+	private Long addContact( String name )
+	{
+		return _next_fake_id--;
+	}
+
+	@Override
+	public void commitBatch( ContactBatch batch )
+		throws ContactCreationException
+	{
+		for( int a = 0; a < batch.size(); a++ )
+		{
+			ContactBatch.Entry entry = batch.get( a );
+
+			if( entry.getDeleteId() != null )
+				_overwrites++;
+			else if( entry.isNewContact() )
+				_creates++;
+			else
+				_merges++;
+
+			// all of the rows of a contact that is overwritten are deleted
+			if( entry.getDeleteId() != null ) {
+				for( int kind = 0; kind < MergePolicy.NUM_KINDS; kind++ )
+					_deletes[ kind ] += _cache.countAssociatedData( kind,
+						entry.getDeleteId() );
+				if( hasContactPhoto( entry.getDeleteId() ) )
+					_deletes[ KIND_PHOTO ]++;
+			}
+
+			if( entry.isNewContact() )
+				entry.setNewId( addContact( entry.getName() ) );
+
+			for( int kind = 0; kind < MergePolicy.NUM_KINDS; kind++ )
+			{
+				ContactDetails datas = entry.getDetails( kind );
+				int inserts = 0;
+				for( int b = 0; b < datas.size(); b++ )
+					if( !datas.isExisting( b ) ) {
+						_added_details[ kind ].add( entry.getContactId(),
+							datas.getValue( b ) );
+						inserts++;
+					}
+
+				// as with the ContactsContract backend, the rows of replaced
+				// details are reused for new details before being deleted
+				int deletes = 0;
+				if( entry.isReplaced( kind ) )
+					deletes = _cache.countAssociatedData( kind, entry.getId() )
+						- entry.countRetainedDetails( kind );
+				int updates = Math.min( inserts, deletes );
+
+				_inserts[ kind ] += inserts - updates;
+				_updates[ kind ] += updates;
+				_deletes[ kind ] += deletes - updates;
+			}
+
+			if( entry.getPhoto() != null ) {
+				_added_photo_ids.add( entry.getContactId() );
+				_inserts[ KIND_PHOTO ]++;
+			}
+			entry.setCommitted();
+		}
+	}
+
+	public int getCreates()
+	{
+		return _creates;
+	}
+
+	public int getMerges()
+	{
+		return _merges;
+	}
+
+	public int getOverwrites()
+	{
+		return _overwrites;
+	}
+
+	/**
+	 * Get the number of rows of a kind of detail that would be inserted.
+	 *
+	 * @param kind a MergePolicy.KIND_* value, or KIND_PHOTO
+	 * @return the number of rows
+	 */
+	public int getInserts( int kind )
+	{
+		return _inserts[ kind ];
+	}
+
+	public int getUpdates( int kind )
+	{
+		return _updates[ kind ];
+	}
+
+	public int getDeletes( int kind )
+	{
+		return _deletes[ kind ];
+	}
+}
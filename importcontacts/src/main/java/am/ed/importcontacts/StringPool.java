@@ -0,0 +1,120 @@
+/*
+ * StringPool.java
+ *
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This file is part of the Import Contacts program (hereafter referred
+ * to as "this program").  For more information, see
+ * http://ed.am/dev/android/import-contacts
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package am.ed.importcontacts;
+
+import java.util.HashMap;
+
+/**
+ * A bounded table of strings, used to de-duplicate values that are repeated
+ * many times during an import (such as organisations, titles and addresses in
+ * a company directory).  Once the table is full, new values are no longer
+ * added to it (but values already in it continue to be shared).
+ */
+public class StringPool
+{
+	/**
+	 * Strings longer than this are not pooled (they are unlikely to repeat).
+	 */
+	public final static int MAX_STRING_LENGTH = 256;
+
+	private int _max_size;
+	private HashMap< String, String > _pool;
+
+	// statistics
+	private int _lookups = 0;
+	private int _hits = 0;
+	private long _bytes_saved = 0;
+
+	public StringPool( int max_size )
+	{
+		_max_size = max_size;
+		_pool = new HashMap< String, String >();
+	}
+
+	/**
+	 * Obtain a shared instance of a string that is equal to the one given.
+	 *
+	 * @param value the string
+	 * @return an equal string, which may be a previously pooled instance
+	 */
+	public String intern( String value )
+	{
+		if( value == null || value.length() > MAX_STRING_LENGTH )
+			return value;
+
+		_lookups++;
+		String pooled = _pool.get( value );
+		if( pooled != null ) {
+			if( pooled != value ) {
+				_hits++;
+				_bytes_saved += estimateSize( pooled );
+			}
+			return pooled;
+		}
+
+		if( _pool.size() < _max_size )
+			_pool.put( value, value );
+		return value;
+	}
+
+	public int size()
+	{
+		return _pool.size();
+	}
+
+	public int getHits()
+	{
+		return _hits;
+	}
+
+	/**
+	 * Return an estimate of the heap memory saved by de-duplicating strings.
+	 *
+	 * @return number of bytes
+	 */
+	public long getBytesSaved()
+	{
+		return _bytes_saved;
+	}
+
+	public String getReport()
+	{
+		return "string pool: " + _pool.size() + " strings, " + _hits +
+			" of " + _lookups + " lookups shared, ~" + _bytes_saved +
+			" bytes saved";
+	}
+
+	/**
+	 * Estimate the heap space used by a string.  This is the string object (a
+	 * header, a reference to its character array, and a few int fields), plus
+	 * its character array (a header and 2 bytes per char).
+	 *
+	 * @param string the string
+	 * @return number of bytes
+	 */
+	public static long estimateSize( String string )
+	{
+		return 24 + 16 + 2 * string.length();
+	}
+}
@@ -34,7 +34,6 @@ import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -52,6 +51,8 @@ public class VcardImporter extends Importer
 {
 	private int _vcard_count = 0;
 	private int _progress = 0;
+	private ContactCollator _collator = null;
+	private ContactStagingStore _staging_store = null;
 
 	public VcardImporter( Doit doit )
 	{
@@ -121,11 +122,145 @@ public class VcardImporter extends Importer
 		}
 		setProgressMax( _vcard_count );	// will also update tmp progress
 
+		// When importing from several files, the same contact is likely to
+		// appear in more than one of them.  So, rather than importing each
+		// contact as it is read, we collate them and merge duplicates first
+		// (whatever the merge setting).  A single file is imported as it is,
+		// but when planning what to do with duplicates of existing contacts
+		// we still need to read all of its contacts first, so they are staged
+		// and then imported in the order they were read.
+		if( files.length > 1 )
+			_collator = new ContactCollator( createStagingStore(),
+				getTempDir() );
+		else if( isPlanningMerges() )
+			_staging_store = createStagingStore();
+
 		// import them
-		setProgress( 0 );
-		for( int i = 0; i < files.length; i++ )
-			importVCardFile( files[ i ] );
-		setProgress( _vcard_count );
+		try {
+			setProgress( 0 );
+			for( int i = 0; i < files.length; i++ )
+				importVCardFile( files[ i ] );
+			if( _collator != null ) {
+				resolveMergePlan();
+				importCollatedContacts();
+			}
+			else if( _staging_store != null ) {
+				resolveMergePlan();
+				importStagedContacts();
+			}
+			setProgress( _vcard_count );
+		}
+		finally {
+			if( _collator != null ) {
+				_collator.delete();
+				_collator = null;
+			}
+			if( _staging_store != null ) {
+				_staging_store.delete();
+				_staging_store = null;
+			}
+		}
+	}
+
+	/**
+	 * Import a contact that has been read, or collate or stage it for
+	 * importing later.
+	 *
+	 * @param contact the contact
+	 * @throws AbortImportException
+	 */
+	private void handleContact( ContactData contact )
+		throws AbortImportException
+	{
+		if( _collator == null && _staging_store == null ) {
+			importContact( contact );
+			return;
+		}
+
+		if( isPlanningMerges() )
+			planContact( contact, _collator != null );
+
+		try {
+			if( _collator != null )
+				_collator.add( contact );
+			else
+				_staging_store.append( contact );
+		}
+		catch( IOException e ) {
+			showError( R.string.error_stagingstore );
+		}
+	}
+
+	/**
+	 * Import the contacts that have been staged, in the order they were read.
+	 *
+	 * @throws AbortImportException
+	 */
+	private void importStagedContacts() throws AbortImportException
+	{
+		try {
+			int progress = 0;
+			ContactData contact = new ContactData();
+			long offset = 0;
+			while( offset < _staging_store.getEndOffset() )
+			{
+				contact.reset();
+				offset = _staging_store.read( offset, contact );
+
+				try {
+					contact.finalise();
+					importContact( contact );
+				}
+				catch( ContactData.ContactNotIdentifiableException e ) {
+					// shouldn't happen, since these contacts were identifiable
+					// when they were staged
+					skipContact();
+				}
+
+				setProgress( ++progress );
+			}
+		}
+		catch( IOException e ) {
+			showError( R.string.error_stagingstore );
+		}
+	}
+
+	/**
+	 * Import the contacts that have been collated, merging those that would
+	 * be matched to the same existing contact.
+	 *
+	 * @throws AbortImportException
+	 */
+	private void importCollatedContacts() throws AbortImportException
+	{
+		try {
+			_collator.finishAdding();
+
+			int progress = 0;
+			ContactData contact = new ContactData();
+			while( true )
+			{
+				contact.reset();
+				int count = _collator.readNext( contact );
+				if( count == 0 ) break;
+
+				try {
+					contact.finalise();
+					importContact( contact );
+				}
+				catch( ContactData.ContactNotIdentifiableException e ) {
+					// shouldn't happen, since these contacts were identifiable
+					// when they were collated
+					skipContact();
+				}
+
+				progress += count;
+				setProgress( progress );
+			}
+		}
+		catch( IOException e ) {
+			showError( R.string.error_stagingstore );
+		}
 	}
 
 	private void countVCardFile( File file ) throws AbortImportException
@@ -205,12 +340,19 @@ public class VcardImporter extends Importer
 	private void importVCardFileContent( byte[] content, String fileName )
 		throws AbortImportException
 	{
-		// go through lines
+		// go through lines (the same vcard is reused for each contact)
 		Vcard vcard = null;
+		Vcard reusable_vcard = new Vcard();
 		int vcard_start_line = 0;
 		ContentLineIterator cli = new ContentLineIterator( content );
 		while( cli.hasNext() )
 		{
+			// when we're not in a vcard, there's no need to parse the lines in
+			// between (which may be a large, corrupt region following a vcard
+			// that we've aborted); jump straight to the next vcard beginning
+			if( vcard == null && !cli.skipToVcardBegin() )
+				break;
+
 			ContentLine content_line = cli.next();
 
 			// get a US-ASCII version of the string, for processing
@@ -219,8 +361,14 @@ public class VcardImporter extends Importer
 			if( vcard == null ) {
 				// look for vcard beginning
 				if( line.matches( "(?i)BEGIN[ \t]*:[ \t]*VCARD.*" ) ) {
-					setProgress( _progress++ );
-					vcard = new Vcard();
+					// (when collating or staging, the "real" progress is made
+					// later)
+					if( _collator != null || _staging_store != null )
+						setTmpProgress( _progress++ );
+					else
+						setProgress( _progress++ );
+					reusable_vcard.reset();
+					vcard = reusable_vcard;
 					vcard_start_line = cli.getLineNumber();
 				}
 			}
@@ -233,7 +381,7 @@ public class VcardImporter extends Importer
 						vcard.finaliseVcard();
 
 						// pass the finalised contact to the importer
-						importContact( vcard );
+						handleContact( vcard );
 					}
 					catch( Vcard.ParseException e ) {
 						showContinueOrAbort(
@@ -274,13 +422,13 @@ public class VcardImporter extends Importer
 							+ cli.getLineNumber() + "\n" + e.getMessage() );
 
 						// Although we're continuing, we still need to abort
-						// this vCard.  Further lines will be ignored until we
+						// this vCard.  Further lines will be skipped until we
 						// get to another BEGIN:VCARD line.
 						vcard = null;
 					}
 					catch( Vcard.SkipImportException e ) {
 						skipContact();
-						// Abort this vCard.  Further lines will be ignored until
+						// Abort this vCard.  Further lines will be skipped until
 						// we get to another BEGIN:VCARD line.
 						vcard = null;
 					}
@@ -405,6 +553,74 @@ public class VcardImporter extends Importer
 		{
 			return _line;
 		}
+
+		/**
+		 * Advance to the start of the next line that looks like the beginning
+		 * of a vCard (i.e., "BEGIN:VCARD").  Lines that are skipped are only
+		 * scanned as bytes for line endings, so this is cheap to do when
+		 * resynchronising after a bad vCard.
+		 *
+		 * @return true if a vCard beginning was found, in which case it will be
+		 * returned by the next call to next()
+		 */
+		public boolean skipToVcardBegin()
+		{
+			while( _pos < _content.length )
+			{
+				// is there a vcard beginning at the start of this line?
+				if( isVcardBeginAt( _pos ) )
+					return true;
+
+				// skip to the start of the next line
+				for( ; _pos < _content.length; _pos++ )
+					if( _content[ _pos ] == '\n' ) {
+						_pos++;
+						_line++;
+						break;
+					}
+			}
+
+			// reached the end of the content without finding anything
+			return false;
+		}
+
+		/**
+		 * Check, without creating a string, whether the content at a given
+		 * position matches "BEGIN[ \t]*:[ \t]*VCARD" (case insensitively).
+		 *
+		 * @param pos the position to check at
+		 * @return true if it matches
+		 */
+		private boolean isVcardBeginAt( int pos )
+		{
+			pos = matchWordAt( pos, "BEGIN" );
+			if( pos == -1 ) return false;
+			pos = skipWhitespaceAt( pos );
+			if( pos >= _content.length || _content[ pos ] != ':' ) return false;
+			pos = skipWhitespaceAt( pos + 1 );
+			return matchWordAt( pos, "VCARD" ) != -1;
+		}
+
+		private int matchWordAt( int pos, String upper_case_word )
+		{
+			if( pos + upper_case_word.length() > _content.length ) return -1;
+			for( int a = 0; a < upper_case_word.length(); a++ ) {
+				int ch = _content[ pos + a ];
+				if( ch >= 'a' && ch <= 'z' ) ch -= 'a' - 'A';
+				if( ch != upper_case_word.charAt( a ) ) return -1;
+			}
+			return pos + upper_case_word.length();
+		}
+
+		private int skipWhitespaceAt( int pos )
+		{
+			while( pos < _content.length &&
+				( _content[ pos ] == ' ' || _content[ pos ] == '\t' ) )
+			{
+				pos++;
+			}
+			return pos;
+		}
 	}
 
 	private class Vcard extends ContactData
@@ -426,6 +642,22 @@ public class VcardImporter extends Importer
 		private String _parser_buffered_value_so_far = "";
 		private String _cached_organisation = null;
 		private String _cached_title = null;
+		private PhotoBuffer _parser_photo = null;
+
+		@Override
+		protected void reset()
+		{
+			super.reset();
+			_version = null;
+			_content_lines = null;
+			_name_level = NAMELEVEL_NONE;
+			_parser_multiline_state = MULTILINE_NONE;
+			_parser_current_name_and_params = null;
+			_parser_buffered_value_so_far = "";
+			_cached_organisation = null;
+			_cached_title = null;
+			_parser_photo = null;
+		}
 
 		protected class UnencodeResult
 		{
@@ -536,7 +768,10 @@ public class VcardImporter extends Importer
 				String name_and_params;
 				int pos;
 
-				if( _parser_multiline_state != MULTILINE_NONE )
+				// are we continuing a value from a previous line?
+				boolean continuing = _parser_multiline_state != MULTILINE_NONE;
+
+				if( continuing )
 				{
 					// if we're currently in a multi-line value, use the stored
 					// property name and parameters
@@ -604,24 +839,37 @@ public class VcardImporter extends Importer
 				// determine whether we care about this entry
 				final HashSet< String > interesting_fields =
 					new HashSet< String >( Arrays.asList( new String[] { "N",
-						"FN", "ORG", "TITLE", "TEL", "EMAIL", "ADR", "LABEL" }
+						"FN", "ORG", "TITLE", "TEL", "EMAIL", "ADR", "LABEL",
+						"PHOTO" }
 				) );
 				boolean is_interesting_field =
 					interesting_fields.contains(
 						name_param_parts[ 0 ].toUpperCase( Locale.ENGLISH ) );
 
-				// parse encoding parameter
+				// parse encoding parameter (BASE64 is only supported for
+				// photos, for which v3.0 vCards use "B")
 				String encoding = checkParam( name_param_parts, "ENCODING" );
 				if( encoding != null )
 					encoding = encoding.toUpperCase( Locale.ENGLISH );
+				boolean is_photo =
+					name_param_parts[ 0 ].equalsIgnoreCase( "PHOTO" );
+				boolean is_base64 = encoding != null && (
+					encoding.equals( "BASE64" ) || encoding.equals( "B" ) );
 				if( is_interesting_field && encoding != null &&
 					!encoding.equalsIgnoreCase( "8BIT" ) &&
-					!encoding.equalsIgnoreCase( "QUOTED-PRINTABLE" ) )
-					//&& !encoding.equalsIgnoreCase( "BASE64" ) )
+					!encoding.equalsIgnoreCase( "QUOTED-PRINTABLE" ) &&
+					!( is_photo && is_base64 ) )
 				{
 					throw new ParseException( R.string.error_vcf_encoding );
 				}
 
+				// photo data is decoded straight in to a photo buffer, a line
+				// at a time, rather than being accumulated as a string
+				if( is_photo && is_base64 ) {
+					parsePhotoData( content_line, value, continuing );
+					return;
+				}
+
 				// parse charset parameter
 				String charset = checkParam( name_param_parts, "CHARSET" );
 				if( charset != null )
@@ -642,11 +890,6 @@ public class VcardImporter extends Importer
 				{
 					unencoding_result = unencodeQuotedPrintable( value );
 				}
-//				else if( encoding != null &&
-//					encoding.equalsIgnoreCase( "BASE64" ) )
-//				{
-//					unencoding_result = unencodeBase64( props[ 1 ], charset );
-//				}
 				if( unencoding_result != null ) {
 					value = unencoding_result.getBuffer();
 					if( unencoding_result.isAnotherLineRequired() )
@@ -904,12 +1147,8 @@ public class VcardImporter extends Importer
 
 			// if we previously had an organisation, look it up and append this
 			// title to it
-			if( _cached_organisation != null && hasOrganisations() ) {
-				HashMap< String, ExtraDetail > datas = getOrganisations();
-				ExtraDetail detail = datas.get( _cached_organisation );
-				if( detail != null )
-					detail.setExtra( value );
-			}
+			if( _cached_organisation != null )
+				setOrganisationTitle( _cached_organisation, value );
 
 			// same as when handling organisation, if we've not previously found
 			// an organisation we store this title, else we clear it (since we
@@ -1037,6 +1276,28 @@ public class VcardImporter extends Importer
 			setBirthday( value );
 		}
 
+		private void parsePhotoData( ContentLine content_line,
+			ByteBuffer value, boolean continuing )
+		{
+			// if this is the start of a photo, begin decoding it (unless we've
+			// already got a photo, in which case this one is ignored)
+			if( !continuing )
+				_parser_photo = hasPhoto()? null : beginPhoto();
+
+			// decode this line's data
+			if( _parser_photo != null )
+				_parser_photo.decodeBase64( value.array(), value.position(),
+					value.limit() );
+
+			// the data may continue on a folded line, else we're done
+			if( content_line.doesNextLineLookFolded() )
+				_parser_multiline_state = MULTILINE_FOLDED;
+			else if( _parser_photo != null ) {
+				finishPhoto();
+				_parser_photo = null;
+			}
+		}
+
 		public void finaliseVcard()
 			throws ParseException, ContactNotIdentifiableException,
 				SkipImportException, AbortImportException
@@ -0,0 +1,382 @@
+/*
+ * CursorReaderBenchmark.java
+ *
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This file is part of the Import Contacts program (hereafter referred
+ * to as "this program").  For more information, see
+ * http://ed.am/dev/android/import-contacts
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package am.ed.importcontacts;
+
+import android.content.ContentResolver;
+import android.database.CharArrayBuffer;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.DataSetObserver;
+import android.net.Uri;
+import android.os.Bundle;
+
+/**
+ * A benchmark of reading a cursor through CursorReader's columns, whose
+ * indices are resolved once, against looking each column's index up for
+ * every row.  The cursor is a stand-in, whose getColumnIndex() works like
+ * AbstractCursor's (it strips any table prefix and then searches the
+ * columns, ignoring case), so it only needs a JVM (with android.jar, for
+ * the Cursor interface), e.g.:
+ *
+ *   java -cp <android.jar>:<app classes>:<unit test classes> \
+ *       am.ed.importcontacts.CursorReaderBenchmark [rows]
+ */
+public class CursorReaderBenchmark
+{
+	private final static int DEFAULT_ROWS = 2000000;
+	private final static int NUM_VALUES = 1000;
+
+	// the stand-in cursor's columns, of which the last four are read
+	private final static String[] COLUMNS = {
+		"_id", "raw_contact_id", "is_primary", "is_super_primary",
+		"data_version", "data3", "contact_id", "mimetype", "data1", "data2",
+	};
+
+	/**
+	 * A cursor with a fixed number of rows, whose values are taken from a
+	 * small set (so that reading them costs very little).
+	 */
+	private static class StandInCursor implements Cursor
+	{
+		private int _count;
+		private int _position = -1;
+		private long[] _longs = new long[ NUM_VALUES ];
+		private String[] _strings = new String[ NUM_VALUES ];
+
+		public StandInCursor( int count )
+		{
+			_count = count;
+			for( int a = 0; a < NUM_VALUES; a++ ) {
+				_longs[ a ] = a;
+				_strings[ a ] = "value " + a;
+			}
+		}
+
+		@Override
+		public int getColumnIndex( String column_name )
+		{
+			int period = column_name.lastIndexOf( '.' );
+			if( period != -1 )
+				column_name = column_name.substring( period + 1 );
+			String[] column_names = getColumnNames();
+			for( int a = 0; a < column_names.length; a++ )
+				if( column_names[ a ].equalsIgnoreCase( column_name ) )
+					return a;
+			return -1;
+		}
+
+		@Override
+		public int getColumnIndexOrThrow( String column_name )
+		{
+			int index = getColumnIndex( column_name );
+			if( index < 0 ) throw new IllegalArgumentException();
+			return index;
+		}
+
+		@Override
+		public String getColumnName( int index )
+		{
+			return COLUMNS[ index ];
+		}
+
+		@Override
+		public String[] getColumnNames()
+		{
+			return COLUMNS;
+		}
+
+		@Override
+		public int getColumnCount()
+		{
+			return COLUMNS.length;
+		}
+
+		@Override
+		public int getCount()
+		{
+			return _count;
+		}
+
+		@Override
+		public int getPosition()
+		{
+			return _position;
+		}
+
+		@Override
+		public boolean moveToPosition( int position )
+		{
+			_position = Math.max( -1, Math.min( position, _count ) );
+			return _position >= 0 && _position < _count;
+		}
+
+		@Override
+		public boolean move( int offset )
+		{
+			return moveToPosition( _position + offset );
+		}
+
+		@Override
+		public boolean moveToFirst()
+		{
+			return moveToPosition( 0 );
+		}
+
+		@Override
+		public boolean moveToLast()
+		{
+			return moveToPosition( _count - 1 );
+		}
+
+		@Override
+		public boolean moveToNext()
+		{
+			return moveToPosition( _position + 1 );
+		}
+
+		@Override
+		public boolean moveToPrevious()
+		{
+			return moveToPosition( _position - 1 );
+		}
+
+		@Override
+		public boolean isFirst()
+		{
+			return _position == 0 && _count > 0;
+		}
+
+		@Override
+		public boolean isLast()
+		{
+			return _position == _count - 1 && _count > 0;
+		}
+
+		@Override
+		public boolean isBeforeFirst()
+		{
+			return _position == -1;
+		}
+
+		@Override
+		public boolean isAfterLast()
+		{
+			return _position == _count;
+		}
+
+		@Override
+		public String getString( int index )
+		{
+			return _strings[ ( _position + index ) % NUM_VALUES ];
+		}
+
+		@Override
+		public long getLong( int index )
+		{
+			return _longs[ ( _position + index ) % NUM_VALUES ];
+		}
+
+		@Override
+		public int getInt( int index )
+		{
+			return (int)getLong( index );
+		}
+
+		@Override
+		public short getShort( int index )
+		{
+			return (short)getLong( index );
+		}
+
+		@Override
+		public float getFloat( int index )
+		{
+			return getLong( index );
+		}
+
+		@Override
+		public double getDouble( int index )
+		{
+			return getLong( index );
+		}
+
+		@Override
+		public byte[] getBlob( int index )
+		{
+			return null;
+		}
+
+		@Override
+		public void copyStringToBuffer( int index, CharArrayBuffer buffer )
+		{
+		}
+
+		@Override
+		public int getType( int index )
+		{
+			return FIELD_TYPE_STRING;
+		}
+
+		@Override
+		public boolean isNull( int index )
+		{
+			return false;
+		}
+
+		@Override
+		@Deprecated
+		public void deactivate()
+		{
+		}
+
+		@Override
+		@Deprecated
+		public boolean requery()
+		{
+			return false;
+		}
+
+		@Override
+		public void close()
+		{
+		}
+
+		@Override
+		public boolean isClosed()
+		{
+			return false;
+		}
+
+		@Override
+		public void registerContentObserver( ContentObserver observer )
+		{
+		}
+
+		@Override
+		public void unregisterContentObserver( ContentObserver observer )
+		{
+		}
+
+		@Override
+		public void registerDataSetObserver( DataSetObserver observer )
+		{
+		}
+
+		@Override
+		public void unregisterDataSetObserver( DataSetObserver observer )
+		{
+		}
+
+		@Override
+		public void setNotificationUri( ContentResolver resolver, Uri uri )
+		{
+		}
+
+		@Override
+		public Uri getNotificationUri()
+		{
+			return null;
+		}
+
+		@Override
+		public boolean getWantsAllOnMoveCalls()
+		{
+			return false;
+		}
+
+		@Override
+		public void setExtras( Bundle extras )
+		{
+		}
+
+		@Override
+		public Bundle getExtras()
+		{
+			return null;
+		}
+
+		@Override
+		public Bundle respond( Bundle extras )
+		{
+			return null;
+		}
+	}
+
+	private static long timePerRowLookups( int rows )
+	{
+		long total = 0;
+		long start = System.nanoTime();
+		Cursor cur = new StandInCursor( rows );
+		while( cur.moveToNext() ) {
+			total += cur.getLong( cur.getColumnIndex( "contact_id" ) );
+			total += cur.getString( cur.getColumnIndex( "mimetype" ) )
+				.length();
+			total += cur.getString( cur.getColumnIndex( "data1" ) ).length();
+			total += cur.getInt( cur.getColumnIndex( "data2" ) );
+		}
+		cur.close();
+		long time = System.nanoTime() - start;
+		if( total < 0 ) System.out.println();	// (keep the results used)
+		return time;
+	}
+
+	private static long timeCursorReader( int rows )
+	{
+		long total = 0;
+		long start = System.nanoTime();
+		CursorReader cur = new CursorReader( new StandInCursor( rows ) );
+		CursorReader.Column id_column = cur.getColumn( "contact_id" );
+		CursorReader.Column mimetype_column = cur.getColumn( "mimetype" );
+		CursorReader.Column data1_column = cur.getColumn( "data1" );
+		CursorReader.Column data2_column = cur.getColumn( "data2" );
+		while( cur.moveToNext() ) {
+			total += id_column.getLong();
+			total += mimetype_column.getString().length();
+			total += data1_column.getString().length();
+			total += data2_column.getInt();
+		}
+		cur.close();
+		long time = System.nanoTime() - start;
+		if( total < 0 ) System.out.println();	// (keep the results used)
+		return time;
+	}
+
+	public static void main( String[] args )
+	{
+		int rows = args.length > 0?
+			Integer.parseInt( args[ 0 ] ) : DEFAULT_ROWS;
+
+		// warm up, then time each
+		for( int a = 0; a < 3; a++ ) {
+			timePerRowLookups( rows );
+			timeCursorReader( rows );
+		}
+		long per_row = timePerRowLookups( rows );
+		long reader = timeCursorReader( rows );
+		System.out.println( rows + " rows of " + COLUMNS.length +
+			" columns, reading 4: " + per_row / rows +
+			" ns/row with per-row lookups, " + reader / rows +
+			" ns/row with CursorReader" );
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * FuzzyIndexBenchmark.java
+ *
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This file is part of the Import Contacts program (hereafter referred
+ * to as "this program").  For more information, see
+ * http://ed.am/dev/android/import-contacts
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package am.ed.importcontacts;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * A benchmark of FuzzyIndex at the scale of a large address book.  Synthetic
+ * existing contacts (random first and last names, some accented, each with a
+ * phone number) are indexed, and then imported contacts are matched against
+ * them.  The imported contacts are existing ones with typos, reordered
+ * names and (for half of them) a reformatted phone number, so most should
+ * match.  It only needs a JVM, e.g.:
+ *
+ *   java -cp <app classes>:<unit test classes> \
+ *       am.ed.importcontacts.FuzzyIndexBenchmark [contacts] [queries]
+ */
+public class FuzzyIndexBenchmark
+{
+	private final static int DEFAULT_CONTACTS = 50000;
+	private final static int DEFAULT_QUERIES = 50000;
+
+	private final static String[] FIRST_NAMES = {
+		"James", "Mary", "John", "Patricia", "Robert", "Jennifer", "Michael",
+		"Linda", "William", "Elizabeth", "David", "Barbara", "Richard",
+		"Susan", "Joseph", "Jessica", "Thomas", "Sarah", "Charles", "Karen",
+		"Jos\u00e9", "Zo\u00eb", "Fran\u00e7ois", "S\u00f8ren",
+		"J\u00fcrgen", "\u0141ukasz", "\u00c5sa", "Bj\u00f6rn",
+		"Dmitri", "Aleksandr", "\u0418\u0440\u0438\u043d\u0430",
+		"\u0421\u0435\u0440\u0433\u0435\u0439", "Mohammed",
+		"Fatima", "Wei", "Yuki", "Priya", "Arjun", "Chlo\u00e9",
+	};
+	private final static String LETTERS = "abcdefghijklmnopqrstuvwxyz";
+
+	private static String randomSurname( Random random )
+	{
+		int length = 4 + random.nextInt( 6 );
+		StringBuilder name = new StringBuilder( length );
+		name.append( (char)( 'A' + random.nextInt( 26 ) ) );
+		for( int a = 1; a < length; a++ )
+			name.append( LETTERS.charAt( random.nextInt( 26 ) ) );
+		return name.toString();
+	}
+
+	private static String randomNumber( Random random )
+	{
+		StringBuilder number = new StringBuilder( "07" );
+		for( int a = 0; a < 9; a++ )
+			number.append( (char)( '0' + random.nextInt( 10 ) ) );
+		return number.toString();
+	}
+
+	/**
+	 * Misspell a name, by replacing, dropping or doubling one letter.
+	 */
+	private static String misspell( Random random, String name )
+	{
+		int pos = 1 + random.nextInt( name.length() - 1 );
+		switch( random.nextInt( 3 ) )
+		{
+		case 0:
+			return name.substring( 0, pos ) +
+				LETTERS.charAt( random.nextInt( 26 ) ) +
+				name.substring( pos + 1 );
+		case 1:
+			return name.substring( 0, pos ) + name.substring( pos + 1 );
+		default:
+			return name.substring( 0, pos + 1 ) + name.substring( pos );
+		}
+	}
+
+	public static void main( String[] args )
+	{
+		int num_contacts = args.length > 0?
+			Integer.parseInt( args[ 0 ] ) : DEFAULT_CONTACTS;
+		int num_queries = args.length > 1?
+			Integer.parseInt( args[ 1 ] ) : DEFAULT_QUERIES;
+		Random random = new Random( 1 );
+
+		// make the existing contacts
+		String[] first_names = new String[ num_contacts ];
+		String[] last_names = new String[ num_contacts ];
+		String[] numbers = new String[ num_contacts ];
+		for( int a = 0; a < num_contacts; a++ ) {
+			first_names[ a ] =
+				FIRST_NAMES[ random.nextInt( FIRST_NAMES.length ) ];
+			last_names[ a ] = randomSurname( random );
+			numbers[ a ] = randomNumber( random );
+		}
+
+		// index them
+		long start = System.nanoTime();
+		FuzzyIndex index = new FuzzyIndex();
+		for( int a = 0; a < num_contacts; a++ ) {
+			Long id = Long.valueOf( a );
+			index.addName( id, first_names[ a ] + " " + last_names[ a ] );
+			index.addNumber( id, numbers[ a ] );
+		}
+		long index_time = System.nanoTime() - start;
+
+		// make the imported contacts
+		String[] names = new String[ num_queries ];
+		ContactDetails[] query_numbers = new ContactDetails[ num_queries ];
+		int[] expected = new int[ num_queries ];
+		for( int a = 0; a < num_queries; a++ ) {
+			int b = random.nextInt( num_contacts );
+			expected[ a ] = b;
+			String last_name = misspell( random, last_names[ b ] );
+			if( random.nextBoolean() )
+				names[ a ] = first_names[ b ] + " " + last_name;
+			else
+				names[ a ] = last_name.toUpperCase( Locale.ENGLISH ) + ", " +
+					first_names[ b ];
+			query_numbers[ a ] = new ContactDetails();
+			if( random.nextBoolean() )
+				query_numbers[ a ].add( "+44 " + numbers[ b ].substring( 1 ),
+					0, 0, null );
+		}
+
+		// match them
+		int correct = 0;
+		int wrong = 0;
+		start = System.nanoTime();
+		for( int a = 0; a < num_queries; a++ ) {
+			Long id = index.match( names[ a ], query_numbers[ a ] );
+			if( id == null ) continue;
+			if( id.intValue() == expected[ a ] ) correct++;
+			else wrong++;
+		}
+		long match_time = System.nanoTime() - start;
+
+		System.out.println( num_contacts + " contacts indexed in " +
+			index_time / 1000000 + " ms" );
+		System.out.println( num_queries + " queries in " +
+			match_time / 1000000 + " ms (" +
+			(long)( num_queries * 1e9 / match_time ) + " matches/s): " +
+			correct + " correct, " + wrong + " wrong, " +
+			( num_queries - correct - wrong ) + " unmatched" );
+	}
+}
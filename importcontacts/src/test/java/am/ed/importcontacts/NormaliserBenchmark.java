@@ -0,0 +1,205 @@
+/*
+ * NormaliserBenchmark.java
+ *
+ * Copyright (C) 2026 agent <agent@local>
+ *
+ * This file is part of the Import Contacts program (hereafter referred
+ * to as "this program").  For more information, see
+ * http://ed.am/dev/android/import-contacts
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package am.ed.importcontacts;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A benchmark of Normaliser's phone number and email address scanners
+ * against the regular expressions that they replaced (which are reproduced
+ * here).  It checks that both agree on random inputs and then times them.
+ * It only needs a JVM, e.g.:
+ *
+ *   java -cp <app classes>:<unit test classes> \
+ *       am.ed.importcontacts.NormaliserBenchmark [iterations]
+ */
+public class NormaliserBenchmark
+{
+	private final static int AGREEMENT_INPUTS = 2000000;
+	private final static int DEFAULT_ITERATIONS = 1000000;
+	private final static int NUM_INPUTS = 1000;
+
+	// characters that random inputs are made from (the old email pattern
+	// accepted "[\]^_`" at the end of a domain label, which is deliberately
+	// no longer reproduced, so they are left out)
+	private final static String PHONE_CHARS = "0123456789 -()+#*x.";
+	private final static String EMAIL_CHARS =
+		"abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789-.@ ";
+
+	private static String oldSanitisePhoneNumber( String number )
+	{
+		number = number.trim();
+		Pattern p = Pattern.compile( "^[-\\(\\) \\+0-9#*]+" );
+		Matcher m = p.matcher( number );
+		if( m.lookingAt() ) return m.group( 0 );
+		return null;
+	}
+
+	private static String oldSanitiseEmailAddress( String email )
+	{
+		email = email.trim();
+		Pattern p = Pattern.compile(
+			"^[^ @]+@[a-zA-Z]([-a-zA-Z0-9]*[a-zA-z0-9])?" +
+			"(\\.[a-zA-Z]([-a-zA-Z0-9]*[a-zA-z0-9])?)+$" );
+		Matcher m = p.matcher( email );
+		if( m.matches() ) {
+			String[] bits = email.split( "@" );
+			return bits[ 0 ] + "@" +
+				bits[ 1 ].toLowerCase( Locale.ENGLISH );
+		}
+		return null;
+	}
+
+	private static String oldNormalisePhoneNumber( String number )
+	{
+		if( number == null ) return null;
+		number = number.trim().replaceAll( "[-\\(\\) ]", "" );
+		return number.length() > 0? number : null;
+	}
+
+	private static String oldNormaliseEmailAddress( String email )
+	{
+		if( email == null ) return null;
+		email = email.trim().toLowerCase( Locale.ENGLISH );
+		return email.length() > 0? email : null;
+	}
+
+	private static String randomString( Random random, String chars,
+		int max_length )
+	{
+		int length = 1 + random.nextInt( max_length );
+		StringBuilder string = new StringBuilder( length );
+		for( int a = 0; a < length; a++ )
+			string.append( chars.charAt( random.nextInt( chars.length() ) ) );
+		return string.toString();
+	}
+
+	private static String randomPhoneNumber( Random random )
+	{
+		return randomString( random, PHONE_CHARS, 20 );
+	}
+
+	private static String randomEmailAddress( Random random )
+	{
+		// mostly plausible addresses, with some noise
+		if( random.nextInt( 4 ) == 0 )
+			return randomString( random, EMAIL_CHARS, 30 );
+		return randomString( random, EMAIL_CHARS.substring( 0, 62 ), 10 ) +
+			"@" + randomString( random, EMAIL_CHARS.substring( 0, 63 ), 8 ) +
+			"." + randomString( random, EMAIL_CHARS.substring( 0, 52 ), 3 );
+	}
+
+	private static boolean same( String a, String b )
+	{
+		return a == null? b == null : a.equals( b );
+	}
+
+	private static void checkAgreement( Random random )
+	{
+		int disagreements = 0;
+		for( int a = 0; a < AGREEMENT_INPUTS / 2; a++ )
+		{
+			String number = randomPhoneNumber( random );
+			if( !same( Normaliser.normalisePhoneNumber(
+					Normaliser.sanitisePhoneNumber( number ) ),
+				oldNormalisePhoneNumber( oldSanitisePhoneNumber( number ) ) ) )
+			{
+				if( disagreements++ < 10 )
+					System.out.println( "disagree: \"" + number + "\"" );
+			}
+
+			String email = randomEmailAddress( random );
+			if( !same( Normaliser.normaliseEmailAddress(
+					Normaliser.sanitiseEmailAddress( email ) ),
+				oldNormaliseEmailAddress( oldSanitiseEmailAddress( email ) ) ) )
+			{
+				if( disagreements++ < 10 )
+					System.out.println( "disagree: \"" + email + "\"" );
+			}
+		}
+		System.out.println( AGREEMENT_INPUTS + " inputs, " + disagreements +
+			" disagreements" );
+	}
+
+	private static long timeScanners( String[] numbers, String[] emails,
+		int iterations )
+	{
+		int found = 0;
+		long start = System.nanoTime();
+		for( int a = 0; a < iterations; a++ ) {
+			if( Normaliser.normalisePhoneNumber( Normaliser.sanitisePhoneNumber(
+				numbers[ a % NUM_INPUTS ] ) ) != null ) found++;
+			if( Normaliser.normaliseEmailAddress(
+				Normaliser.sanitiseEmailAddress(
+					emails[ a % NUM_INPUTS ] ) ) != null ) found++;
+		}
+		long time = System.nanoTime() - start;
+		if( found < 0 ) System.out.println();	// (keep the results used)
+		return time;
+	}
+
+	private static long timeRegexes( String[] numbers, String[] emails,
+		int iterations )
+	{
+		int found = 0;
+		long start = System.nanoTime();
+		for( int a = 0; a < iterations; a++ ) {
+			if( oldNormalisePhoneNumber( oldSanitisePhoneNumber(
+				numbers[ a % NUM_INPUTS ] ) ) != null ) found++;
+			if( oldNormaliseEmailAddress( oldSanitiseEmailAddress(
+				emails[ a % NUM_INPUTS ] ) ) != null ) found++;
+		}
+		long time = System.nanoTime() - start;
+		if( found < 0 ) System.out.println();	// (keep the results used)
+		return time;
+	}
+
+	public static void main( String[] args )
+	{
+		int iterations = args.length > 0?
+			Integer.parseInt( args[ 0 ] ) : DEFAULT_ITERATIONS;
+		Random random = new Random( 1 );
+
+		checkAgreement( random );
+
+		String[] numbers = new String[ NUM_INPUTS ];
+		String[] emails = new String[ NUM_INPUTS ];
+		for( int a = 0; a < NUM_INPUTS; a++ ) {
+			numbers[ a ] = randomPhoneNumber( random );
+			emails[ a ] = randomEmailAddress( random );
+		}
+
+		// warm up, then time each
+		timeScanners( numbers, emails, iterations );
+		timeRegexes( numbers, emails, iterations );
+		System.out.println( iterations + " phone+email iterations: " +
+			timeScanners( numbers, emails, iterations ) / 1000000 +
+			" ms with Normaliser, " +
+			timeRegexes( numbers, emails, iterations ) / 1000000 +
+			" ms with the old regexes" );
+	}
+}